@@ -0,0 +1,107 @@
+package holon.benchmark;
+
+import holon.api.http.Content;
+import holon.api.http.Cookies;
+import holon.api.http.Request;
+import holon.api.http.RequestHeaders;
+import holon.api.http.Status;
+import holon.internal.routing.path.Path;
+import holon.spi.RequestContext;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * A request context that does nothing with responses, other than remember the last status. This lets benchmarks
+ * measure routing and pipeline overhead without the cost of any actual network engine.
+ */
+public class BenchmarkRequest implements RequestContext
+{
+    private Path path;
+    private Status lastStatus;
+
+    @Override
+    public RequestContext initialize( Path path )
+    {
+        this.path = path;
+        return this;
+    }
+
+    @Override
+    public Path path()
+    {
+        return path;
+    }
+
+    public Status lastStatus()
+    {
+        return lastStatus;
+    }
+
+    @Override
+    public void respond( Status status )
+    {
+        respond( status, null, null );
+    }
+
+    @Override
+    public void respond( Status status, Content content )
+    {
+        respond( status, content, null );
+    }
+
+    @Override
+    public void respond( Status status, Content content, Object context )
+    {
+        this.lastStatus = status;
+    }
+
+    @Override
+    public Request addCookie( String name, String value )
+    {
+        return this;
+    }
+
+    @Override
+    public Request addCookie( String name, String value, String path, String domain, int maxAge, boolean secure,
+                              boolean httpOnly )
+    {
+        return this;
+    }
+
+    @Override
+    public Request discardCookie( String name )
+    {
+        return this;
+    }
+
+    @Override
+    public Request addHeader( String header, String value )
+    {
+        return this;
+    }
+
+    @Override
+    public Map<String, Object> formData()
+    {
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public RequestHeaders headers()
+    {
+        return ( name ) -> null;
+    }
+
+    @Override
+    public Cookies cookies()
+    {
+        return null;
+    }
+
+    @Override
+    public Map<String, Iterable<String>> queryParams()
+    {
+        return Collections.emptyMap();
+    }
+}
@@ -0,0 +1,41 @@
+package holon.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point for the benchmark profile. Runs every benchmark in the project (or the ones matched by a regex given
+ * on the command line) with the GC profiler attached, so that each result reports allocated bytes per operation
+ * alongside the time per operation. Results are written as JSON to target/benchmark-results.json, to be kept as a
+ * baseline for later runs. Any regular JMH command line option can be passed in as well.
+ */
+public class HolonBenchmarks
+{
+    public static void main( String[] args ) throws RunnerException, CommandLineOptionException
+    {
+        CommandLineOptions cmdOptions = new CommandLineOptions( args );
+
+        OptionsBuilder builder = new OptionsBuilder();
+        if(cmdOptions.getIncludes().isEmpty())
+        {
+            builder.include( "holon\\..*Benchmark" );
+        }
+        if(!cmdOptions.getResult().hasValue())
+        {
+            builder.result( "target/benchmark-results.json" ).resultFormat( ResultFormatType.JSON );
+        }
+
+        Options options = builder
+                .parent( cmdOptions )
+                .addProfiler( GCProfiler.class )
+                .build();
+
+        new Runner( options ).run();
+    }
+}
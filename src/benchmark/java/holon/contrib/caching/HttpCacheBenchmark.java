@@ -0,0 +1,132 @@
+package holon.contrib.caching;
+
+import holon.api.http.Status;
+import holon.api.middleware.Pipeline;
+import holon.contrib.http.StringContent;
+import holon.internal.http.netty.NettyRequestContext;
+import holon.internal.logging.printstream.PrintStreamLogging;
+import holon.internal.routing.path.PatternSegment;
+import holon.spi.RequestContext;
+import holon.util.io.FileTools;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseEncoder;
+import io.netty.handler.codec.http.HttpVersion;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures serving a response through the http cache, both when it is already cached and when the cache has to
+ * render it through the pipeline and write it to disk.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HttpCacheBenchmark
+{
+    private static final String KEY = "/cached";
+
+    private Path cacheDir;
+    private HttpCache cache;
+    private EmbeddedChannel channel;
+    private NettyRequestContext ctx;
+    private Pipeline pipeline;
+
+    @Setup
+    public void setup() throws IOException
+    {
+        cacheDir = Files.createTempDirectory( "holon-cache-benchmark" );
+        cache = new HttpCache( cacheDir, new PrintStreamLogging( System.out ) );
+        channel = new EmbeddedChannel( new HttpResponseEncoder() );
+        ctx = new NettyRequestContext();
+
+        StringContent content = new StringContent( "Hello, world!" );
+        pipeline = new Pipeline()
+        {
+            @Override
+            public <T> void satisfyDependency( Class<T> cls, T component )
+            {
+
+            }
+
+            @Override
+            public void call()
+            {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void call( RequestContext req )
+            {
+                req.respond( Status.Code.OK, content );
+            }
+        };
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        cache.stop();
+        channel.finish();
+        FileTools.deleteRecursively( cacheDir.toFile() );
+    }
+
+    @Benchmark
+    public int hit() throws IOException
+    {
+        cache.respond( newRequest(), KEY, KEY, 0, "", "", false, pipeline );
+        return drain();
+    }
+
+    @Benchmark
+    public int miss() throws IOException
+    {
+        cache.evict( KEY );
+        cache.respond( newRequest(), KEY, KEY, 0, "", "", false, pipeline );
+        return drain();
+    }
+
+    private RequestContext newRequest()
+    {
+        ctx.initialize( new DefaultFullHttpRequest( HttpVersion.HTTP_1_1, HttpMethod.GET, KEY ), channel,
+                Collections.emptyMap() );
+        return ctx.initialize( new PatternSegment.ParamHandlingPath().initialize( KEY, new String[]{"cached"} ) );
+    }
+
+    private int drain()
+    {
+        // Flushing is normally up to the server handler, which is not part of this pipeline
+        channel.flush();
+        int bytes = 0;
+        Object msg;
+        while((msg = channel.readOutbound()) != null)
+        {
+            if(msg instanceof ByteBuf)
+            {
+                bytes += ((ByteBuf) msg).readableBytes();
+                ((ByteBuf) msg).release();
+            }
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,99 @@
+package holon.internal.http.netty;
+
+import holon.api.http.Status;
+import holon.contrib.http.StringContent;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponseEncoder;
+import io.netty.handler.codec.http.HttpVersion;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures rendering and encoding a response through the netty request context, using an embedded channel so no
+ * actual socket IO is involved.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NettyRequestContextBenchmark
+{
+    @Param({"16", "16384"})
+    public int bodySize;
+
+    private EmbeddedChannel channel;
+    private HttpRequest request;
+    private NettyRequestContext ctx;
+    private StringContent content;
+
+    @Setup
+    public void setup()
+    {
+        StringBuilder body = new StringBuilder();
+        for ( int i = 0; i < bodySize; i++ )
+        {
+            body.append( (char)('a' + i % 26) );
+        }
+
+        channel = new EmbeddedChannel( new HttpResponseEncoder() );
+        request = new DefaultFullHttpRequest( HttpVersion.HTTP_1_1, HttpMethod.GET, "/hello" );
+        ctx = new NettyRequestContext();
+        content = new StringContent( body.toString() );
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        channel.finish();
+    }
+
+    @Benchmark
+    public int respondWithoutContent()
+    {
+        ctx.initialize( request, channel, Collections.emptyMap() ).respond( Status.Code.OK );
+        return drain();
+    }
+
+    @Benchmark
+    public int respondWithContent()
+    {
+        ctx.initialize( request, channel, Collections.emptyMap() ).respond( Status.Code.OK, content );
+        return drain();
+    }
+
+    private int drain()
+    {
+        // Flushing is normally up to the server handler, which is not part of this pipeline
+        channel.flush();
+        int bytes = 0;
+        Object msg;
+        while((msg = channel.readOutbound()) != null)
+        {
+            if(msg instanceof ByteBuf)
+            {
+                bytes += ((ByteBuf) msg).readableBytes();
+                ((ByteBuf) msg).release();
+            }
+        }
+        return bytes;
+    }
+}
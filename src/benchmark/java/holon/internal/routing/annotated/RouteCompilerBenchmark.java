@@ -0,0 +1,90 @@
+package holon.internal.routing.annotated;
+
+import holon.api.http.GET;
+import holon.api.http.PathParam;
+import holon.api.http.Request;
+import holon.api.http.Status;
+import holon.api.middleware.MiddlewareHandler;
+import holon.api.middleware.Pipeline;
+import holon.benchmark.BenchmarkRequest;
+import holon.internal.di.Components;
+import holon.internal.routing.path.PatternSegment;
+import holon.spi.Route;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static holon.util.collection.Maps.map;
+
+/**
+ * Measures the overhead of calling an annotated endpoint through the pipeline generated by the route compiler,
+ * with an increasing number of pass-through middleware layers in front of it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RouteCompilerBenchmark
+{
+    public static class Endpoint
+    {
+        @GET("/users/{user}")
+        public void user( Request req, @PathParam("user") String user )
+        {
+            req.respond( Status.Code.OK );
+        }
+    }
+
+    public static class PassThroughMiddleware
+    {
+        @MiddlewareHandler
+        public void handle( Pipeline pipeline )
+        {
+            pipeline.call();
+        }
+    }
+
+    @Param({"0", "3", "10"})
+    public int middlewareCount;
+
+    private Route route;
+    private BenchmarkRequest ctx;
+
+    @Setup
+    public void setup() throws Exception
+    {
+        List<Class<?>> middleware = new ArrayList<>( Collections.nCopies( middlewareCount,
+                PassThroughMiddleware.class ) );
+        Method method = Endpoint.class.getMethod( "user", Request.class, String.class );
+
+        route = new RouteCompiler( new Components(), middleware )
+                .compile( "", Endpoint.class, method, method.getAnnotation( GET.class ) );
+
+        ctx = new BenchmarkRequest();
+        ctx.initialize( new PatternSegment.ParamHandlingPath( map( "user", 1 ) )
+                .initialize( "/users/jake", new String[]{"users", "jake"} ) );
+    }
+
+    @Benchmark
+    public Status callPipeline()
+    {
+        route.call( ctx );
+        return ctx.lastStatus();
+    }
+}
@@ -0,0 +1,84 @@
+package holon.internal.routing.basic;
+
+import holon.api.http.Status;
+import holon.benchmark.BenchmarkRequest;
+import holon.internal.http.common.FourOhFourRoute;
+import holon.internal.routing.HttpMethod;
+import holon.spi.Route;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of routing a request through the tree router, for static paths, paths with parameters and
+ * paths that don't match any route.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TreeRouterBenchmark
+{
+    @Param({"10", "1000"})
+    public int routeCount;
+
+    private TreeRouter router;
+    private BenchmarkRequest ctx;
+
+    private String staticPath;
+    private String paramPath;
+
+    @Setup
+    public void setup()
+    {
+        List<Route> routes = new ArrayList<>();
+        for ( int i = 0; i < routeCount; i++ )
+        {
+            routes.add( new CallbackRoute( HttpMethod.Standard.GET, "/static/route" + i, ( req ) -> req.respond(
+                    Status.Code.OK ) ) );
+            routes.add( new CallbackRoute( HttpMethod.Standard.GET, "/users" + i + "/{user}/posts/{post}",
+                    ( req ) -> req.respond( Status.Code.OK ) ) );
+        }
+
+        router = new TreeRouter( routes, new FourOhFourRoute() );
+        ctx = new BenchmarkRequest();
+
+        staticPath = "/static/route" + (routeCount - 1);
+        paramPath = "/users" + (routeCount - 1) + "/jake/posts/1337";
+    }
+
+    @Benchmark
+    public Status staticRoute()
+    {
+        router.invoke( HttpMethod.Standard.GET, staticPath, ctx );
+        return ctx.lastStatus();
+    }
+
+    @Benchmark
+    public Status routeWithParameters()
+    {
+        router.invoke( HttpMethod.Standard.GET, paramPath, ctx );
+        return ctx.lastStatus();
+    }
+
+    @Benchmark
+    public Status notFound()
+    {
+        router.invoke( HttpMethod.Standard.GET, "/no/such/route", ctx );
+        return ctx.lastStatus();
+    }
+}
@@ -0,0 +1,66 @@
+package holon.util.collection;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures lookups in a full LRU map, and inserts that force the clock to evict entries.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LRUMapBenchmark
+{
+    private static final int SLOTS = 1024;
+
+    private LRUMap<String, Integer> map;
+    private String[] residentKeys;
+    private String[] churnKeys;
+    private int next;
+
+    @Setup
+    public void setup()
+    {
+        map = new LRUMap<>( SLOTS, 1.0f, ( k, v ) -> {} );
+
+        residentKeys = new String[SLOTS];
+        for ( int i = 0; i < residentKeys.length; i++ )
+        {
+            residentKeys[i] = "/resident/" + i;
+            map.put( residentKeys[i], i );
+        }
+
+        churnKeys = new String[SLOTS * 4];
+        for ( int i = 0; i < churnKeys.length; i++ )
+        {
+            churnKeys[i] = "/churn/" + i;
+        }
+    }
+
+    @Benchmark
+    public Integer get()
+    {
+        next = (next + 1) & (residentKeys.length - 1);
+        return map.get( residentKeys[next] );
+    }
+
+    @Benchmark
+    public Integer putWithEviction()
+    {
+        next = (next + 1) & (churnKeys.length - 1);
+        return map.put( churnKeys[next], next );
+    }
+}
@@ -56,9 +56,39 @@ public class Holon
         public static Setting<Path> static_path =
                 setting( "application.public_files", path(), HolonFiles::defaultStaticPath );
 
+        /**
+         * How static files get their etags. "content" hashes each file the first time it is served, giving the same
+         * etag on every node. "modified" uses weak etags built from file size and modification time, which costs no
+         * reads at all, but only matches across nodes if they got their files at the same time.
+         */
+        public static Setting<String> static_etags =
+                setting( "application.public_files.etags", string(), defaultValue( "content" ) );
+
         public static final Setting<Integer> http_port =
                 setting( "application.http.port", integer(), defaultValue( "8080" ) );
 
+        /**
+         * How requests get from network threads to routes. "shared" publishes every request to a single queue served
+         * by all workers. "event_loop" gives each network thread its own queue, with the workers split between them,
+         * and calls routes marked {@link holon.api.http.NonBlocking} directly on the network thread.
+         */
+        public static final Setting<String> http_dispatch =
+                setting( "application.http.dispatch", string(), defaultValue( "shared" ) );
+
+        /**
+         * Network transport, "nio" or "epoll". The native epoll transport is only available on Linux, other platforms
+         * fall back to nio.
+         */
+        public static final Setting<String> http_transport =
+                setting( "application.http.transport", string(), defaultValue( "nio" ) );
+
+        /**
+         * Number of sockets bound to the http port, each with its own accept thread. The kernel spreads incoming
+         * connections across them using SO_REUSEPORT, which requires the epoll transport.
+         */
+        public static final Setting<Integer> http_acceptors =
+                setting( "application.http.acceptors", integer(), defaultValue( "1" ) );
+
         public static Setting<Boolean> auto_redeploy =
                 setting( "application.auto_redeploy", bool(), defaultValue( "false" ) );
     }
@@ -109,6 +139,10 @@ public class Holon
         }
     }
 
+    /**
+     * Serve the application, with the given objects available for injection. Holon logs through a {@link Logging}
+     * among them, if there is one.
+     */
     public static void run( Object ... injectables )
     {
         run( createConfiguration(), injectables );
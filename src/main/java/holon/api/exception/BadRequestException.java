@@ -0,0 +1,18 @@
+package holon.api.exception;
+
+/**
+ * Thrown when a request can't be handled because of something the client sent, like a malformed body. Routes answer
+ * these with 400 Bad Request, rather than a server error.
+ */
+public class BadRequestException extends HolonException
+{
+    public BadRequestException( String message )
+    {
+        super( message );
+    }
+
+    public BadRequestException( String message, Throwable cause )
+    {
+        super( message, cause );
+    }
+}
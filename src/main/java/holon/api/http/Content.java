@@ -14,4 +14,11 @@ public interface Content
 
     /** Unless the user has specifically set the Content-type header, this content type will be used. */
     default String contentType(Object context) { return "text/html"; }
+
+    /**
+     * Bodies rendered by content with the same size key are expected to be of about the same size, which the server
+     * uses to size response buffers up front. By default, that goes for all content of the same class. Content that is
+     * created once and re-used, like a template, can return itself instead, to have its bodies sized on their own.
+     */
+    default Object sizeKey() { return getClass(); }
 }
@@ -0,0 +1,13 @@
+package holon.api.http;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * The body of a JSON request, bound to the type of the parameter. Requests with an application/json, or other +json,
+ * content type carry their body as it is, rather than as form parameters.
+ */
+@Retention(RetentionPolicy.RUNTIME )
+public @interface JsonBody
+{
+}
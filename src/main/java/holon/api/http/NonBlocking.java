@@ -0,0 +1,14 @@
+package holon.api.http;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * Marks an endpoint as never blocking - it does no IO, takes no locks and does not wait on other threads. Engines
+ * running in a dispatch mode that supports it will call such endpoints directly on the network thread, skipping the
+ * hand-off to a worker thread. Note that this applies to the whole middleware stack of the endpoint.
+ */
+@Retention(RetentionPolicy.RUNTIME )
+public @interface NonBlocking
+{
+}
@@ -1,12 +1,103 @@
 package holon.api.http;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Writer;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 
+import holon.util.io.Utf8WriterOutputStream;
+
+import static holon.util.io.FileTools.temporaryFile;
+
 public interface Output
 {
     Writer asWriter();
 
+    /**
+     * Like {@link #asWriter()}, for bodies that may be too large to hold in memory. Outputs that can send what is
+     * written in bounded chunks as it is produced, with the response headers going out ahead of the first chunk, and
+     * hold up writes while the client is not keeping up. Once the first chunk is out, the body can't be replaced, and
+     * should rendering fail, the connection is closed. Outputs that can't stream collect the body like asWriter does.
+     */
+    default Writer asStreamingWriter()
+    {
+        return asWriter();
+    }
+
+    /**
+     * Like {@link #asStreamingWriter()}, for content that encodes text itself, and writes the UTF-8 bytes of it. Saves
+     * the round trip through chars for content that works in bytes anyway, like a JSON generator. Outputs that only
+     * take text decode the bytes into {@link #asStreamingWriter()}.
+     */
+    default OutputStream asStreamingOutputStream() throws IOException
+    {
+        return new Utf8WriterOutputStream( asStreamingWriter() );
+    }
+
     void write( FileChannel channel ) throws IOException;
+
+    /**
+     * Write a region of a file. Like {@link #write(FileChannel)}, outputs that can are expected to send the region
+     * straight from the file, without reading it into memory. The position of the channel is not used or changed.
+     * Outputs that only send whole files get a copy of the region in a temporary file.
+     */
+    default void write( FileChannel channel, long position, long count ) throws IOException
+    {
+        try ( FileChannel region = temporaryFile() )
+        {
+            long copied = 0;
+            while(copied < count)
+            {
+                long n = channel.transferTo( position + copied, count - copied, region );
+                if(n <= 0)
+                {
+                    break;
+                }
+                copied += n;
+            }
+            region.position( 0 );
+            write( region );
+        }
+    }
+
+    /**
+     * Like {@link #write(FileChannel, long, long)}, for a channel that must stay open until onSent has been run:
+     * outputs that copy the region run it right away, outputs that send the file itself run it once it has been sent.
+     */
+    default void write( FileChannel channel, long position, long count, Runnable onSent ) throws IOException
+    {
+        try
+        {
+            write( channel, position, count );
+        }
+        finally
+        {
+            onSent.run();
+        }
+    }
+
+    /**
+     * Write the remaining bytes of a buffer that stays owned by the caller, such as a slice of a memory-mapped file.
+     * The bytes must not change until onSent has been run: outputs that copy the buffer run it right away, outputs
+     * that send the buffer itself run it once it has been sent. Outputs that only send files get a copy of the bytes in
+     * a temporary file.
+     */
+    default void write( ByteBuffer buffer, Runnable onSent ) throws IOException
+    {
+        try ( FileChannel copy = temporaryFile() )
+        {
+            ByteBuffer bytes = buffer.duplicate();
+            while(bytes.hasRemaining())
+            {
+                copy.write( bytes );
+            }
+            copy.position( 0 );
+            write( copy );
+        }
+        finally
+        {
+            onSent.run();
+        }
+    }
 }
@@ -19,6 +19,6 @@ public interface Request
     /** Discard a cookie in the client browser. */
     Request discardCookie(String name);
 
-    /** Set a header for the request. */
+    /** Set a header for the response. Values added to Vary are merged into what it already lists. */
     Request addHeader( String header, String value );
 }
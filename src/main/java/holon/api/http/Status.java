@@ -7,10 +7,13 @@ public interface Status
     enum Code implements Status
     {
         OK( 200 ),
+        PARTIAL_CONTENT( 206 ),
         SEE_OTHER( 303 ),
         NOT_MODIFIED( 304 ),
+        BAD_REQUEST( 400 ),
         UNAUTHORIZED( 401 ),
         NOT_FOUND( 404 ),
+        RANGE_NOT_SATISFIABLE( 416 ),
         SERVER_ERROR( 500 );
 
         private final int code;
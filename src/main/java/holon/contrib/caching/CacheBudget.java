@@ -0,0 +1,127 @@
+/**
+ * Copyright (c) 2002-2014 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package holon.contrib.caching;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the global cache within a byte and entry budget. Entries are admitted as they are loaded, and when the
+ * budget is exceeded, victims are picked by an LRU-K style clock, the same policy {@link holon.util.collection.LRUMap}
+ * uses: each hit bumps an entry's usage count (up to a cap), each pass of the clock decrements it, and entries are
+ * evicted once they reach zero. A burst of one-off requests thus only displaces other rarely used entries, not the
+ * ones that are hit all the time.
+ *
+ * This is only touched when entries are admitted or evicted, never on cache hits, so a lock is fine.
+ */
+public class CacheBudget
+{
+    private final long maxBytes;
+    private final int maxEntries;
+
+    /** The clock, the head of the queue is where the clock hand is. */
+    private final Deque<GlobalCacheEntry> clock = new ArrayDeque<>();
+
+    /** Entries counted against the budget, with the number of bytes they were admitted with. */
+    private final Map<GlobalCacheEntry, Long> admitted = new HashMap<>();
+    private long bytes;
+
+    public CacheBudget( long maxBytes, int maxEntries )
+    {
+        this.maxBytes = maxBytes;
+        this.maxEntries = maxEntries;
+    }
+
+    /** True if the entry fits in the byte budget at all, larger ones are never admitted, see {@link #admit}. */
+    public boolean fits( GlobalCacheEntry entry )
+    {
+        return entry.size() <= maxBytes;
+    }
+
+    /**
+     * Count a newly loaded entry against the budget. Returns the entries that need to be evicted to make room for it.
+     * An entry larger than the whole byte budget is not admitted, and is returned as the only victim, rather than
+     * flushing every other entry and still not fitting.
+     */
+    public synchronized List<GlobalCacheEntry> admit( GlobalCacheEntry entry )
+    {
+        if(!fits( entry ))
+        {
+            return Collections.singletonList( entry );
+        }
+
+        List<GlobalCacheEntry> victims = new ArrayList<>();
+        long size = entry.size();
+        while(!clock.isEmpty() && (bytes + size > maxBytes || admitted.size() + 1 > maxEntries))
+        {
+            GlobalCacheEntry candidate = clock.poll();
+            if(!admitted.containsKey( candidate ))
+            {
+                // Already released
+                continue;
+            }
+            if(candidate.sweep())
+            {
+                release( candidate );
+                victims.add( candidate );
+            }
+            else
+            {
+                clock.add( candidate );
+            }
+        }
+
+        admitted.put( entry, size );
+        bytes += size;
+        clock.add( entry );
+
+        if(clock.size() > admitted.size() * 2 + 16)
+        {
+            // Lots of entries released since the clock last passed them, don't let them pile up
+            clock.removeIf( ( e ) -> !admitted.containsKey( e ) );
+        }
+        return victims;
+    }
+
+    /** Stop counting an entry against the budget, for entries evicted by other means than the budget. */
+    public synchronized void release( GlobalCacheEntry entry )
+    {
+        Long size = admitted.remove( entry );
+        if(size != null)
+        {
+            bytes -= size;
+        }
+    }
+
+    public synchronized long bytes()
+    {
+        return bytes;
+    }
+
+    public synchronized int entries()
+    {
+        return admitted.size();
+    }
+}
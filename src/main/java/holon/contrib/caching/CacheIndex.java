@@ -0,0 +1,213 @@
+package holon.contrib.caching;
+
+import holon.api.exception.HolonException;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * An append-only log of the entries stored in and removed from an {@link HttpCache}, kept in the cache directory so
+ * that a new cache over the same directory, after a restart or a redeploy, starts out warm.
+ *
+ * Records are not forced to disk one by one. A crash may lose the last few, or leave the last one torn; replay stops
+ * at the first record it cannot read, and entries whose bodies are gone from the {@link SlabStore} are dropped. The
+ * log is compacted down to the live entries when it is opened, and again whenever it grows well past them.
+ */
+public class CacheIndex
+{
+    public static final String FILE_NAME = "index.log";
+
+    private static final byte STORED = 1;
+    private static final byte REMOVED = 2;
+
+    /** Rewrite the log once it holds this many more records than twice the live entries. */
+    private static final int COMPACTION_SLACK = 1024;
+
+    private final Path cacheDir;
+    private final SlabStore store;
+    private final Path file;
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream( 512 );
+    private final DataOutputStream out = new DataOutputStream( buffer );
+
+    private FileChannel channel;
+    private long records;
+
+    public CacheIndex( Path cacheDir, SlabStore store )
+    {
+        this.cacheDir = cacheDir;
+        this.store = store;
+        this.file = cacheDir.resolve( FILE_NAME );
+    }
+
+    /**
+     * Replay the log and open it for appending. Returns the entries that are still stored and have all their bodies
+     * in the store, oldest first. Their bodies are claimed in the store, but the entries still need to be marked as
+     * loaded.
+     */
+    public synchronized List<GlobalCacheEntry> open() throws IOException
+    {
+        Map<String, GlobalCacheEntry> byId = new LinkedHashMap<>();
+        if(Files.exists( file ))
+        {
+            Map<String, String> idsByPath = new LinkedHashMap<>();
+            try(DataInputStream in = new DataInputStream( new BufferedInputStream( Files.newInputStream( file ) ) ))
+            {
+                replay( in, byId, idsByPath );
+            }
+        }
+
+        List<GlobalCacheEntry> live = new ArrayList<>();
+        for ( GlobalCacheEntry entry : byId.values() )
+        {
+            if(entry.claimBodies( store ))
+            {
+                live.add( entry );
+            }
+        }
+        store.restored();
+        compact( live );
+        return live;
+    }
+
+    private void replay( DataInputStream in, Map<String, GlobalCacheEntry> byId, Map<String, String> idsByPath )
+            throws IOException
+    {
+        try
+        {
+            int type;
+            while((type = in.read()) != -1)
+            {
+                if(type == STORED)
+                {
+                    GlobalCacheEntry entry = GlobalCacheEntry.readFrom( in, store );
+                    String replaced = idsByPath.put( entry.path(), entry.id() );
+                    if(replaced != null && !replaced.equals( entry.id() ))
+                    {
+                        byId.remove( replaced );
+                    }
+                    byId.put( entry.id(), entry );
+                }
+                else if(type == REMOVED)
+                {
+                    GlobalCacheEntry removed = byId.remove( in.readUTF() );
+                    if(removed != null)
+                    {
+                        idsByPath.remove( removed.path(), removed.id() );
+                    }
+                }
+                else
+                {
+                    // Garbage, most likely the tail of a torn record
+                    return;
+                }
+            }
+        }
+        catch ( EOFException | UTFDataFormatException | IllegalArgumentException e )
+        {
+            // Torn last record, everything before it is intact
+        }
+    }
+
+    /** Record that an entry has been stored in the cache. */
+    public synchronized void stored( GlobalCacheEntry entry )
+    {
+        append( STORED, entry );
+    }
+
+    /** Record that an entry has been removed from the cache, and its bodies are about to be freed. */
+    public synchronized void removed( GlobalCacheEntry entry )
+    {
+        append( REMOVED, entry );
+    }
+
+    public synchronized boolean needsCompaction( int liveEntries )
+    {
+        return records > 2L * liveEntries + COMPACTION_SLACK;
+    }
+
+    /** Rewrite the log to hold only the given entries. */
+    public synchronized void compact( Collection<GlobalCacheEntry> live ) throws IOException
+    {
+        Path compacted = cacheDir.resolve( FILE_NAME + ".tmp" );
+        try(FileChannel target = FileChannel.open( compacted, CREATE, WRITE, TRUNCATE_EXISTING ))
+        {
+            for ( GlobalCacheEntry entry : live )
+            {
+                target.write( serialize( STORED, entry ) );
+            }
+            target.force( true );
+        }
+
+        close();
+        Files.move( compacted, file, ATOMIC_MOVE, REPLACE_EXISTING );
+        channel = FileChannel.open( file, CREATE, WRITE, APPEND );
+        records = live.size();
+    }
+
+    public synchronized void close() throws IOException
+    {
+        if(channel != null)
+        {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    private void append( byte type, GlobalCacheEntry entry )
+    {
+        if(channel == null)
+        {
+            return;
+        }
+        try
+        {
+            ByteBuffer record = serialize( type, entry );
+            while(record.hasRemaining())
+            {
+                channel.write( record );
+            }
+            records++;
+        }
+        catch ( IOException e )
+        {
+            throw new HolonException( "Failed to write to cache index '" + file + "'.", e );
+        }
+    }
+
+    private ByteBuffer serialize( byte type, GlobalCacheEntry entry ) throws IOException
+    {
+        buffer.reset();
+        out.writeByte( type );
+        if(type == STORED)
+        {
+            entry.writeTo( out );
+        }
+        else
+        {
+            out.writeUTF( entry.id() );
+        }
+        out.flush();
+        return ByteBuffer.wrap( buffer.toByteArray() );
+    }
+}
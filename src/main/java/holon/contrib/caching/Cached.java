@@ -35,6 +35,21 @@ public @interface Cached
      */
     String cacheKey() default "";
 
-    /** Time, in seconds, to cache responses */
+    /**
+     * Time, in seconds, to cache responses. Once this has passed, the next request renders a fresh response while
+     * concurrent requests are served the stale one. Zero or less caches responses until they are evicted.
+     */
     int time() default 120;
+
+    /**
+     * Query parameters responses vary by. Requests that differ in any of these are cached separately, other query
+     * parameters are ignored.
+     */
+    String[] queryParams() default {};
+
+    /**
+     * Request headers responses vary by, with the same semantics as the Vary response header, which is set to
+     * these names.
+     */
+    String[] vary() default {};
 }
@@ -29,19 +29,25 @@ import holon.spi.RequestContext;
 
 import java.io.IOException;
 
+import static io.netty.handler.codec.http.HttpHeaders.Names.ACCEPT_ENCODING;
 import static io.netty.handler.codec.http.HttpHeaders.Names.CACHE_CONTROL;
 import static io.netty.handler.codec.http.HttpHeaders.Names.IF_NONE_MATCH;
+import static io.netty.handler.codec.http.HttpHeaders.Names.VARY;
 
 public class CachingMiddleware
 {
     private final HttpCache cache;
     private final String cacheKey;
+    private final int ttl;
+    private final VariantKey variantKey;
     private final boolean enabled;
 
     public CachingMiddleware( Cached annotation, HttpCache cache, Config config )
     {
         this.cache = cache;
         this.cacheKey = annotation.cacheKey();
+        this.ttl = annotation.time();
+        this.variantKey = new VariantKey( annotation.queryParams(), annotation.vary() );
         this.enabled = config.get( HttpCache.Configuration.cache_enabled );
     }
 
@@ -49,11 +55,17 @@ public class CachingMiddleware
     public void handle(Pipeline pipeline, RequestContext req,
             @HeaderParam(IF_NONE_MATCH) @Default("") String etag,
             @HeaderParam(CACHE_CONTROL) @Default("") String cacheControl,
+            @HeaderParam(ACCEPT_ENCODING) @Default("") String acceptEncoding,
             @PathParam String path) throws IOException
     {
         if(enabled)
         {
-            cache.respond( req, key( path ), etag, cacheControl.equalsIgnoreCase( "no-cache" ), pipeline );
+            if(variantKey.varyHeader() != null)
+            {
+                req.addHeader( VARY, variantKey.varyHeader() );
+            }
+            cache.respond( req, variantKey.encode( req ), key( path ), ttl, etag, acceptEncoding,
+                    cacheControl.equalsIgnoreCase( "no-cache" ), pipeline );
         }
         else
         {
@@ -19,18 +19,37 @@
  */
 package holon.contrib.caching;
 
+import holon.api.exception.HolonException;
 import holon.api.http.Status;
-import holon.util.Digest;
+import holon.internal.http.common.files.FileContent;
+import holon.internal.io.ContentEncoding;
+import holon.internal.io.ContentTypes;
+import holon.util.ContentHash;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import static java.nio.file.StandardOpenOption.DELETE_ON_CLOSE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
 import static java.util.Collections.unmodifiableMap;
 
 public class GlobalCacheEntry
@@ -39,38 +58,146 @@ public class GlobalCacheEntry
     private static final byte STATE_LOADED = 0x1;
     private static final byte STATE_EVICTED = 0x2;
 
+    /** Highest usage count, meaning how many sweeps of the eviction clock an unused entry survives. */
+    private static final int MAX_USAGE = 5;
+
     private final Set<LocalCacheEntry> backReferences = new HashSet<>();
 
+    /** Encodings this entry can be served in, this is just identity for entries without a body. */
+    private final Set<ContentEncoding> encodings = EnumSet.of( ContentEncoding.IDENTITY );
+
+    /** The body in each encoding, one reference to each slot is held by this entry. */
+    private final Map<ContentEncoding, SlabStore.Slot> bodies = new EnumMap<>( ContentEncoding.class );
+    private boolean bodiesReleased;
+    /** Set for entries read from the index, if any of their bodies could not be found. */
+    private boolean bodiesMissing;
+
+    /** Identifies this entry in the cache index. */
+    private String id;
     private Status status;
     private Map<String,String> headers;
-    private Path cacheFilePath;
     private String etag;
     private String path;
+    private String cacheKey;
+    private long size;
+
+    /** Seconds this entry is fresh for, zero or less means it never goes stale. */
+    private int ttl;
+    /** Wall clock time this entry goes stale, kept so that entries restored from the index keep their deadline. */
+    private long expiresAt;
+    private Timeout expiry;
+    private volatile boolean stale;
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+
+    /**
+     * Approximate recent usage, read by the eviction clock. This is updated on every cache hit without any
+     * synchronization, lost updates just make the entry look a bit less popular than it is.
+     */
+    private int usage = 1;
 
     private volatile byte state = 0;
 
-    public GlobalCacheEntry populate( String path, Status status, Map<String,String> headers,
-            Path cacheFilePath )
+    /**
+     * Released once this entry leaves the loading state, either loaded or evicted. Threads that miss on an entry
+     * another thread is rendering park here, so a burst of requests for the same path costs one render.
+     */
+    private final CountDownLatch settled = new CountDownLatch( 1 );
+
+    /**
+     * Fill this entry in with a rendered response. The body, if there is one, is written to the store along with
+     * compressed variants of it if it is worth compressing.
+     */
+    public GlobalCacheEntry populate( String path, String cacheKey, Status status, Map<String,String> headers,
+            byte[] body, SlabStore store )
             throws IOException
     {
-        this.status = status;
-        this.path = path;
-        this.headers = unmodifiableMap( headers );
-        this.cacheFilePath = cacheFilePath;
-        if(cacheFilePath != null)
+        describe( path, cacheKey, status, headers, ContentHash.etag( body == null ? new byte[0] : body ) );
+
+        if(body != null)
         {
-            try(FileChannel channel = newChannel())
+            storeBody( ContentEncoding.IDENTITY, body, store );
+            if(isCompressible( headers ))
             {
-                this.etag = '"' + Digest.md5( channel ) + '"';
+                // Compressed once here, so that hits can be served compressed without running the compressor
+                for ( ContentEncoding encoding : ContentEncoding.COMPRESSED )
+                {
+                    storeBody( encoding, encoding.encode( body ), store );
+                }
             }
         }
-        else
+        return this;
+    }
+
+    /**
+     * Like {@link #populate(String, String, Status, Map, byte[], SlabStore)}, for a body that has been spilled to a
+     * file rather than held in memory. The body is read straight into the store, and so are its compressed variants,
+     * which are encoded into temporary files one at a time. The etag is that of the body, hashed as it was written.
+     */
+    public GlobalCacheEntry populate( String path, String cacheKey, Status status, Map<String,String> headers,
+            FileChannel body, String etag, SlabStore store )
+            throws IOException
+    {
+        describe( path, cacheKey, status, headers, etag );
+
+        storeBody( ContentEncoding.IDENTITY, body, store );
+        if(isCompressible( headers ))
         {
-            this.etag = '"' + Digest.md5( "" ) + '"';
+            for ( ContentEncoding encoding : ContentEncoding.COMPRESSED )
+            {
+                Path variantPath = Files.createTempFile( "holon", "." + encoding.headerValue() );
+                try(FileChannel variant = FileChannel.open( variantPath, READ, WRITE, DELETE_ON_CLOSE ))
+                {
+                    encoding.encode( body, variant );
+                    storeBody( encoding, variant, store );
+                }
+            }
         }
         return this;
     }
 
+    private void describe( String path, String cacheKey, Status status, Map<String,String> headers, String etag )
+    {
+        this.id = UUID.randomUUID().toString();
+        this.status = status;
+        this.path = path;
+        this.cacheKey = cacheKey;
+        this.headers = unmodifiableMap( headers );
+        this.etag = etag;
+    }
+
+    private void storeBody( ContentEncoding encoding, byte[] bytes, SlabStore store ) throws IOException
+    {
+        bodies.put( encoding, store.store( bytes ) );
+        encodings.add( encoding );
+        size += bytes.length;
+    }
+
+    private void storeBody( ContentEncoding encoding, FileChannel channel, SlabStore store ) throws IOException
+    {
+        SlabStore.Slot slot = store.store( channel );
+        bodies.put( encoding, slot );
+        encodings.add( encoding );
+        size += slot.length();
+    }
+
+    private boolean isCompressible( Map<String, String> headers )
+    {
+        String contentType = null;
+        for ( Map.Entry<String, String> header : headers.entrySet() )
+        {
+            if(header.getKey().equalsIgnoreCase( HttpHeaders.Names.CONTENT_ENCODING ))
+            {
+                // Endpoint has encoded the body itself
+                return false;
+            }
+            if(header.getKey().equalsIgnoreCase( HttpHeaders.Names.CONTENT_TYPE ))
+            {
+                contentType = header.getValue();
+            }
+        }
+        return ContentTypes.isCompressible( contentType );
+    }
+
     public Status status()
     {
         return status;
@@ -81,13 +208,10 @@ public class GlobalCacheEntry
         return headers;
     }
 
-    public FileChannel newChannel() throws IOException
+    /** The cached body in the given encoding, or null if there is no body in that encoding. */
+    public SlabStore.Slot body( ContentEncoding encoding )
     {
-        if(cacheFilePath != null)
-        {
-            return FileChannel.open( cacheFilePath, StandardOpenOption.READ );
-        }
-        return null;
+        return bodies.get( encoding );
     }
 
     public String etag()
@@ -95,6 +219,101 @@ public class GlobalCacheEntry
         return etag;
     }
 
+    public String etag( ContentEncoding encoding )
+    {
+        return FileContent.variantEtag( etag, encoding );
+    }
+
+    public Set<ContentEncoding> encodings()
+    {
+        return encodings;
+    }
+
+    /** Bytes this entry takes up in the store, including compressed variants. */
+    public long size()
+    {
+        return size;
+    }
+
+    /** Record a cache hit. */
+    public void touch()
+    {
+        if(usage < MAX_USAGE)
+        {
+            usage++;
+        }
+    }
+
+    /**
+     * Called by the eviction clock as it passes this entry. Returns true if the entry has not been used since the
+     * clock last passed it, and should be evicted.
+     */
+    public boolean sweep()
+    {
+        if(usage <= 0)
+        {
+            return true;
+        }
+        usage--;
+        return false;
+    }
+
+    /**
+     * Mark this entry as stale once the given time to live has passed. This is driven by the timer, so that cache
+     * hits never need to look at the clock; they just read the stale flag.
+     */
+    public void expireAfter( Timer timer, int ttlSeconds )
+    {
+        this.ttl = ttlSeconds;
+        this.expiresAt = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis( ttlSeconds );
+        scheduleExpiry( timer );
+    }
+
+    /**
+     * Schedule this entry to go stale at its deadline. Entries restored from the index may already be past it, in
+     * which case they are stale right away and get refreshed by the next request for them.
+     */
+    public void scheduleExpiry( Timer timer )
+    {
+        if(ttl > 0)
+        {
+            long delay = expiresAt - System.currentTimeMillis();
+            if(delay <= 0)
+            {
+                stale = true;
+            }
+            else
+            {
+                expiry = timer.newTimeout( ( timeout ) -> stale = true, delay, TimeUnit.MILLISECONDS );
+            }
+        }
+    }
+
+    public int ttl()
+    {
+        return ttl;
+    }
+
+    public boolean isStale()
+    {
+        return stale;
+    }
+
+    /**
+     * Claim the right to refresh this stale entry. Returns true for exactly one caller, who must either replace this
+     * entry or call {@link #refreshFailed()}. Everyone else keeps serving this entry in the meantime.
+     */
+    public boolean startRefresh()
+    {
+        return stale && refreshing.compareAndSet( false, true );
+    }
+
+    /** Let a later request try refreshing this entry again. */
+    public void refreshFailed()
+    {
+        refreshing.set( false );
+    }
+
     public synchronized boolean register( LocalCacheEntry entry )
     {
         if(state == STATE_EVICTED)
@@ -107,61 +326,276 @@ public class GlobalCacheEntry
 
     public synchronized void unregiser( LocalCacheEntry entry ) throws IOException
     {
-        int initialReferences = backReferences.size();
-        backReferences.remove( entry );
-        if(backReferences.size() == 0 && initialReferences > 0)
+        if(backReferences.remove( entry ) && backReferences.isEmpty() && state == STATE_EVICTED)
         {
-            if(cacheFilePath != null)
+            releaseBodies();
+        }
+    }
+
+    private void releaseBodies()
+    {
+        if(!bodiesReleased)
+        {
+            bodiesReleased = true;
+            for ( SlabStore.Slot slot : bodies.values() )
+            {
+                slot.release();
+            }
+        }
+    }
+
+    /** True if any of the bodies of this entry are stored in one of the given segments. */
+    public boolean storedIn( Set<Integer> segments )
+    {
+        for ( SlabStore.Slot slot : bodies.values() )
+        {
+            if(segments.contains( slot.segmentId() ))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Copy this entry, with its bodies stored anew. This is how bodies are moved out of sparse segments; the copy
+     * replaces this entry like a refreshed entry would. Returns null if this entry is no longer loaded.
+     */
+    public synchronized GlobalCacheEntry copyTo( SlabStore store ) throws IOException
+    {
+        if(state != STATE_LOADED)
+        {
+            return null;
+        }
+        GlobalCacheEntry copy = new GlobalCacheEntry();
+        copy.id = UUID.randomUUID().toString();
+        copy.status = status;
+        copy.headers = headers;
+        copy.etag = etag;
+        copy.path = path;
+        copy.cacheKey = cacheKey;
+        copy.ttl = ttl;
+        copy.expiresAt = expiresAt;
+        copy.usage = usage;
+        copy.encodings.addAll( encodings );
+        try
+        {
+            for ( Map.Entry<ContentEncoding, SlabStore.Slot> body : bodies.entrySet() )
             {
-                Files.delete( cacheFilePath );
+                copy.bodies.put( body.getKey(), store.store( body.getValue() ) );
             }
         }
+        catch ( IOException | RuntimeException e )
+        {
+            copy.releaseBodies();
+            throw e;
+        }
+        copy.size = size;
+        return copy;
     }
 
+    /**
+     * Mark this entry as evicted. Local entries close themselves when their owning threads notice, and the bodies
+     * are released to the store once the last local entry is gone.
+     */
     public synchronized void requestEviction()
     {
         state = STATE_EVICTED;
+        settled.countDown();
+        cancelExpiry();
         for ( LocalCacheEntry entry : backReferences )
         {
             entry.requestEviction();
         }
-        backReferences.clear();
+        if(backReferences.isEmpty())
+        {
+            releaseBodies();
+        }
     }
 
+    /**
+     * Close all local entries for this one, without releasing the bodies. This is used when the cache is stopped,
+     * so that the next cache over the same directory can restore this entry from the index.
+     */
+    public synchronized void close() throws IOException
+    {
+        state = STATE_EVICTED;
+        settled.countDown();
+        cancelExpiry();
+        for ( LocalCacheEntry entry : new ArrayList<>( backReferences ) )
+        {
+            backReferences.remove( entry );
+            entry.evict();
+        }
+    }
 
     public synchronized void evict() throws IOException
     {
         state = STATE_EVICTED;
-        for ( LocalCacheEntry entry : backReferences )
+        settled.countDown();
+        cancelExpiry();
+        for ( LocalCacheEntry entry : new ArrayList<>( backReferences ) )
         {
             entry.evict();
         }
         backReferences.clear();
+        releaseBodies();
+    }
+
+    private void cancelExpiry()
+    {
+        if(expiry != null)
+        {
+            expiry.cancel();
+        }
     }
 
+    /**
+     * Wait for the thread populating this entry to finish. Returns false if the entry was evicted rather than
+     * loaded, or if loading did not finish within a minute; the caller should then look the entry up again.
+     */
     public boolean awaitLoaded()
     {
-        long timeout = System.currentTimeMillis() + 1000 * 60;
-        while(state != STATE_LOADED)
+        if(state == STATE_LOADING)
         {
-            if(timeout < System.currentTimeMillis() || state == STATE_EVICTED)
+            try
             {
-                return false;
+                settled.await( 60, TimeUnit.SECONDS );
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                throw new HolonException( "Interrupted while waiting for a cache entry to load.", e );
             }
         }
-        return true;
+        return state == STATE_LOADED;
     }
 
-    public void markAsLoaded()
+    public synchronized void markAsLoaded()
     {
         if(state == STATE_LOADING)
         {
             state = STATE_LOADED;
         }
+        settled.countDown();
+    }
+
+    public boolean isLoaded()
+    {
+        return state == STATE_LOADED;
+    }
+
+    public String id()
+    {
+        return id;
     }
 
     public String path()
     {
         return path;
     }
+
+    public String cacheKey()
+    {
+        return cacheKey;
+    }
+
+    /** Write this entry to the cache index, see {@link #readFrom(DataInput, SlabStore)}. */
+    public void writeTo( DataOutput out ) throws IOException
+    {
+        out.writeUTF( id );
+        out.writeUTF( path );
+        out.writeUTF( cacheKey );
+        out.writeInt( status.code() );
+        out.writeUTF( etag );
+        out.writeByte( bodies.size() );
+        for ( Map.Entry<ContentEncoding, SlabStore.Slot> body : bodies.entrySet() )
+        {
+            out.writeUTF( body.getKey().name() );
+            out.writeInt( body.getValue().segmentId() );
+            out.writeInt( body.getValue().offset() );
+            out.writeInt( body.getValue().length() );
+        }
+        out.writeLong( size );
+        out.writeInt( ttl );
+        out.writeLong( expiresAt );
+        out.writeInt( headers.size() );
+        for ( Map.Entry<String, String> header : headers.entrySet() )
+        {
+            out.writeUTF( header.getKey() );
+            out.writeUTF( header.getValue() );
+        }
+    }
+
+    /**
+     * Read an entry written by {@link #writeTo(DataOutput)}, with its bodies in the given store. The entry is not
+     * marked as loaded, and its bodies need to be {@link #claimBodies(SlabStore) claimed} before it is used.
+     */
+    public static GlobalCacheEntry readFrom( DataInput in, SlabStore store ) throws IOException
+    {
+        GlobalCacheEntry entry = new GlobalCacheEntry();
+        entry.id = in.readUTF();
+        entry.path = in.readUTF();
+        entry.cacheKey = in.readUTF();
+        entry.status = status( in.readInt() );
+        entry.etag = in.readUTF();
+        int bodies = in.readByte();
+        if(bodies > 0)
+        {
+            entry.encodings.clear();
+        }
+        for ( int i = 0; i < bodies; i++ )
+        {
+            ContentEncoding encoding = ContentEncoding.valueOf( in.readUTF() );
+            SlabStore.Slot slot = store.locate( in.readInt(), in.readInt(), in.readInt() );
+            if(slot == null)
+            {
+                entry.bodiesMissing = true;
+            }
+            else
+            {
+                entry.bodies.put( encoding, slot );
+                entry.encodings.add( encoding );
+            }
+        }
+        entry.size = in.readLong();
+        entry.ttl = in.readInt();
+        entry.expiresAt = in.readLong();
+        Map<String, String> headers = new HashMap<>();
+        for ( int i = in.readInt(); i > 0; i-- )
+        {
+            headers.put( in.readUTF(), in.readUTF() );
+        }
+        entry.headers = unmodifiableMap( headers );
+        return entry;
+    }
+
+    /**
+     * Count the bodies of an entry read from the index as live in the store. Returns false, claiming nothing, if
+     * any of them are missing.
+     */
+    public boolean claimBodies( SlabStore store )
+    {
+        if(bodiesMissing)
+        {
+            return false;
+        }
+        for ( SlabStore.Slot slot : bodies.values() )
+        {
+            store.claim( slot );
+        }
+        return true;
+    }
+
+    private static Status status( int code )
+    {
+        for ( Status.Code known : Status.Code.values() )
+        {
+            if(known.code() == code)
+            {
+                return known;
+            }
+        }
+        return () -> code;
+    }
 }
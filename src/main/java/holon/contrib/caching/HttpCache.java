@@ -21,41 +21,65 @@ package holon.contrib.caching;
 
 import holon.api.config.Setting;
 import holon.api.http.Status;
+import holon.api.logging.Logging;
 import holon.api.middleware.Pipeline;
 import holon.contrib.http.RecordingRequest;
+import holon.internal.io.ContentEncoding;
 import holon.internal.io.FileOutput;
 import holon.spi.RequestContext;
+import holon.util.ContentHash;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.concurrent.DefaultThreadFactory;
 
 import java.io.IOException;
 import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static holon.api.config.Setting.defaultValue;
 import static holon.api.config.Setting.setting;
 import static holon.api.config.SettingConverters.bool;
 import static io.netty.handler.codec.http.HttpHeaders.Names;
-import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.DELETE_ON_CLOSE;
 import static java.nio.file.StandardOpenOption.READ;
 import static java.nio.file.StandardOpenOption.WRITE;
 
 /**
- * An initial iteration on a basic http cache. This cache depends on the OS file cache to keep relevant
- * entries in RAM. It uses per-thread local caches to avoid coordination, but allows globally evicting cached
- * entries by their cache keys.
+ * An initial iteration on a basic http cache. Bodies are kept in a few large memory-mapped segments, see
+ * {@link SlabStore}, which depends on the OS file cache to keep relevant entries in RAM. It uses per-thread local
+ * caches to avoid coordination, but allows globally evicting cached entries by their cache keys.
  *
- * We currently dont have a bounds for how large the cache can be (need to implement something like LRU-K) and we
- * dont handle query parameters or other mechanism to have more complex cache keys.
+ * The cache is kept within a byte and entry budget, see {@link CacheBudget}; a response larger than the whole byte
+ * budget is served to the requests that were waiting for it, but not kept. Evicted entries are closed by each
+ * worker thread the next time it uses the cache, and their bodies are freed once no thread uses them. Entries in
+ * segments that have become mostly dead are moved to the active segment, so that the old one can be reused.
  *
- * Also, now that we've swapped back to netty, this could be modified to cache the full chunked and gzipped response,
- * simply delegating to the OS's transferTo.
+ * Entries are looked up by their cache path, see {@link VariantKey}, and evicted by their cache key. Several
+ * entries may share a cache key, such as different query parameter variants of one path, and are evicted together.
+ * Evictions are passed on to the other nodes of a cluster through an {@link InvalidationBus}, if one is given.
+ *
+ * The cache is persistent: entries are recorded in a {@link CacheIndex} next to the segments, and a new cache over
+ * the same directory serves them right away. Stopping the cache closes it, but leaves its files in place.
+ *
+ * Responses are rendered into a temporary file rather than memory, hashing the body for its etag on the way, and read
+ * from there straight into the store. Compressible responses are stored in gzip and deflate variants next to the
+ * identity body, and the variant picked by Accept-Encoding is sent as-is, bypassing the compressor in the netty
+ * pipeline.
+ *
+ * Entries go stale once their time to live has passed. The first request to see a stale entry renders a fresh one
+ * through the pipeline, while every other request keeps getting the stale body until the fresh entry is swapped in.
  */
 public class HttpCache
 {
@@ -65,7 +89,25 @@ public class HttpCache
                 defaultValue( "true" ) );
     }
 
-    private final Path cacheDir;
+    /** Default budget, used unless one is given to the constructor. */
+    public static final long DEFAULT_MAX_BYTES = 1024L * 1024 * 1024;
+    public static final int DEFAULT_MAX_ENTRIES = 10_000;
+
+    private final CacheBudget budget;
+    private final SlabStore store;
+    private final CacheIndex index;
+    private final InvalidationBus bus;
+    private final Logging.Logger logger;
+
+    /** Set while one thread moves entries out of sparse segments. */
+    private final AtomicBoolean compacting = new AtomicBoolean();
+
+    /** Marks entries as stale once their time to live is up. */
+    private final HashedWheelTimer expiryTimer =
+            new HashedWheelTimer( new DefaultThreadFactory( "holon-cache-expiry", true ), 100, TimeUnit.MILLISECONDS );
+
+    /** Counts evictions, so that threads can tell cheaply if they have local entries to close. */
+    private final AtomicLong evictions = new AtomicLong();
 
     /**
      * Global cache entries. If there is a cache miss on the local level, the handler will check here before trying to
@@ -73,84 +115,220 @@ public class HttpCache
      */
     private final ConcurrentMap<String, GlobalCacheEntry> globalEntriesByPath = new ConcurrentHashMap<>();
 
-    private final ConcurrentMap<String, GlobalCacheEntry> globalEntriesByKey = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Set<GlobalCacheEntry>> globalEntriesByKey = new ConcurrentHashMap<>();
 
     /**
      * This is the thread local map.
      */
-    private final ThreadLocal<Map<String,LocalCacheEntry>> caches = new ThreadLocal<Map<String,LocalCacheEntry>>()
+    private final ThreadLocal<LocalCache> caches = new ThreadLocal<LocalCache>()
     {
         @Override
-        protected Map<String,LocalCacheEntry> initialValue()
+        protected LocalCache initialValue()
         {
-            return new HashMap<>();
+            return new LocalCache();
         }
     };
 
-    public HttpCache( Path cacheDir ) throws IOException
+    public HttpCache( Path cacheDir, Logging logging ) throws IOException
     {
-        this.cacheDir = cacheDir;
+        this( cacheDir, DEFAULT_MAX_BYTES, DEFAULT_MAX_ENTRIES, logging );
+    }
+
+    public HttpCache( Path cacheDir, InvalidationBus bus, Logging logging ) throws IOException
+    {
+        this( cacheDir, DEFAULT_MAX_BYTES, DEFAULT_MAX_ENTRIES, SlabStore.DEFAULT_SEGMENT_SIZE, bus, logging );
+    }
+
+    public HttpCache( Path cacheDir, long maxBytes, int maxEntries, Logging logging ) throws IOException
+    {
+        this( cacheDir, maxBytes, maxEntries, SlabStore.DEFAULT_SEGMENT_SIZE, logging );
+    }
+
+    public HttpCache( Path cacheDir, long maxBytes, int maxEntries, int segmentSize, Logging logging )
+            throws IOException
+    {
+        this( cacheDir, maxBytes, maxEntries, segmentSize, InvalidationBus.NONE, logging );
+    }
+
+    /**
+     * The logging should be the application's own, which is also given to Holon along with the cache, see
+     * {@link holon.Holon#run(Object...)}.
+     */
+    public HttpCache( Path cacheDir, long maxBytes, int maxEntries, int segmentSize, InvalidationBus bus,
+            Logging logging ) throws IOException
+    {
+        this.bus = bus;
+        this.logger = logging.logger( "holon.cache" );
+        this.budget = new CacheBudget( maxBytes, maxEntries );
+        this.store = new SlabStore( cacheDir, segmentSize );
+        this.index = new CacheIndex( cacheDir, store );
         if(!Files.exists(cacheDir))
         {
             Files.createDirectories( cacheDir );
         }
+        restore();
+        bus.start( this::evictLocally );
+    }
+
+    /** Load the entries left by an earlier cache over the same directory. */
+    private void restore() throws IOException
+    {
+        for ( GlobalCacheEntry global : index.open() )
+        {
+            global.scheduleExpiry( expiryTimer );
+            global.markAsLoaded();
+            globalEntriesByPath.put( global.path(), global );
+            addByKey( global.cacheKey(), global );
+            for ( GlobalCacheEntry victim : budget.admit( global ) )
+            {
+                removeByKey( victim.cacheKey(), victim );
+                globalEntriesByPath.remove( victim.path(), victim );
+                requestEviction( victim );
+            }
+        }
     }
 
+    /** Evict every entry with the given cache key, on this node and, through the {@link InvalidationBus}, all others. */
     public void evict( String cacheKey )
     {
-        GlobalCacheEntry global = globalEntriesByKey.remove( cacheKey );
-        if(global == null)
+        evictLocally( cacheKey );
+        bus.publish( cacheKey );
+    }
+
+    private void evictLocally( String cacheKey )
+    {
+        Set<GlobalCacheEntry> entries = globalEntriesByKey.remove( cacheKey );
+        if(entries == null)
         {
             return;
         }
-        globalEntriesByPath.remove( global.path() );
+        for ( GlobalCacheEntry global : entries )
+        {
+            globalEntriesByPath.remove( global.path(), global );
+            budget.release( global );
+            requestEviction( global );
+        }
+    }
+
+    private void addByKey( String cacheKey, GlobalCacheEntry global )
+    {
+        globalEntriesByKey.compute( cacheKey, ( key, entries ) -> {
+            if(entries == null)
+            {
+                entries = ConcurrentHashMap.newKeySet();
+            }
+            entries.add( global );
+            return entries;
+        } );
+    }
+
+    private void removeByKey( String cacheKey, GlobalCacheEntry global )
+    {
+        globalEntriesByKey.computeIfPresent( cacheKey, ( key, entries ) -> {
+            entries.remove( global );
+            return entries.isEmpty() ? null : entries;
+        } );
+    }
+
+    private void requestEviction( GlobalCacheEntry global )
+    {
+        index.removed( global );
         global.requestEviction();
+        evictions.incrementAndGet();
     }
 
-    public void respond( RequestContext req, String cacheKey, String etag, boolean browserCacheBypass,
-            Pipeline pipeline ) throws
+    /**
+     * Respond to a request from the cache, rendering it through the pipeline if it is not cached. The cache path
+     * identifies the response, the cache key is what it can be evicted by, and the ttl is the number of seconds the
+     * cached response stays fresh, zero or less meaning forever.
+     */
+    public void respond( RequestContext req, String cachePath, String cacheKey, int ttl, String etag,
+            String acceptEncoding, boolean browserCacheBypass, Pipeline pipeline ) throws
             IOException
     {
-        String cachePath = cachePath(req);
+        LocalCache local = caches.get();
+        long evicted = evictions.get();
+        if(local.evictionsSeen != evicted)
+        {
+            local.closeEvicted( evicted );
+        }
 
-        Map<String,LocalCacheEntry> cache = caches.get();
-        LocalCacheEntry cacheEntry = cache.get( cachePath );
-        if ( cacheEntry == null || cacheEntry.isEvicted() )
+        Map<String,LocalCacheEntry> cache = local.entries;
+        LocalCacheEntry cacheEntry = localEntry( req, cachePath, cacheKey, ttl, pipeline, cache );
+
+        GlobalCacheEntry global = cacheEntry.global();
+        if(global.isStale() && global.startRefresh())
         {
-            cacheEntry = cacheMiss( req, cachePath, cacheKey, pipeline, cache );
+            refresh( req, cachePath, cacheKey, ttl, pipeline, global );
+            cacheEntry = localEntry( req, cachePath, cacheKey, ttl, pipeline, cache );
         }
 
-        if( cacheEntry.etagEquals( etag ) && !browserCacheBypass)
+        ContentEncoding encoding = ContentEncoding.negotiate( acceptEncoding );
+        try
         {
-            req.respond( Status.Code.NOT_MODIFIED );
+            if( cacheEntry.etagEquals( etag, encoding ) && !browserCacheBypass)
+            {
+                req.respond( Status.Code.NOT_MODIFIED );
+            }
+            else
+            {
+                cacheEntry.respondTo( req, encoding );
+            }
         }
-        else
+        finally
         {
-            cacheEntry.respondTo( req );
+            if(cache.get( cachePath ) != cacheEntry)
+            {
+                // An entry that was not kept, see cacheMiss, its bodies are released once the response is sent
+                cacheEntry.evict();
+                cacheEntry.global().requestEviction();
+            }
+        }
+    }
+
+    private LocalCacheEntry localEntry( RequestContext req, String cachePath, String cacheKey, int ttl,
+            Pipeline pipeline, Map<String,LocalCacheEntry> cache ) throws IOException
+    {
+        LocalCacheEntry cacheEntry = cache.get( cachePath );
+        if ( cacheEntry == null || cacheEntry.isEvicted() )
+        {
+            if(cacheEntry != null)
+            {
+                cache.remove( cachePath );
+                cacheEntry.evict();
+            }
+            cacheEntry = cacheMiss( req, cachePath, cacheKey, ttl, pipeline, cache );
         }
+        return cacheEntry;
     }
 
-    private LocalCacheEntry cacheMiss( RequestContext req, String cachePath, String cacheKey, Pipeline pipeline,
-            Map<String,LocalCacheEntry> cache ) throws IOException
+    private LocalCacheEntry cacheMiss( RequestContext req, String cachePath, String cacheKey, int ttl,
+            Pipeline pipeline, Map<String,LocalCacheEntry> cache ) throws IOException
     {
-        GlobalCacheEntry global = getFromGlobalCache( req, cachePath, cacheKey, pipeline );
+        GlobalCacheEntry global = getFromGlobalCache( req, cachePath, cacheKey, ttl, pipeline );
 
         if(!global.awaitLoaded())
         {
-            return cacheMiss( req, cachePath, cacheKey, pipeline, cache );
+            return cacheMiss( req, cachePath, cacheKey, ttl, pipeline, cache );
         }
 
         LocalCacheEntry cacheEntry = new LocalCacheEntry( global );
 
         if(!global.register( cacheEntry ))
         {
-            return cacheMiss( req, cachePath, cacheKey, pipeline, cache );
+            cacheEntry.evict();
+            return cacheMiss( req, cachePath, cacheKey, ttl, pipeline, cache );
+        }
+        if(globalEntriesByPath.get( cachePath ) != global)
+        {
+            // Rendered, but not kept in the cache, see populateGlobalEntry, so only good for the requests waiting on it
+            return cacheEntry;
         }
         cache.put( cachePath, cacheEntry );
         return cacheEntry;
     }
 
-    private GlobalCacheEntry getFromGlobalCache( RequestContext req, String cachePath, String cacheKey,
+    private GlobalCacheEntry getFromGlobalCache( RequestContext req, String cachePath, String cacheKey, int ttl,
             Pipeline pipeline )
             throws IOException
     {
@@ -165,40 +343,22 @@ public class HttpCache
             }
             else
             {
-                globalEntriesByKey.put( cacheKey, global );
-                populateGlobalEntry( req, cachePath, cacheKey, pipeline, global );
+                addByKey( cacheKey, global );
+                populateGlobalEntry( req, cachePath, cacheKey, ttl, pipeline, global );
             }
         }
         return global;
     }
 
-    private void populateGlobalEntry( RequestContext req, String cachePath, String cacheKey, Pipeline pipeline,
-            GlobalCacheEntry global )
+    private void populateGlobalEntry( RequestContext req, String cachePath, String cacheKey, int ttl,
+            Pipeline pipeline, GlobalCacheEntry global )
             throws IOException
     {
         // We've won a race to populate the global cache
         boolean success = false;
         try
         {
-            RecordingRequest recorder = new RecordingRequest( req );
-            pipeline.call( recorder );
-
-            Path cacheFilePath = null;
-            if ( recorder.hasContent() )
-            {
-                cacheFilePath = newCachedFile();
-                try(FileChannel ch = FileChannel.open( cacheFilePath, CREATE, WRITE, READ ))
-                {
-                    recorder.replay( new FileOutput( ch ) );
-                    ch.force( true );
-                }
-            }
-
-            global.populate(
-                    cachePath,
-                    recorder.recordedStatus(),
-                    stripPrivateHeaders( recorder.recordedHeaders() ),
-                    cacheFilePath );
+            render( req, cachePath, cacheKey, ttl, pipeline, global );
             success = true;
         }
         finally
@@ -206,34 +366,175 @@ public class HttpCache
             if(!success)
             {
                 global.requestEviction();
-                globalEntriesByKey.remove( cacheKey );
-                globalEntriesByPath.remove( cachePath );
+                removeByKey( cacheKey, global );
+                globalEntriesByPath.remove( cachePath, global );
+            }
+            else if(!budget.fits( global ))
+            {
+                // Larger than the whole cache, so it is handed to the requests waiting for it, and then dropped
+                removeByKey( cacheKey, global );
+                globalEntriesByPath.remove( cachePath, global );
+                global.markAsLoaded();
             }
             else
             {
                 global.markAsLoaded();
+                admit( global );
             }
         }
     }
 
-    public void stop()
+    /**
+     * Render a fresh copy of a stale entry, and swap it in. Other threads keep serving the stale entry until it is
+     * replaced, after which they find it evicted and pick up the fresh one. If rendering fails, the stale entry stays
+     * in place and a later request will try again.
+     */
+    private void refresh( RequestContext req, String cachePath, String cacheKey, int ttl, Pipeline pipeline,
+            GlobalCacheEntry stale ) throws IOException
+    {
+        GlobalCacheEntry fresh = new GlobalCacheEntry();
+        boolean success = false;
+        try
+        {
+            render( req, cachePath, cacheKey, ttl, pipeline, fresh );
+            success = true;
+        }
+        finally
+        {
+            if(!success)
+            {
+                fresh.requestEviction();
+                stale.refreshFailed();
+            }
+        }
+
+        replace( stale, fresh );
+    }
+
+    /**
+     * Swap a new entry in for an old one. If the old one has been evicted in the meantime, there is nothing to
+     * replace, and the new entry is dropped.
+     */
+    private boolean replace( GlobalCacheEntry old, GlobalCacheEntry replacement ) throws IOException
+    {
+        replacement.markAsLoaded();
+        if(globalEntriesByPath.replace( old.path(), old, replacement ))
+        {
+            removeByKey( old.cacheKey(), old );
+            addByKey( replacement.cacheKey(), replacement );
+            budget.release( old );
+            requestEviction( old );
+            admit( replacement );
+            return true;
+        }
+        replacement.requestEviction();
+        return false;
+    }
+
+    /** Run the request through the pipeline, and store the response in the given entry. */
+    private void render( RequestContext req, String cachePath, String cacheKey, int ttl, Pipeline pipeline,
+            GlobalCacheEntry global ) throws IOException
+    {
+        RecordingRequest recorder = new RecordingRequest( req );
+        pipeline.call( recorder );
+
+        Map<String, String> headers = stripPrivateHeaders( recorder.recordedHeaders() );
+        if ( recorder.hasContent() )
+        {
+            Path spillPath = Files.createTempFile( "holon", ".body" );
+            try(FileChannel spill = FileChannel.open( spillPath, READ, WRITE, DELETE_ON_CLOSE ))
+            {
+                ContentHash hash = new ContentHash();
+                FileOutput out = new FileOutput( spill, hash );
+                recorder.replay( out );
+                out.flush();
+                global.populate( cachePath, cacheKey, recorder.recordedStatus(), headers, spill, hash.etag(), store );
+            }
+        }
+        else
+        {
+            global.populate( cachePath, cacheKey, recorder.recordedStatus(), headers, (byte[]) null, store );
+        }
+        global.expireAfter( expiryTimer, ttl );
+    }
+
+    private void admit( GlobalCacheEntry global ) throws IOException
     {
-        for ( GlobalCacheEntry entry : globalEntriesByKey.values() )
+        index.stored( global );
+        for ( GlobalCacheEntry victim : budget.admit( global ) )
+        {
+            removeByKey( victim.cacheKey(), victim );
+            globalEntriesByPath.remove( victim.path(), victim );
+            requestEviction( victim );
+        }
+
+        if(index.needsCompaction( globalEntriesByPath.size() ))
+        {
+            List<GlobalCacheEntry> live = new ArrayList<>();
+            for ( GlobalCacheEntry entry : globalEntriesByPath.values() )
+            {
+                if(entry.isLoaded())
+                {
+                    live.add( entry );
+                }
+            }
+            index.compact( live );
+        }
+
+        if(store.hasSparseSegments() && compacting.compareAndSet( false, true ))
         {
             try
             {
-                entry.evict();
+                moveOutOf( store.sparseSegments() );
             }
-            catch ( IOException e )
+            finally
             {
-                e.printStackTrace(); // TODO
+                compacting.set( false );
             }
         }
     }
 
-    private Path newCachedFile() throws IOException
+    /** Copy entries with bodies in the given segments elsewhere in the store, so that the segments can drain. */
+    private void moveOutOf( Set<Integer> segments ) throws IOException
+    {
+        for ( GlobalCacheEntry global : globalEntriesByPath.values() )
+        {
+            if(global.isLoaded() && global.storedIn( segments ))
+            {
+                GlobalCacheEntry copy = global.copyTo( store );
+                if(copy != null)
+                {
+                    copy.scheduleExpiry( expiryTimer );
+                    replace( global, copy );
+                }
+            }
+        }
+    }
+
+    public void stop()
     {
-        return cacheDir.resolve( UUID.randomUUID().toString() );
+        bus.stop();
+        expiryTimer.stop();
+        for ( GlobalCacheEntry entry : globalEntriesByPath.values() )
+        {
+            try
+            {
+                entry.close();
+            }
+            catch ( IOException e )
+            {
+                logger.warn( "Failed to close cache entry for '" + entry.path() + "'.", e );
+            }
+        }
+        try
+        {
+            store.force();
+            index.close();
+        }
+        catch ( IOException e )
+        {
+            logger.error( "Failed to write the cache to disk, it will start out empty next time.", e );
+        }
     }
 
     private static final Set<String> headerWhitelist = new HashSet<>();
@@ -262,8 +563,25 @@ public class HttpCache
         return cachedHeaders;
     }
 
-    private final String cachePath(RequestContext req)
+    /** Entries local to one worker thread. */
+    private static final class LocalCache
     {
-        return req.path().fullPath();
+        private final Map<String,LocalCacheEntry> entries = new HashMap<>();
+        private long evictionsSeen;
+
+        private void closeEvicted( long evictions ) throws IOException
+        {
+            evictionsSeen = evictions;
+            Iterator<LocalCacheEntry> it = entries.values().iterator();
+            while(it.hasNext())
+            {
+                LocalCacheEntry entry = it.next();
+                if(entry.isEvicted())
+                {
+                    it.remove();
+                    entry.evict();
+                }
+            }
+        }
     }
 }
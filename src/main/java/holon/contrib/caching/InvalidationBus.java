@@ -0,0 +1,49 @@
+package holon.contrib.caching;
+
+import java.io.IOException;
+
+/**
+ * Carries cache evictions between the nodes of a cluster, so that {@link HttpCache#evict(String)} on one node evicts
+ * the key on every node. Implementations are free to batch and delay evictions; a node will serve a stale entry
+ * until the eviction reaches it.
+ *
+ * Evictions received from other nodes are only applied locally, they are never published again.
+ */
+public interface InvalidationBus
+{
+    /** A bus that does not leave this node, used when the cache is not part of a cluster. */
+    InvalidationBus NONE = new InvalidationBus()
+    {
+        @Override
+        public void start( Listener listener )
+        {
+
+        }
+
+        @Override
+        public void publish( String cacheKey )
+        {
+
+        }
+
+        @Override
+        public void stop()
+        {
+
+        }
+    };
+
+    interface Listener
+    {
+        /** Called, from a thread owned by the bus, for each key another node has evicted. */
+        void evicted( String cacheKey );
+    }
+
+    /** Start publishing, and delivering evictions from other nodes to the given listener. */
+    void start( Listener listener ) throws IOException;
+
+    /** Tell the other nodes that the given key has been evicted on this one. */
+    void publish( String cacheKey );
+
+    void stop();
+}
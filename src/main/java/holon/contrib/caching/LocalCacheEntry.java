@@ -22,47 +22,64 @@ package holon.contrib.caching;
 import holon.api.http.Content;
 import holon.api.http.Status;
 import holon.contrib.http.NoContent;
-import holon.internal.http.common.files.FileContent;
+import holon.internal.io.ContentEncoding;
 import holon.spi.RequestContext;
 import io.netty.handler.codec.http.HttpHeaders;
 
 import java.io.IOException;
-import java.nio.channels.FileChannel;
+import java.util.EnumMap;
 import java.util.Map;
 
 public class LocalCacheEntry
 {
     private final Status status;
     private final Map<String, String> headers;
-    private final Content content;
-    private final String etag;
+    private final Map<ContentEncoding, Content> contents = new EnumMap<>( ContentEncoding.class );
+    private final Map<ContentEncoding, String> etags = new EnumMap<>( ContentEncoding.class );
+    private final boolean hasVariants;
+    private final String cacheControl;
     private final GlobalCacheEntry global;
 
-    private FileChannel channel;
-    private volatile boolean evicted;
+    private volatile boolean evictionRequested;
+    private boolean closed;
 
     public LocalCacheEntry( GlobalCacheEntry global )
-            throws IOException
     {
         this.global = global;
         this.status = global.status();
         this.headers = global.headers();
-        this.channel = global.newChannel();
-        this.content = channel == null ? new NoContent() : new FileContent( channel );
-        this.etag = global.etag();
+        for ( ContentEncoding encoding : global.encodings() )
+        {
+            SlabStore.Slot body = global.body( encoding );
+            contents.put( encoding, body == null ? new NoContent() : new SlabContent( body ) );
+            etags.put( encoding, global.etag( encoding ) );
+        }
+        this.hasVariants = contents.size() > 1;
+        this.cacheControl = "public, max-age=" + (global.ttl() > 0 ? global.ttl() : 86400);
     }
 
-    public synchronized void respondTo( RequestContext req )
+    public synchronized void respondTo( RequestContext req, ContentEncoding encoding )
     {
-        req.addHeader( HttpHeaders.Names.ETAG, this.etag );
-        req.addHeader( HttpHeaders.Names.CACHE_CONTROL, "public, max-age=86400" );
+        ContentEncoding served = served( encoding );
+        req.addHeader( HttpHeaders.Names.ETAG, etags.get( served ) );
+        req.addHeader( HttpHeaders.Names.CACHE_CONTROL, cacheControl );
 
         for ( Map.Entry<String, String> header : headers.entrySet() )
         {
             req.addHeader( header.getKey(), header.getValue() );
         }
 
-        req.respond( status, content );
+        if(hasVariants)
+        {
+            req.addHeader( HttpHeaders.Names.VARY, HttpHeaders.Names.ACCEPT_ENCODING );
+        }
+        if(served != ContentEncoding.IDENTITY)
+        {
+            req.addHeader( HttpHeaders.Names.CONTENT_ENCODING, served.headerValue() );
+        }
+
+        global.touch();
+        req.respond( status, contents.get( served ) );
     }
 
     @Override
@@ -72,32 +89,39 @@ public class LocalCacheEntry
         evict();
     }
 
+    public GlobalCacheEntry global()
+    {
+        return global;
+    }
+
     public boolean isEvicted()
     {
-        return evicted;
+        return evictionRequested;
     }
 
+    /** Called from any thread, the thread owning this entry is expected to {@link #evict()} it. */
     public void requestEviction()
     {
-        evicted = true;
+        evictionRequested = true;
     }
 
-    public void evict() throws IOException
+    public synchronized void evict() throws IOException
     {
-        if(!evicted)
+        if(!closed)
         {
-            evicted = true;
-            if ( channel != null )
-            {
-                channel.close();
-                channel = null;
-            }
+            closed = true;
+            evictionRequested = true;
             global.unregiser( this );
         }
     }
 
-    public boolean etagEquals( String etag )
+    public boolean etagEquals( String etag, ContentEncoding encoding )
+    {
+        return etags.get( served( encoding ) ).equalsIgnoreCase( etag );
+    }
+
+    private ContentEncoding served( ContentEncoding encoding )
     {
-        return this.etag.equalsIgnoreCase( etag );
+        return contents.containsKey( encoding ) ? encoding : ContentEncoding.IDENTITY;
     }
 }
@@ -0,0 +1,37 @@
+package holon.contrib.caching;
+
+import holon.api.exception.HolonException;
+import holon.api.http.Content;
+import holon.api.http.Output;
+
+import java.io.IOException;
+
+/**
+ * A cached body in a {@link SlabStore}. The slot is retained for as long as the output holds on to its bytes, so it
+ * cannot be reused while a response is still being sent.
+ */
+public class SlabContent implements Content
+{
+    private final SlabStore.Slot slot;
+
+    public SlabContent( SlabStore.Slot slot )
+    {
+        this.slot = slot;
+    }
+
+    @Override
+    public void render( Output out, Object context ) throws IOException
+    {
+        if(!slot.retain())
+        {
+            throw new HolonException( "Cached body has already been freed." );
+        }
+        out.write( slot.buffer(), slot.releaser() );
+    }
+
+    @Override
+    public String contentType( Object context )
+    {
+        return "text/plain";
+    }
+}
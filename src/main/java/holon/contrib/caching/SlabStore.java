@@ -0,0 +1,415 @@
+package holon.contrib.caching;
+
+import holon.api.exception.HolonException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Stores cached bodies in a few large memory-mapped segment files, rather than one file per body. Bodies are
+ * handed out as {@link Slot slots}, slices of a segment, which are sent straight from the mapped memory. The segment
+ * files are closed as soon as they are mapped, so serving from the store does not hold any file descriptors.
+ *
+ * Space is bump-allocated from one active segment at a time. A segment is reused once every slot in it has been
+ * freed; a slot is freed once its last reference is released, meaning no entry and no response in flight uses it.
+ * Segments that are mostly dead are reported as {@link #sparseSegments() sparse}, so that the cache can move their
+ * live bodies elsewhere and let the segment drain.
+ *
+ * Segments outlive the store, so that a new store over the same directory can pick up the bodies listed in the
+ * cache index, see {@link #locate(int, int, int)}.
+ */
+public class SlabStore
+{
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private static final Pattern SEGMENT_FILE = Pattern.compile( "slab-(\\d+)\\.dat" );
+
+    /** Segments with less than this fraction of their space live are sparse. */
+    private static final double SPARSE_RATIO = 0.25;
+
+    private final Path dir;
+    private final int segmentSize;
+
+    /** Indexed by segment id, with null for ids not in use. */
+    private final List<Segment> segments = new ArrayList<>();
+    private final Deque<Segment> empty = new ArrayDeque<>();
+    private final Set<Integer> sparse = new HashSet<>();
+    private Segment active;
+
+    public SlabStore( Path dir, int segmentSize )
+    {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+    }
+
+    /** Store the given bytes, returning a slot holding one reference, owned by the caller. */
+    public Slot store( byte[] bytes ) throws IOException
+    {
+        Slot slot = allocate( bytes.length );
+        slot.buffer.duplicate().put( bytes );
+        return slot;
+    }
+
+    /** Store the full contents of a file, read straight into the mapped segment. */
+    public Slot store( FileChannel source ) throws IOException
+    {
+        long size = source.size();
+        if(size > Integer.MAX_VALUE)
+        {
+            throw new HolonException( "Cannot store a body of " + size + " bytes, it does not fit in a segment." );
+        }
+        Slot slot = allocate( (int) size );
+        try
+        {
+            ByteBuffer target = slot.buffer.duplicate();
+            while(target.hasRemaining())
+            {
+                if(source.read( target, target.position() ) == -1)
+                {
+                    throw new IOException( "File shrank while it was being stored." );
+                }
+            }
+        }
+        catch ( IOException | RuntimeException e )
+        {
+            slot.release();
+            throw e;
+        }
+        return slot;
+    }
+
+    /** Store a copy of the bytes of another slot. */
+    public Slot store( Slot source ) throws IOException
+    {
+        Slot slot = allocate( source.length );
+        slot.buffer.duplicate().put( source.buffer.duplicate() );
+        return slot;
+    }
+
+    private synchronized Slot allocate( int length ) throws IOException
+    {
+        Segment segment;
+        if(length > segmentSize)
+        {
+            // Dedicated segment, deleted rather than reused once it is empty
+            segment = newSegment( length );
+        }
+        else
+        {
+            if(active == null || active.capacity - active.top < length)
+            {
+                if(active != null)
+                {
+                    retire( active );
+                }
+                active = empty.isEmpty() ? newSegment( segmentSize ) : empty.poll();
+            }
+            segment = active;
+        }
+
+        Slot slot = new Slot( segment, segment.top, length );
+        segment.top += length;
+        segment.live += length;
+        segment.slots++;
+        return slot;
+    }
+
+    /**
+     * Find a slot stored by an earlier store over the same directory. The slot is not counted as live until it is
+     * {@link #claim(Slot) claimed}. Returns null if its segment is gone or too short to hold it.
+     */
+    public synchronized Slot locate( int segmentId, int offset, int length ) throws IOException
+    {
+        Segment segment = segmentId < segments.size() ? segments.get( segmentId ) : null;
+        if(segment == null)
+        {
+            Path file = segmentFile( segmentId );
+            if(!Files.exists( file ))
+            {
+                return null;
+            }
+            segment = mapSegment( segmentId, (int) Files.size( file ) );
+        }
+        if(offset < 0 || length < 0 || (long) offset + length > segment.capacity)
+        {
+            return null;
+        }
+        return new Slot( segment, offset, length );
+    }
+
+    /** Count a slot found with {@link #locate(int, int, int)} as live. */
+    public synchronized void claim( Slot slot )
+    {
+        Segment segment = slot.segment;
+        segment.top = Math.max( segment.top, slot.offset + slot.length );
+        segment.live += slot.length;
+        segment.slots++;
+    }
+
+    /**
+     * Called once every slot listed in the cache index has been claimed. Segments without any live slots are
+     * deleted, and the rest are checked for sparseness.
+     */
+    public synchronized void restored() throws IOException
+    {
+        try(DirectoryStream<Path> files = Files.newDirectoryStream( dir ))
+        {
+            for ( Path file : files )
+            {
+                Matcher matcher = SEGMENT_FILE.matcher( file.getFileName().toString() );
+                if(matcher.matches())
+                {
+                    int id = Integer.parseInt( matcher.group( 1 ) );
+                    Segment segment = id < segments.size() ? segments.get( id ) : null;
+                    if(segment == null || segment.slots == 0)
+                    {
+                        if(segment != null)
+                        {
+                            segments.set( id, null );
+                        }
+                        Files.deleteIfExists( file );
+                    }
+                    else
+                    {
+                        retire( segment );
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Segments that are mostly dead, and have not been reported before. The caller is expected to move the live
+     * slots out of these, after which the segments drain and get reused.
+     */
+    public synchronized Set<Integer> sparseSegments()
+    {
+        Set<Integer> reported = new HashSet<>( sparse );
+        for ( Integer id : reported )
+        {
+            segments.get( id ).draining = true;
+        }
+        sparse.clear();
+        return reported;
+    }
+
+    public synchronized boolean hasSparseSegments()
+    {
+        return !sparse.isEmpty();
+    }
+
+    /** Force all segments to disk. */
+    public synchronized void force()
+    {
+        for ( Segment segment : segments )
+        {
+            if(segment != null)
+            {
+                segment.map.force();
+            }
+        }
+    }
+
+    private synchronized void free( Slot slot )
+    {
+        Segment segment = slot.segment;
+        segment.live -= slot.length;
+        segment.slots--;
+        if(segment.slots == 0 && segment == active)
+        {
+            segment.top = 0;
+        }
+        else if(segment.slots == 0)
+        {
+            sparse.remove( segment.id );
+            segment.draining = false;
+            if(segment.capacity > segmentSize)
+            {
+                segments.set( segment.id, null );
+                try
+                {
+                    Files.deleteIfExists( segmentFile( segment.id ) );
+                }
+                catch ( IOException e )
+                {
+                    throw new HolonException( "Failed to delete cache segment " + segment.id + ".", e );
+                }
+            }
+            else
+            {
+                segment.top = 0;
+                empty.add( segment );
+            }
+        }
+        else if(segment != active)
+        {
+            checkSparse( segment );
+        }
+    }
+
+    /** The active segment is full, it will only be reused once it has drained. */
+    private void retire( Segment segment )
+    {
+        checkSparse( segment );
+    }
+
+    private void checkSparse( Segment segment )
+    {
+        if(!segment.draining && segment.live < segment.top * SPARSE_RATIO)
+        {
+            sparse.add( segment.id );
+        }
+    }
+
+    private Segment newSegment( int capacity ) throws IOException
+    {
+        int id = segments.indexOf( null );
+        if(id == -1)
+        {
+            id = segments.size();
+        }
+        return mapSegment( id, capacity );
+    }
+
+    private Segment mapSegment( int id, int capacity ) throws IOException
+    {
+        MappedByteBuffer map;
+        try(FileChannel channel = FileChannel.open( segmentFile( id ), CREATE, READ, WRITE ))
+        {
+            // The mapping stays valid after the channel is closed
+            map = channel.map( FileChannel.MapMode.READ_WRITE, 0, capacity );
+        }
+        Segment segment = new Segment( id, map, capacity );
+        while(segments.size() <= id)
+        {
+            segments.add( null );
+        }
+        segments.set( id, segment );
+        return segment;
+    }
+
+    private Path segmentFile( int id )
+    {
+        return dir.resolve( "slab-" + id + ".dat" );
+    }
+
+    private static final class Segment
+    {
+        private final int id;
+        private final MappedByteBuffer map;
+        private final int capacity;
+
+        /** Next free byte, everything below this has been handed out at some point. */
+        private int top;
+        /** Bytes and slots still in use. */
+        private long live;
+        private int slots;
+        /** Reported as sparse, and expected to drain. */
+        private boolean draining;
+
+        private Segment( int id, MappedByteBuffer map, int capacity )
+        {
+            this.id = id;
+            this.map = map;
+            this.capacity = capacity;
+        }
+    }
+
+    /**
+     * A body in the store. Slots are reference counted: the store frees a slot once its last reference is released.
+     * Anyone sending the bytes should {@link #retain()} the slot first and release it once they have been sent, see
+     * {@link #releaser()}.
+     */
+    public final class Slot
+    {
+        private final Segment segment;
+        private final int offset;
+        private final int length;
+        private final ByteBuffer buffer;
+        private final AtomicInteger references = new AtomicInteger( 1 );
+        private final Runnable releaser = this::release;
+
+        private Slot( Segment segment, int offset, int length )
+        {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            ByteBuffer slice = segment.map.duplicate();
+            slice.position( offset );
+            slice.limit( offset + length );
+            this.buffer = slice.slice();
+        }
+
+        /**
+         * The bytes of this slot. This buffer is shared, so its position and limit must never be changed; take a
+         * duplicate to read from it.
+         */
+        public ByteBuffer buffer()
+        {
+            return buffer;
+        }
+
+        /** Take a reference to this slot. Returns false if it has already been freed. */
+        public boolean retain()
+        {
+            int current;
+            do
+            {
+                current = references.get();
+                if(current <= 0)
+                {
+                    return false;
+                }
+            }
+            while(!references.compareAndSet( current, current + 1 ));
+            return true;
+        }
+
+        public void release()
+        {
+            if(references.decrementAndGet() == 0)
+            {
+                free( this );
+            }
+        }
+
+        /** Releases this slot when run, for passing along with the buffer to whoever sends it. */
+        public Runnable releaser()
+        {
+            return releaser;
+        }
+
+        public int segmentId()
+        {
+            return segment.id;
+        }
+
+        public int offset()
+        {
+            return offset;
+        }
+
+        public int length()
+        {
+            return length;
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package holon.contrib.caching;
+
+import holon.api.logging.Logging;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+
+/**
+ * An {@link InvalidationBus} that sends evictions as UDP datagrams to a fixed list of peers.
+ *
+ * Published keys are collected and sent at a fixed interval, so a burst of evictions costs a handful of datagrams
+ * rather than one per key: a key evicted several times within one interval is sent once, and the keys are packed
+ * into datagrams small enough not to be fragmented. A key too long to fit in a datagram on its own is not sent at all,
+ * which is logged when it is published.
+ *
+ * Delivery is best effort. A datagram lost on the way means the entry stays cached on that node until it is evicted
+ * again or its time to live runs out, so this is meant for caches where a short window of stale reads is acceptable.
+ *
+ * Evictions are not authenticated: the bus acts on any datagram sent to its port, from peers or not. Bind it to an
+ * address that only the other nodes can reach.
+ */
+public class UdpInvalidationBus implements InvalidationBus
+{
+    public static final long DEFAULT_FLUSH_INTERVAL_MS = 50;
+
+    /** Stay within a typical MTU, so that datagrams are not fragmented on the way. */
+    private static final int MAX_DATAGRAM = 1400;
+    private static final int MAX_RECEIVED = 64 * 1024;
+
+    private static final byte VERSION = 1;
+    /** Version, node id and key count. */
+    private static final int HEADER = 1 + 16 + 2;
+    /** The longest key that fits in a datagram, counting the length that goes in front of it. */
+    private static final int MAX_KEY = MAX_DATAGRAM - HEADER;
+
+    private final InetSocketAddress bindAddress;
+    private final List<InetSocketAddress> peers;
+    private final long flushIntervalMs;
+    private final Logging.Logger logger;
+
+    /** Sent along with each batch, so that a node listed among its own peers ignores its own evictions. */
+    private final UUID nodeId = UUID.randomUUID();
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+    private final ThreadFactory threads = new DefaultThreadFactory( "holon-cache-invalidation", true );
+
+    private DatagramChannel channel;
+    private ScheduledExecutorService flusher;
+    private Thread receiver;
+    private volatile boolean running;
+
+    public UdpInvalidationBus( InetSocketAddress bindAddress, List<InetSocketAddress> peers, Logging logging )
+    {
+        this( bindAddress, peers, DEFAULT_FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS, logging );
+    }
+
+    public UdpInvalidationBus( InetSocketAddress bindAddress, List<InetSocketAddress> peers,
+            long flushInterval, TimeUnit unit, Logging logging )
+    {
+        this.bindAddress = bindAddress;
+        this.peers = new ArrayList<>( peers );
+        this.flushIntervalMs = unit.toMillis( flushInterval );
+        this.logger = logging.logger( "holon.cache.invalidation" );
+    }
+
+    @Override
+    public synchronized void start( Listener listener ) throws IOException
+    {
+        channel = DatagramChannel.open();
+        channel.bind( bindAddress );
+        running = true;
+
+        receiver = threads.newThread( () -> receive( listener ) );
+        receiver.start();
+
+        flusher = newSingleThreadScheduledExecutor( threads );
+        flusher.scheduleWithFixedDelay( this::flush, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS );
+    }
+
+    /** The address this bus receives on, useful when bound to an ephemeral port. */
+    public synchronized InetSocketAddress localAddress() throws IOException
+    {
+        return (InetSocketAddress) channel.getLocalAddress();
+    }
+
+    @Override
+    public void publish( String cacheKey )
+    {
+        int length = utfLength( cacheKey );
+        if(length > MAX_KEY)
+        {
+            logger.warn( "Not telling other nodes to evict '" + cacheKey.substring( 0, 64 ) + "...', the key is " +
+                    length + " bytes, and at most " + MAX_KEY + " fit in a datagram." );
+            return;
+        }
+        pending.add( cacheKey );
+    }
+
+    @Override
+    public synchronized void stop()
+    {
+        if(!running)
+        {
+            return;
+        }
+        running = false;
+        flusher.shutdown();
+        try
+        {
+            flusher.awaitTermination( 1, TimeUnit.SECONDS );
+            // Whatever was published since the last flush
+            flush();
+            channel.close();
+            receiver.join( 1000 );
+        }
+        catch ( IOException e )
+        {
+            // Closing, nothing left to do about it
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void flush()
+    {
+        if(pending.isEmpty())
+        {
+            return;
+        }
+
+        List<byte[]> keys = new ArrayList<>();
+        for ( Iterator<String> it = pending.iterator(); it.hasNext(); )
+        {
+            // Keys published while we drain are either picked up here or by the next flush
+            byte[] key = utf( it.next() );
+            it.remove();
+            if(key != null)
+            {
+                keys.add( key );
+            }
+        }
+
+        try
+        {
+            int start = 0;
+            while(start < keys.size())
+            {
+                // Every key fits in a datagram of its own, see publish
+                int end = start + 1;
+                int size = HEADER + keys.get( start ).length;
+                while(end < keys.size() && size + keys.get( end ).length <= MAX_DATAGRAM)
+                {
+                    size += keys.get( end++ ).length;
+                }
+                send( datagram( keys.subList( start, end ), size ) );
+                start = end;
+            }
+        }
+        catch ( IOException e )
+        {
+            // The bus is best effort, and a failed flush must not cancel the ones that follow
+        }
+    }
+
+    private ByteBuffer datagram( List<byte[]> keys, int size ) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream( size );
+        DataOutputStream out = new DataOutputStream( bytes );
+        out.writeByte( VERSION );
+        out.writeLong( nodeId.getMostSignificantBits() );
+        out.writeLong( nodeId.getLeastSignificantBits() );
+        out.writeShort( keys.size() );
+        for ( byte[] key : keys )
+        {
+            out.write( key );
+        }
+        out.flush();
+        return ByteBuffer.wrap( bytes.toByteArray() );
+    }
+
+    private void send( ByteBuffer datagram )
+    {
+        for ( InetSocketAddress peer : peers )
+        {
+            try
+            {
+                channel.send( datagram.duplicate(), peer );
+            }
+            catch ( IOException e )
+            {
+                // One unreachable peer should not keep the others from hearing about the eviction
+            }
+        }
+    }
+
+    private void receive( Listener listener )
+    {
+        ByteBuffer buffer = ByteBuffer.allocate( MAX_RECEIVED );
+        while(running)
+        {
+            try
+            {
+                buffer.clear();
+                channel.receive( buffer );
+                buffer.flip();
+                deliver( buffer, listener );
+            }
+            catch ( ClosedChannelException e )
+            {
+                return;
+            }
+            catch ( IOException | RuntimeException e )
+            {
+                // Malformed datagram, or a failing listener; either way, keep serving the ones that follow
+            }
+        }
+    }
+
+    private void deliver( ByteBuffer buffer, Listener listener ) throws IOException
+    {
+        DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream( buffer.array(), buffer.arrayOffset(), buffer.limit() ) );
+        if(in.readByte() != VERSION)
+        {
+            return;
+        }
+        long mostSignificant = in.readLong();
+        long leastSignificant = in.readLong();
+        if(mostSignificant == nodeId.getMostSignificantBits() && leastSignificant == nodeId.getLeastSignificantBits())
+        {
+            return;
+        }
+        int count = in.readUnsignedShort();
+        for ( int i = 0; i < count; i++ )
+        {
+            listener.evicted( in.readUTF() );
+        }
+    }
+
+    /** The length of a key as written by {@link DataOutputStream#writeUTF(String)}, including its own length. */
+    private static int utfLength( String key )
+    {
+        int length = 2;
+        for ( int i = 0; i < key.length(); i++ )
+        {
+            char c = key.charAt( i );
+            length += c >= 0x01 && c <= 0x7f ? 1 : c <= 0x7ff ? 2 : 3;
+        }
+        return length;
+    }
+
+    private static byte[] utf( String key )
+    {
+        try
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream( key.length() + 2 );
+            DataOutputStream out = new DataOutputStream( bytes );
+            out.writeUTF( key );
+            return bytes.toByteArray();
+        }
+        catch ( IOException e )
+        {
+            // Only thrown for keys too long to encode, which could not be sent anyway
+            return null;
+        }
+    }
+}
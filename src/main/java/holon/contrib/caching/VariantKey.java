@@ -0,0 +1,97 @@
+package holon.contrib.caching;
+
+import holon.spi.RequestContext;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.TreeSet;
+
+/**
+ * Builds the key a cached response is looked up by: the request path, plus the query parameters and request headers
+ * the route varies by. Names are sorted up front, so the same request always encodes to the same key no matter the
+ * order its parameters came in. Each value is length-prefixed, so no value can be mistaken for a separator.
+ *
+ * Routes that vary by nothing use the path as-is; others build the key in a per-thread buffer, so the only
+ * allocation is the key itself.
+ */
+public class VariantKey
+{
+    private static final ThreadLocal<StringBuilder> buffers = new ThreadLocal<StringBuilder>()
+    {
+        @Override
+        protected StringBuilder initialValue()
+        {
+            return new StringBuilder( 128 );
+        }
+    };
+
+    private final String[] queryParams;
+    private final String[] headers;
+    private final String varyHeader;
+
+    public VariantKey( String[] queryParams, String[] headers )
+    {
+        this.queryParams = new TreeSet<>( Arrays.asList( queryParams ) ).toArray( new String[0] );
+
+        TreeSet<String> headerNames = new TreeSet<>();
+        for ( String header : headers )
+        {
+            headerNames.add( header.toLowerCase( Locale.ENGLISH ) );
+        }
+        this.headers = headerNames.toArray( new String[0] );
+        this.varyHeader = this.headers.length == 0 ? null : String.join( ", ", this.headers );
+    }
+
+    public boolean isPathOnly()
+    {
+        return queryParams.length == 0 && headers.length == 0;
+    }
+
+    /** The value of the Vary header for responses, or null if responses do not vary by any request header. */
+    public String varyHeader()
+    {
+        return varyHeader;
+    }
+
+    public String encode( RequestContext req )
+    {
+        String path = req.path().fullPath();
+        if(isPathOnly())
+        {
+            return path;
+        }
+
+        StringBuilder key = buffers.get();
+        key.setLength( 0 );
+        key.append( path );
+
+        for ( String param : queryParams )
+        {
+            key.append( "\nq:" ).append( param );
+            Iterable<String> values = req.queryParams().get( param );
+            if(values != null)
+            {
+                for ( String value : values )
+                {
+                    appendValue( key, value );
+                }
+            }
+        }
+
+        for ( String header : headers )
+        {
+            key.append( "\nh:" ).append( header );
+            String value = req.headers().getFirst( header );
+            if(value != null)
+            {
+                appendValue( key, value );
+            }
+        }
+        return key.toString();
+    }
+
+    private static void appendValue( StringBuilder key, String value )
+    {
+        key.append( '=' ).append( value.length() ).append( ':' ).append( value );
+    }
+}
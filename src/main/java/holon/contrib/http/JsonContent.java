@@ -20,25 +20,49 @@
 package holon.contrib.http;
 
 import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import holon.api.http.Content;
 import holon.api.http.Output;
 
 /**
  * Content that renders JSON structures.
+ *
+ * All JSON content shares one mapper, and with it the serializers Jackson builds for each type. Each instance keeps a
+ * writer per type it renders, which has the serializer for that type looked up already. Give the type up front, and
+ * the writer is prepared when the content is created, rather than on the first request. JSON is written as UTF-8
+ * bytes straight to the output.
  */
 public class JsonContent implements Content
 {
-    private final ObjectMapper mapper = new ObjectMapper();
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    static
+    {
+        // The output belongs to the server, rendering must leave it open
+        MAPPER.getFactory().configure( JsonGenerator.Feature.AUTO_CLOSE_TARGET, false );
+    }
+
+    private final Map<Class<?>, ObjectWriter> writers = new ConcurrentHashMap<>();
+
+    public JsonContent()
+    {
+
+    }
+
+    /** Content for rendering objects of a given type, for which the writer is prepared right away. */
+    public JsonContent( Class<?> type )
+    {
+        writers.put( type, MAPPER.writerWithType( type ) );
+    }
 
     @Override
     public void render( Output out, Object context ) throws IOException
     {
-        JsonGenerator generator = mapper.getFactory().createGenerator( out.asWriter() );
-        generator.writeObject( context );
-        generator.flush();
+        writer( context ).writeValue( out.asStreamingOutputStream(), context );
     }
 
     @Override
@@ -46,4 +70,26 @@ public class JsonContent implements Content
     {
         return "application/json";
     }
+
+    @Override
+    public Object sizeKey()
+    {
+        // Created up front like its writers, for rendering the same kind of structure every time
+        return this;
+    }
+
+    private ObjectWriter writer( Object context )
+    {
+        if(context == null)
+        {
+            return MAPPER.writer();
+        }
+        ObjectWriter writer = writers.get( context.getClass() );
+        if(writer == null)
+        {
+            writer = MAPPER.writerWithType( context.getClass() );
+            writers.put( context.getClass(), writer );
+        }
+        return writer;
+    }
 }
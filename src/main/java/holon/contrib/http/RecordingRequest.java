@@ -26,11 +26,13 @@ import holon.api.http.Output;
 import holon.api.http.Request;
 import holon.api.http.RequestHeaders;
 import holon.api.http.Status;
+import holon.internal.http.common.ResponseHeaders;
 import holon.internal.http.common.StandardCookie;
 import holon.internal.routing.path.Path;
 import holon.spi.RequestContext;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -76,6 +78,12 @@ public class RecordingRequest implements RequestContext
         return delegate.formData();
     }
 
+    @Override
+    public InputStream body() throws IOException
+    {
+        return delegate.body();
+    }
+
     @Override
     @Deprecated
     public Cookies cookies()
@@ -138,14 +146,14 @@ public class RecordingRequest implements RequestContext
     @Override
     public Request addHeader( String header, String value )
     {
-        responseHeaders.put( header, value );
+        ResponseHeaders.add( responseHeaders, header, value );
         return this;
     }
 
     @Override
     public RequestHeaders headers()
     {
-        return null;
+        return delegate.headers();
     }
 
     public void replay( Output output ) throws IOException
@@ -20,7 +20,7 @@ public class MustacheTemplate implements Content
     @Override
     public void render( Output out, Object context ) throws IOException
     {
-        Writer writer = out.asWriter();
+        Writer writer = out.asStreamingWriter();
 
         try
         {
@@ -35,4 +35,11 @@ public class MustacheTemplate implements Content
             writer.flush();
         }
     }
+
+    @Override
+    public Object sizeKey()
+    {
+        // Each template renders pages of its own size
+        return this;
+    }
 }
@@ -47,31 +47,51 @@ public class HolonFactory
     /** Create a Holon instance using routes discovered based on the configuration passed in. */
     public Holon newHolon( Config config, Object[] injectables, Class[] globalMiddleware )
     {
-        Components components = createInjectableComponents( config, injectables );
-        return newHolon( config, new PackageScanRouteDiscovery( components, config.get( endpoint_packages ),
+        Logging logging = logging( injectables );
+        Components components = createInjectableComponents( config, logging, injectables );
+        return newHolon( config, logging, new PackageScanRouteDiscovery( components, config.get( endpoint_packages ),
                 asList(globalMiddleware)));
     }
 
     /** Create a Holon instance using routes from explicit endpoint classes. */
     public Holon newHolon( Config config, Object[] injectables, Class[] endpointClasses, Class[] globalMiddleware )
     {
-        Components components = createInjectableComponents( config, injectables );
-        return newHolon( config, new ExplicitClassRouteDiscovery( "", components, endpointClasses, asList(globalMiddleware)));
+        Logging logging = logging( injectables );
+        Components components = createInjectableComponents( config, logging, injectables );
+        return newHolon( config, logging, new ExplicitClassRouteDiscovery( "", components, endpointClasses, asList(globalMiddleware)));
     }
 
     /** Create a Holon instance using a custom route discovery strategy. */
     public Holon newHolon( Config config, RouteDiscoveryStrategy routeStrategy )
     {
-        Logging logging = new PrintStreamLogging( System.out );
+        return newHolon( config, new PrintStreamLogging( System.out ), routeStrategy );
+    }
+
+    private Holon newHolon( Config config, Logging logging, RouteDiscoveryStrategy routeStrategy )
+    {
         Scheduler scheduler = new StandardScheduler();
         Supplier<Iterable<Route>> routes = loadRoutes( config, scheduler, routeStrategy );
         return new Holon( new NettyEngine(config, logging.logger( "holon.engine" )), config, logging, routes );
     }
 
-    private Components createInjectableComponents( Config config, Object[] injectables )
+    /** The logging the application passed in with its injectables, if it did, or logging to standard out. */
+    private static Logging logging( Object[] injectables )
+    {
+        for ( Object injectable : injectables )
+        {
+            if(injectable instanceof Logging)
+            {
+                return (Logging) injectable;
+            }
+        }
+        return new PrintStreamLogging( System.out );
+    }
+
+    private Components createInjectableComponents( Config config, Logging logging, Object[] injectables )
     {
         Components components = new Components();
         components.register( config );
+        components.register( logging );
 
         // TODO: These two should get loaded via some sort of plugin mechanism
         components.register( new MustacheTemplateEngine( config ) );
@@ -89,7 +109,8 @@ public class HolonFactory
         return () -> {
             List<Route> routes = new ArrayList<>();
             routeStrategy.loadRoutes().forEach( routes::add );
-            routes.add( new StaticContentRoute( config.get( Holon.Configuration.static_path ), scheduler ) );
+            routes.add( new StaticContentRoute( config.get( Holon.Configuration.static_path ), scheduler,
+                    config.get( Holon.Configuration.static_etags ).equals( "modified" ) ) );
             return routes;
         };
     }
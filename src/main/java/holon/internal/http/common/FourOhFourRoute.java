@@ -24,4 +24,10 @@ public class FourOhFourRoute implements Route
     {
         req.respond( NOT_FOUND );
     }
+
+    @Override
+    public boolean isBlocking()
+    {
+        return false;
+    }
 }
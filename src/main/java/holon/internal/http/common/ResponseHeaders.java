@@ -0,0 +1,62 @@
+package holon.internal.http.common;
+
+import java.util.Map;
+
+import static io.netty.handler.codec.http.HttpHeaders.Names.VARY;
+
+/**
+ * Adds headers to the response headers of a request. Headers replace what was set before, except for Vary, which lists
+ * everything a response depends on, and is added to by several parties: the application, caching middleware and
+ * content negotiation. Values added to Vary are merged into it, eg. "accept-language" and then "Accept-Encoding" makes
+ * "accept-language, Accept-Encoding".
+ */
+public final class ResponseHeaders
+{
+    private ResponseHeaders()
+    {
+    }
+
+    public static void add( Map<String, String> headers, String header, String value )
+    {
+        if(header.equalsIgnoreCase( VARY ))
+        {
+            for ( Map.Entry<String, String> existing : headers.entrySet() )
+            {
+                if(existing.getKey().equalsIgnoreCase( VARY ))
+                {
+                    existing.setValue( mergeVary( existing.getValue(), value ) );
+                    return;
+                }
+            }
+        }
+        headers.put( header, value );
+    }
+
+    /** The union of two Vary values, in the order the names were added, with names that are in both listed once. */
+    static String mergeVary( String current, String added )
+    {
+        StringBuilder merged = new StringBuilder( current );
+        for ( String name : added.split( "," ) )
+        {
+            name = name.trim();
+            if(name.length() > 0 && !lists( current, name ))
+            {
+                merged.append( ", " ).append( name );
+            }
+        }
+        return merged.toString();
+    }
+
+    private static boolean lists( String vary, String name )
+    {
+        for ( String listed : vary.split( "," ) )
+        {
+            listed = listed.trim();
+            if(listed.equalsIgnoreCase( name ) || listed.equals( "*" ))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -2,8 +2,10 @@ package holon.internal.http.common;
 
 import holon.api.exception.HolonException;
 import holon.api.http.Status;
+import holon.internal.http.common.files.ByteRanges;
 import holon.internal.http.common.files.FileContent;
 import holon.internal.http.common.files.FileRepository;
+import holon.internal.io.ContentEncoding;
 import holon.spi.RequestContext;
 import holon.spi.Route;
 import holon.util.scheduling.Scheduler;
@@ -12,19 +14,35 @@ import java.io.IOException;
 import java.nio.file.FileSystem;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
 
 import static holon.internal.routing.HttpMethod.Standard.GET;
 import static io.netty.handler.codec.http.HttpHeaders.Names;
 
 public class StaticContentRoute implements Route
 {
+    /** Multipart range responses are built in memory, requests for more than this get the whole file instead. */
+    private static final long MAX_MULTIPART_BYTES = 8 * 1024 * 1024;
+
+    private static final DateTimeFormatter HTTP_DATE =
+            DateTimeFormatter.ofPattern( "EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.ENGLISH ).withZone( ZoneOffset.UTC );
+
     private final FileRepository files;
 
     public StaticContentRoute( Path staticContentFolder, Scheduler scheduler )
+    {
+        this( staticContentFolder, scheduler, false );
+    }
+
+    public StaticContentRoute( Path staticContentFolder, Scheduler scheduler, boolean weakEtags )
     {
         FileSystem fs = staticContentFolder.getFileSystem();
         ensurePublicDirExists( staticContentFolder );
-        files = new FileRepository( staticContentFolder, fs, scheduler );
+        files = new FileRepository( staticContentFolder, fs, scheduler, weakEtags );
     }
 
     private void ensurePublicDirExists( Path staticContentFolder )
@@ -70,33 +88,164 @@ public class StaticContentRoute implements Route
             {
                 return files.contains( path );
             }
+
+            @Override
+            public long version()
+            {
+                return files.version();
+            }
         };
     }
 
     @Override
     public void call( RequestContext req )
     {
-        String etag = req.headers().getFirst( Names.IF_NONE_MATCH );
-        String cacheControl = req.headers().getFirst( Names.CACHE_CONTROL );
         FileContent file = files.get( req.path().fullPath() );
-        if(file != null)
+        if(file == null)
+        {
+            req.respond( Status.Code.NOT_FOUND );
+            return;
+        }
+
+        try
         {
-            if(etag != null
-               && (cacheControl == null || !cacheControl.equalsIgnoreCase( "no-cache" ))
-               && file.etag().equals(etag))
+            respond( req, file );
+        }
+        finally
+        {
+            // Responses that send the file hold a reference of their own until it is sent
+            file.release();
+        }
+    }
+
+    private void respond( RequestContext req, FileContent file )
+    {
+        if(file.hasVariants())
+        {
+            file = file.encodedAs( ContentEncoding.negotiate( req.headers().getFirst( Names.ACCEPT_ENCODING ) ) );
+            req.addHeader( Names.VARY, Names.ACCEPT_ENCODING );
+        }
+
+        if(isNotModified( req, file ))
+        {
+            req.respond( Status.Code.NOT_MODIFIED );
+            return;
+        }
+
+        if(file.encoding() != ContentEncoding.IDENTITY)
+        {
+            // Already compressed, this also tells the engine not to compress it again
+            req.addHeader( Names.CONTENT_ENCODING, file.encoding().headerValue() );
+        }
+        req.addHeader( Names.ETAG, file.etag() );
+        if(file.lastModified() > 0)
+        {
+            req.addHeader( Names.LAST_MODIFIED, HTTP_DATE.format( Instant.ofEpochMilli( file.lastModified() ) ) );
+        }
+        req.addHeader( Names.CACHE_CONTROL, "public, max-age=86400" );
+        req.addHeader( Names.ACCEPT_RANGES, "bytes" );
+
+        ByteRanges ranges = requestedRanges( req, file );
+        if(ranges == null)
+        {
+            req.respond( Status.Code.OK, file );
+        }
+        else if(!ranges.isSatisfiable())
+        {
+            req.addHeader( Names.CONTENT_RANGE, ranges.unsatisfiedRange() );
+            req.respond( Status.Code.RANGE_NOT_SATISFIABLE );
+        }
+        else
+        {
+            if(ranges.count() == 1)
             {
-                req.respond( Status.Code.NOT_MODIFIED );
+                req.addHeader( Names.CONTENT_RANGE, ranges.contentRange( 0 ) );
             }
-            else
+            req.respond( Status.Code.PARTIAL_CONTENT, file.ranges( ranges ) );
+        }
+    }
+
+    /** If-None-Match, or failing that If-Modified-Since, unless the client asks us to bypass its cache. */
+    private boolean isNotModified( RequestContext req, FileContent file )
+    {
+        String cacheControl = req.headers().getFirst( Names.CACHE_CONTROL );
+        if(cacheControl != null && cacheControl.equalsIgnoreCase( "no-cache" ))
+        {
+            return false;
+        }
+
+        String etag = req.headers().getFirst( Names.IF_NONE_MATCH );
+        if(etag != null)
+        {
+            return file.etag().equals( etag );
+        }
+
+        Instant since = parseDate( req.headers().getFirst( Names.IF_MODIFIED_SINCE ) );
+        // Http dates have second precision
+        return since != null && file.lastModified() > 0 && file.lastModified() / 1000 <= since.getEpochSecond();
+    }
+
+    /**
+     * The ranges to send, or null if the whole file should be sent. That is the case if no ranges were asked for, if
+     * the file has changed since the version named in If-Range, or if the ranges would make too big a multipart body.
+     */
+    private ByteRanges requestedRanges( RequestContext req, FileContent file )
+    {
+        String range = req.headers().getFirst( Names.RANGE );
+        if(range == null)
+        {
+            return null;
+        }
+
+        String ifRange = req.headers().getFirst( Names.IF_RANGE );
+        if(ifRange != null && !isCurrent( ifRange, file ))
+        {
+            return null;
+        }
+
+        try
+        {
+            ByteRanges ranges = ByteRanges.parse( range, file.size() );
+            if(ranges != null && ranges.count() > 1 && ranges.totalCount() > MAX_MULTIPART_BYTES)
             {
-                req.addHeader( Names.ETAG, file.etag() );
-                req.addHeader( Names.CACHE_CONTROL, "public, max-age=86400" );
-                req.respond( Status.Code.OK, file );
+                return null;
             }
+            return ranges;
         }
-        else
+        catch ( IOException e )
         {
-            req.respond( Status.Code.NOT_FOUND );
+            throw new HolonException( "Failed to read size of static file.", e );
+        }
+    }
+
+    /** If-Range needs a strong validator, an exact etag or last-modified date. */
+    private boolean isCurrent( String validator, FileContent file )
+    {
+        if(validator.startsWith( "W/" ))
+        {
+            return false;
+        }
+        if(validator.startsWith( "\"" ))
+        {
+            return !file.etag().startsWith( "W/" ) && file.etag().equals( validator );
+        }
+        Instant date = parseDate( validator );
+        return date != null && file.lastModified() > 0 && file.lastModified() / 1000 == date.getEpochSecond();
+    }
+
+    private static Instant parseDate( String value )
+    {
+        if(value == null)
+        {
+            return null;
+        }
+        try
+        {
+            return Instant.from( DateTimeFormatter.RFC_1123_DATE_TIME.parse( value ) );
+        }
+        catch ( DateTimeParseException e )
+        {
+            return null;
         }
     }
 }
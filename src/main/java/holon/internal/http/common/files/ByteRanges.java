@@ -0,0 +1,161 @@
+package holon.internal.http.common.files;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The byte ranges asked for by a Range header, see RFC 7233, resolved against the length of a file. Ranges are
+ * sorted, and ranges that overlap or touch are merged, so a client can not make us send the same bytes twice.
+ */
+public class ByteRanges
+{
+    /** Clients resuming downloads ask for one range, a request for more than this is ignored. */
+    private static final int MAX_RANGES = 16;
+
+    private final long length;
+    private final List<long[]> ranges;
+
+    private ByteRanges( long length, List<long[]> ranges )
+    {
+        this.length = length;
+        this.ranges = ranges;
+    }
+
+    /**
+     * Parse a Range header for a file of the given length. Returns null if the header should be ignored, meaning the
+     * whole file should be sent, which is the case for a missing or malformed header, or one asking for too many
+     * ranges.
+     */
+    public static ByteRanges parse( String header, long length )
+    {
+        if(header == null || !header.startsWith( "bytes=" ))
+        {
+            return null;
+        }
+        String[] specs = header.substring( "bytes=".length() ).split( "," );
+        if(specs.length > MAX_RANGES)
+        {
+            return null;
+        }
+
+        List<long[]> ranges = new ArrayList<>( specs.length );
+        try
+        {
+            for ( String spec : specs )
+            {
+                spec = spec.trim();
+                int dash = spec.indexOf( '-' );
+                if(dash == -1)
+                {
+                    return null;
+                }
+
+                long start, end;
+                if(dash == 0)
+                {
+                    // Suffix range, the last n bytes
+                    long suffix = Long.parseLong( spec.substring( 1 ) );
+                    if(suffix < 0)
+                    {
+                        return null;
+                    }
+                    start = Math.max( 0, length - suffix );
+                    end = suffix == 0 ? -1 : length - 1;
+                }
+                else
+                {
+                    start = Long.parseLong( spec.substring( 0, dash ) );
+                    if(dash == spec.length() - 1)
+                    {
+                        // Open ended, the rest of the file
+                        end = length - 1;
+                    }
+                    else
+                    {
+                        end = Long.parseLong( spec.substring( dash + 1 ) );
+                        if(end < start)
+                        {
+                            return null;
+                        }
+                        end = Math.min( end, length - 1 );
+                    }
+                }
+
+                if(start < length && start <= end)
+                {
+                    ranges.add( new long[]{ start, end } );
+                }
+            }
+        }
+        catch ( NumberFormatException e )
+        {
+            return null;
+        }
+
+        return new ByteRanges( length, merge( ranges ) );
+    }
+
+    private static List<long[]> merge( List<long[]> ranges )
+    {
+        ranges.sort( ( a, b ) -> Long.compare( a[0], b[0] ) );
+        List<long[]> merged = new ArrayList<>( ranges.size() );
+        for ( long[] range : ranges )
+        {
+            long[] last = merged.isEmpty() ? null : merged.get( merged.size() - 1 );
+            if(last != null && range[0] <= last[1] + 1)
+            {
+                last[1] = Math.max( last[1], range[1] );
+            }
+            else
+            {
+                merged.add( range );
+            }
+        }
+        return merged;
+    }
+
+    /** False if none of the ranges overlap the file, which calls for a 416 response. */
+    public boolean isSatisfiable()
+    {
+        return !ranges.isEmpty();
+    }
+
+    public int count()
+    {
+        return ranges.size();
+    }
+
+    public long start( int range )
+    {
+        return ranges.get( range )[0];
+    }
+
+    /** Number of bytes in the given range. */
+    public long length( int range )
+    {
+        return ranges.get( range )[1] - ranges.get( range )[0] + 1;
+    }
+
+    /** Total number of bytes in all ranges. */
+    public long totalCount()
+    {
+        long total = 0;
+        for ( int i = 0; i < ranges.size(); i++ )
+        {
+            total += length( i );
+        }
+        return total;
+    }
+
+    /** The Content-Range header value for the given range. */
+    public String contentRange( int range )
+    {
+        return "bytes " + ranges.get( range )[0] + '-' + ranges.get( range )[1] + '/' + length;
+    }
+
+    /** The Content-Range header value for a 416 response. */
+    public String unsatisfiedRange()
+    {
+        return "bytes */" + length;
+    }
+}
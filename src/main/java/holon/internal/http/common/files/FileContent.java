@@ -1,48 +1,147 @@
 package holon.internal.http.common.files;
 
+import holon.api.exception.HolonException;
 import holon.api.http.Content;
 import holon.api.http.Output;
+import holon.internal.io.ContentEncoding;
 import holon.internal.io.ContentTypes;
-import holon.util.Digest;
+import holon.util.ContentHash;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.file.StandardOpenOption.DELETE_ON_CLOSE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
 
 /**
  * Used by the file repository to transfer static files.
  *
  * This class is single-threaded, it's expected that each backend keeps it's own repository of files - no reason to
  * use shared memory for the file handles, since that's just metadata.
+ *
+ * Text files can keep pre-compressed variants of themselves (see {@link #precompress()}), which are stored in
+ * temporary files that are removed when this content is closed.
+ *
+ * Files are reference counted, since a response may still be sending a file after it has been dropped from the
+ * repository. Opening a file takes the first reference, each response takes one of its own while it sends the file
+ * (see {@link #retain()}), and the file and its variants are closed once the last one is released.
+ *
+ * Etags are either a hash of the contents, see {@link ContentHash}, or weak etags built from the size and
+ * modification time of the file, see {@link #open(Path, boolean)}.
  */
 public class FileContent implements Content
 {
+    /** Separates the parts of multipart/byteranges responses, random so it is unlikely to turn up in a part. */
+    public static final String MULTIPART_BOUNDARY = "holon-" + Long.toHexString( new SecureRandom().nextLong() );
+
     private final Path path;
     private final FileChannel channel;
     private final String type;
     private final String etag;
+    private final ContentEncoding encoding;
+    /** Modification time of the file in millis, or 0 if not known. */
+    private final long lastModified;
+    private final Map<ContentEncoding, FileContent> variants = new EnumMap<>( ContentEncoding.class );
+
+    /** The file this is a variant of, or this file itself, which keeps count of the references to both. */
+    private final FileContent original;
+    private final AtomicInteger references = new AtomicInteger( 1 );
 
     public FileContent( Path path, FileChannel channel ) throws IOException
     {
         this.path = path;
         this.channel = channel;
         this.type = determineType(path);
-        this.etag =  '"' + (channel == null ? Digest.md5( "" ) : Digest.md5( channel )) + '"';
+        this.etag = channel == null ? ContentHash.etag( new byte[0] ) : new ContentHash().update( channel ).etag();
+        this.encoding = ContentEncoding.IDENTITY;
+        this.lastModified = Files.getLastModifiedTime( path ).toMillis();
+        this.original = this;
     }
 
     public FileContent( FileChannel channel ) throws IOException
     {
+        this( channel, channel == null ? ContentHash.etag( new byte[0] ) : new ContentHash().update( channel ).etag() );
+    }
+
+    /** For when the etag of the channel contents is already known. */
+    public FileContent( FileChannel channel, String etag )
+    {
+        this( null, channel, "text/plain", etag, ContentEncoding.IDENTITY, 0, null );
+    }
+
+    private FileContent( Path path, FileChannel channel, String type, String etag, ContentEncoding encoding,
+            long lastModified, FileContent original )
+    {
+        this.path = path;
         this.channel = channel;
-        this.type = "text/plain";
-        this.path = null;
-        this.etag = '"' + (channel == null ? Digest.md5( "" ) : Digest.md5( channel )) + '"';
+        this.type = type;
+        this.etag = etag;
+        this.encoding = encoding;
+        this.lastModified = lastModified;
+        this.original = original == null ? this : original;
+    }
+
+    /**
+     * Open a file along with its pre-compressed variants, if it is worth compressing. Content etags are hashed in the
+     * same pass that compresses the file, so a compressible file is read once; weak etags need no reads at all.
+     */
+    public static FileContent open( Path path, boolean weakEtag ) throws IOException
+    {
+        FileChannel channel = FileChannel.open( path, READ );
+        Map<ContentEncoding, FileChannel> compressed = new EnumMap<>( ContentEncoding.class );
+        try
+        {
+            String type = determineType( path );
+            ContentHash hash = weakEtag ? null : new ContentHash();
+            if(ContentTypes.isCompressible( type ))
+            {
+                compress( channel, compressed, hash );
+            }
+
+            long lastModified = Files.getLastModifiedTime( path ).toMillis();
+            String etag;
+            if(weakEtag)
+            {
+                etag = ContentHash.weakEtag( channel.size(), lastModified );
+            }
+            else
+            {
+                if(compressed.isEmpty())
+                {
+                    hash.update( channel );
+                }
+                etag = hash.etag();
+            }
+
+            FileContent content = new FileContent( path, channel, type, etag, ContentEncoding.IDENTITY, lastModified,
+                    null );
+            content.addVariants( compressed );
+            return content;
+        }
+        catch ( IOException e )
+        {
+            closeAll( compressed );
+            channel.close();
+            throw e;
+        }
     }
 
     @Override
     public void render( Output out, Object context ) throws IOException
     {
-        channel.position(0);
-        out.write( channel );
+        long size = channel.size();
+        retain();
+        out.write( channel, 0, size, this::release );
     }
 
     @Override
@@ -56,20 +155,221 @@ public class FileContent implements Content
         return etag;
     }
 
-    private String determineType( Path path )
+    /** Modification time of the file in millis, or 0 if not known. */
+    public long lastModified()
+    {
+        return lastModified;
+    }
+
+    /** Size of this file, which for a compressed variant is the size of the compressed bytes. */
+    public long size() throws IOException
+    {
+        return channel.size();
+    }
+
+    /**
+     * The given ranges of this file. A single range is sent straight from the file, like the whole file would be.
+     * Several ranges make up a multipart/byteranges body, see {@link #MULTIPART_BOUNDARY}, which is built in memory.
+     */
+    public Content ranges( ByteRanges ranges )
+    {
+        return new Content()
+        {
+            @Override
+            public void render( Output out, Object context ) throws IOException
+            {
+                if(ranges.count() == 1)
+                {
+                    retain();
+                    out.write( channel, ranges.start( 0 ), ranges.length( 0 ), FileContent.this::release );
+                }
+                else
+                {
+                    out.write( ByteBuffer.wrap( multipart( ranges ) ), () -> {} );
+                }
+            }
+
+            @Override
+            public String contentType( Object context )
+            {
+                return ranges.count() == 1 ? type : "multipart/byteranges; boundary=" + MULTIPART_BOUNDARY;
+            }
+        };
+    }
+
+    private byte[] multipart( ByteRanges ranges ) throws IOException
+    {
+        ByteArrayOutputStream body = new ByteArrayOutputStream( (int) Math.min( Integer.MAX_VALUE,
+                ranges.totalCount() + ranges.count() * 128L ) );
+        for ( int i = 0; i < ranges.count(); i++ )
+        {
+            body.write( ("\r\n--" + MULTIPART_BOUNDARY + "\r\n"
+                         + "Content-Type: " + type + "\r\n"
+                         + "Content-Range: " + ranges.contentRange( i ) + "\r\n\r\n").getBytes( US_ASCII ) );
+            ByteBuffer part = ByteBuffer.allocate( (int) ranges.length( i ) );
+            while(part.hasRemaining() && channel.read( part, ranges.start( i ) + part.position() ) != -1)
+            {
+                // Keep reading until the range is in
+            }
+            body.write( part.array(), 0, part.position() );
+        }
+        body.write( ("\r\n--" + MULTIPART_BOUNDARY + "--\r\n").getBytes( US_ASCII ) );
+        return body.toByteArray();
+    }
+
+    /** The encoding of the bytes in this file, see {@link #encodedAs(ContentEncoding)}. */
+    public ContentEncoding encoding()
+    {
+        return encoding;
+    }
+
+    /** True if this file has pre-compressed variants, meaning responses vary depending on Accept-Encoding. */
+    public boolean hasVariants()
+    {
+        return variants.size() > 0;
+    }
+
+    /**
+     * Get a variant of this file encoded with the specified encoding. If there is no such variant, this returns the
+     * original file.
+     */
+    public FileContent encodedAs( ContentEncoding encoding )
+    {
+        FileContent variant = variants.get( encoding );
+        return variant == null ? this : variant;
+    }
+
+    /**
+     * Create compressed variants of this file, if its content type is one that is worth compressing. Each variant
+     * gets its own etag, as required for different representations of the same resource.
+     */
+    public FileContent precompress() throws IOException
+    {
+        if(channel == null || encoding != ContentEncoding.IDENTITY || !ContentTypes.isCompressible( type ))
+        {
+            return this;
+        }
+
+        Map<ContentEncoding, FileChannel> compressed = new EnumMap<>( ContentEncoding.class );
+        try
+        {
+            compress( channel, compressed, null );
+        }
+        catch ( IOException e )
+        {
+            closeAll( compressed );
+            throw e;
+        }
+        addVariants( compressed );
+        return this;
+    }
+
+    /** Write each compressed variant of the source to a temporary file, feeding the hash, if any, on the way. */
+    private static void compress( FileChannel source, Map<ContentEncoding, FileChannel> variants, ContentHash hash )
+            throws IOException
+    {
+        for ( ContentEncoding compressed : ContentEncoding.COMPRESSED )
+        {
+            Path variantPath = Files.createTempFile( "holon", "." + compressed.headerValue() );
+            FileChannel variantChannel = FileChannel.open( variantPath, READ, WRITE, DELETE_ON_CLOSE );
+            variants.put( compressed, variantChannel );
+            // The source only needs hashing once
+            compressed.encode( source, variantChannel, variants.size() == 1 ? hash : null );
+        }
+    }
+
+    private void addVariants( Map<ContentEncoding, FileChannel> channels )
+    {
+        for ( Map.Entry<ContentEncoding, FileChannel> variant : channels.entrySet() )
+        {
+            ContentEncoding encoding = variant.getKey();
+            variants.put( encoding, new FileContent( path, variant.getValue(), type,
+                    variantEtag( etag, encoding ), encoding, lastModified, this ) );
+        }
+    }
+
+    private static void closeAll( Map<ContentEncoding, FileChannel> channels ) throws IOException
+    {
+        for ( FileChannel channel : channels.values() )
+        {
+            channel.close();
+        }
+    }
+
+    private static String determineType( Path path )
     {
         String[] split = path.toUri().getRawPath().split( "\\." );
         return ContentTypes.contentTypeForSuffix( split[split.length-1] );
     }
 
-    public void close() throws IOException
+    /**
+     * Take another reference to this file, keeping it and its variants open until it is released, or return false
+     * if the file has already been closed.
+     */
+    public boolean retain()
+    {
+        AtomicInteger references = original.references;
+        int count;
+        do
+        {
+            count = references.get();
+            if(count == 0)
+            {
+                return false;
+            }
+        }
+        while(!references.compareAndSet( count, count + 1 ));
+        return true;
+    }
+
+    /** Let go of a reference, the file and its variants are closed along with the last one. */
+    public void release()
+    {
+        if(original.references.decrementAndGet() == 0)
+        {
+            try
+            {
+                original.closeChannels();
+            }
+            catch ( IOException e )
+            {
+                throw new HolonException( "Failed to close static file: '" + path + "'.", e );
+            }
+        }
+    }
+
+    /** Let go of the reference taken when this file was opened, see {@link #release()}. */
+    public void close()
+    {
+        release();
+    }
+
+    private void closeChannels() throws IOException
     {
+        for ( FileContent variant : variants.values() )
+        {
+            variant.channel.close();
+        }
         channel.close();
     }
 
     @Override
     public String toString()
     {
-        return String.format("FileContent['%s', %s]", path, type);
+        return String.format("FileContent['%s', %s, %s]", path, type, encoding.headerValue());
+    }
+
+    /** Derive the etag of an encoded variant from the etag of the original, eg. "abc" -> "abc-gzip". */
+    public static String variantEtag( String etag, ContentEncoding encoding )
+    {
+        if(encoding == ContentEncoding.IDENTITY)
+        {
+            return etag;
+        }
+        if(etag.endsWith( "\"" ))
+        {
+            return etag.substring( 0, etag.length() - 1 ) + '-' + encoding.headerValue() + '"';
+        }
+        return etag + '-' + encoding.headerValue();
     }
 }
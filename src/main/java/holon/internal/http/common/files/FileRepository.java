@@ -6,92 +6,350 @@ import holon.util.io.FileSystemWatcher;
 import holon.util.scheduling.Scheduler;
 
 import java.io.IOException;
-import java.nio.channels.FileChannel;
 import java.nio.file.FileSystem;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
 import java.nio.file.WatchEvent;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Keeps a fixed amount of file handles open - files will be removed from the repo according to an LRU strategy, or
- * if the files are change or are removed on disk.
+ * Serves files from a public directory to any number of threads.
+ *
+ * An index of every file in the directory is built up front and kept up to date from file system events, so telling
+ * whether an indexed path is a static file costs no system call. The watcher lags behind the file system, so a path
+ * that is not in the index is checked on disk once, and then remembered as missing for a while, see {@link #MISS_TTL}.
+ * Open file handles are kept in a fixed amount of LRU maps,
+ * each guarded by its own lock, so that threads serving different files rarely contend. When a file changes or is
+ * removed on disk, only its own handle is dropped. Handles are reference counted, so a dropped handle stays open until
+ * the responses still sending it are done, see {@link FileContent#retain()}.
  */
 public class FileRepository implements FileSystemWatcher.FSEventHandler
 {
+    /** Must be a power of two. */
+    private static final int HANDLE_SHARDS = 16;
+    private static final int HANDLES_PER_SHARD = 64;
+
+    /**
+     * The watcher lags behind the file system, so a path not in the index is looked for on disk once, in case it was
+     * just created, and then remembered as missing for this long, or until the watcher tells us it was created. The
+     * least recently missed paths are forgotten first when a shard of misses fills up.
+     */
+    private static final long MISS_TTL = TimeUnit.SECONDS.toNanos( 5 );
+    private static final int MISSES_PER_SHARD = 1024;
+
     private final Path basePath;
+    private final boolean weakEtags;
 
-    /** Cached file handles */
-    private final LRUMap<String, FileContent> openFiles = new LRUMap<>( 1024, 1.0f, ( p, f ) ->
-    {
-        try
-        {
-            f.close();
-        }
-        catch ( IOException e )
-        {
-            throw new HolonException( "Failed to close static file.", e );
-        }
-    });
+    /** Request paths, like "/css/site.css", of all regular files in the public directory. */
+    private final Set<String> index = ConcurrentHashMap.newKeySet();
+
+    /** Request paths known not to exist, mapped to when that was checked, sharded like the handles. */
+    private final LRUMap<String, Long>[] misses;
+
+    /** Bumped whenever a file is added to or removed from the index. */
+    private final AtomicLong version = new AtomicLong();
+
+    /** Cached file handles, sharded on request path. */
+    private final LRUMap<String, FileContent>[] openFiles;
 
     /**
-     * File events come from a separate thread, and the openFiles map is owned by the thread that created this
-     * file repo, meaning the event thread is not allowed to manipulate it. Instead, it signals through this boolean
-     * that files have changed on disk.
+     * Bumped whenever a handle is dropped from the shard at the same index, guarded by that shard. A handle opened
+     * while its shard moved on may have been opened before the file changed, and is not cached.
      */
-    private volatile boolean filesHaveChangedOnDisk = false;
+    private final long[] generations = new long[HANDLE_SHARDS];
 
     public FileRepository( Path basePath, FileSystem fs, Scheduler scheduler )
+    {
+        this( basePath, fs, scheduler, false );
+    }
+
+    /** With weak etags, files are identified by their size and modification time rather than hashed on first use. */
+    @SuppressWarnings( "unchecked" )
+    public FileRepository( Path basePath, FileSystem fs, Scheduler scheduler, boolean weakEtags )
     {
         this.basePath = basePath.normalize();
+        this.weakEtags = weakEtags;
+        this.openFiles = new LRUMap[HANDLE_SHARDS];
+        this.misses = new LRUMap[HANDLE_SHARDS];
+        for ( int i = 0; i < HANDLE_SHARDS; i++ )
+        {
+            openFiles[i] = new LRUMap<>( HANDLES_PER_SHARD, 1.0f, ( p, f ) -> f.close() );
+            misses[i] = new LRUMap<>( MISSES_PER_SHARD, 1.0f, ( p, t ) -> {} );
+        }
+        indexAll( this.basePath );
         scheduler.schedule( new FileSystemWatcher(fs, basePath, this) );
     }
 
     public boolean contains( String path )
     {
-        if(openFiles.containsKey( path ))
+        if(index.contains( path ))
         {
             return true;
         }
-        else
-        {
-            Path normalized = normalizedPath( path );
-            return normalized.startsWith( basePath ) && Files.exists( normalized );
-        }
+        String key = key( path );
+        return key != null && isIndexed( key );
     }
 
+    /**
+     * Changes whenever the set of files in the repository may have changed, such that callers can remember what
+     * {@link #contains(String)} said about a path until it does.
+     */
+    public long version()
+    {
+        return version.get();
+    }
+
+    /**
+     * The file at the given request path, or null if there is no such file. The file comes with a reference taken for
+     * the caller, who must {@link FileContent#release() release} it when done.
+     */
     public FileContent get( String path )
     {
-        if(filesHaveChangedOnDisk)
+        String key = index.contains( path ) ? path : key( path );
+        if(key == null || !isIndexed( key ))
         {
-            openFiles.clear();
+            return null;
         }
 
-        FileContent content = openFiles.get( path );
-        if( content == null )
+        int shardIndex = shardIndex( key );
+        LRUMap<String, FileContent> shard = openFiles[shardIndex];
+        for ( int attempt = 0; ; attempt++ )
         {
+            long generation;
+            synchronized ( shard )
+            {
+                // Handles are only closed through the shard, so one that is in it can always be retained
+                FileContent cached = shard.get( key );
+                if(cached != null)
+                {
+                    cached.retain();
+                    return cached;
+                }
+                generation = generations[shardIndex];
+            }
+
+            // Opened outside of the lock, the first open of a file hashes and compresses it, which may take a while
+            FileContent content;
             try
             {
-                Path normalized = normalizedPath( path );
-                content = new FileContent( normalized, FileChannel.open( normalized, StandardOpenOption.READ ) );
-                openFiles.put( path, content );
+                content = FileContent.open( basePath.resolve( key.substring( 1 ) ), weakEtags );
+            }
+            catch ( NoSuchFileException e )
+            {
+                // Removed since we indexed it, the watcher will tell us shortly
+                index.remove( key );
+                version.incrementAndGet();
+                return null;
             }
             catch ( IOException e )
             {
                 throw new HolonException( "Failed to open static file: '" + path + "'.", e );
             }
+
+            synchronized ( shard )
+            {
+                FileContent existing = shard.get( key );
+                if(existing != null)
+                {
+                    // Another thread opened it at the same time
+                    content.close();
+                    existing.retain();
+                    return existing;
+                }
+                if(generations[shardIndex] == generation)
+                {
+                    shard.put( key, content );
+                    content.retain();
+                    return content;
+                }
+            }
+
+            // A file in this shard changed while we opened it, it may have been this one, so what we opened may be
+            // stale. Open it again, and if it keeps changing, serve what we opened without caching it, the reference
+            // taken when it was opened becomes the caller's.
+            if(attempt > 0)
+            {
+                return content;
+            }
+            content.close();
+        }
+    }
+
+    @Override
+    public void onFileEvent( WatchEvent.Kind kind, Path path )
+    {
+        if(kind == StandardWatchEventKinds.OVERFLOW || path == null)
+        {
+            // Events were lost, start over
+            index.forEach( this::dropHandle );
+            index.clear();
+            for ( LRUMap<String, Long> missShard : misses )
+            {
+                synchronized ( missShard )
+                {
+                    missShard.clear();
+                }
+            }
+            indexAll( basePath );
+            version.incrementAndGet();
+            return;
+        }
+
+        String key = key( path );
+        if(key == null)
+        {
+            return;
+        }
+
+        if(kind == StandardWatchEventKinds.ENTRY_DELETE)
+        {
+            // May have been a directory, in which case everything below it is gone as well
+            index.removeIf( p -> p.equals( key ) || p.startsWith( key + "/" ) );
+        }
+        else if(kind == StandardWatchEventKinds.ENTRY_CREATE)
+        {
+            indexAll( basePath.resolve( path ) );
+        }
+        dropHandle( key );
+
+        if(kind != StandardWatchEventKinds.ENTRY_MODIFY)
+        {
+            // Bumped after the index has changed, so anything remembered from before the change is forgotten
+            version.incrementAndGet();
+        }
+    }
+
+    private boolean isIndexed( String key )
+    {
+        if(index.contains( key ))
+        {
+            return true;
+        }
+
+        long now = System.nanoTime();
+        LRUMap<String, Long> missShard = shard( misses, key );
+        synchronized ( missShard )
+        {
+            Long checkedAt = missShard.get( key );
+            if(checkedAt != null && now - checkedAt < MISS_TTL)
+            {
+                return false;
+            }
         }
-        return content;
+
+        if(Files.isRegularFile( basePath.resolve( key.substring( 1 ) ) ))
+        {
+            forgetMiss( key );
+            index.add( key );
+            version.incrementAndGet();
+            return true;
+        }
+
+        synchronized ( missShard )
+        {
+            missShard.put( key, now );
+        }
+        return false;
     }
 
-    private Path normalizedPath( String path )
+    private void forgetMiss( String key )
     {
-        return basePath.resolve( path.substring( 1 ) ).normalize();
+        LRUMap<String, Long> missShard = shard( misses, key );
+        synchronized ( missShard )
+        {
+            missShard.remove( key );
+        }
     }
 
-    @Override
-    public void onFileEvent( WatchEvent.Kind kind, Path path )
+    private void dropHandle( String key )
+    {
+        forgetMiss( key );
+        int shardIndex = shardIndex( key );
+        LRUMap<String, FileContent> shard = openFiles[shardIndex];
+        synchronized ( shard )
+        {
+            generations[shardIndex]++;
+            shard.remove( key );
+        }
+    }
+
+    private void indexAll( Path start )
+    {
+        try
+        {
+            Files.walkFileTree( start, EnumSet.of( FileVisitOption.FOLLOW_LINKS ), Integer.MAX_VALUE,
+                    new SimpleFileVisitor<Path>()
+            {
+                @Override
+                public FileVisitResult visitFile( Path file, BasicFileAttributes attrs )
+                {
+                    if(attrs.isRegularFile())
+                    {
+                        String key = key( basePath.relativize( file ) );
+                        index.add( key );
+                        forgetMiss( key );
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed( Path file, IOException e )
+                {
+                    // Removed while we were walking, or a link loop
+                    return FileVisitResult.CONTINUE;
+                }
+            } );
+        }
+        catch ( NoSuchFileException e )
+        {
+            // Nothing to index
+        }
+        catch ( IOException e )
+        {
+            throw new HolonException( "Failed to index static files in '" + start + "'.", e );
+        }
+    }
+
+    /** The canonical request path for a requested one, or null if it points outside of the public directory. */
+    private String key( String path )
+    {
+        Path normalized = basePath.resolve( path.substring( 1 ) ).normalize();
+        return normalized.startsWith( basePath ) ? key( basePath.relativize( normalized ) ) : null;
+    }
+
+    /** The request path for a path relative to the public directory. */
+    private String key( Path relative )
+    {
+        if(relative.isAbsolute() || relative.startsWith( ".." ))
+        {
+            return null;
+        }
+        StringBuilder key = new StringBuilder();
+        for ( Path name : relative )
+        {
+            key.append( '/' ).append( name.toString() );
+        }
+        return key.length() == 0 ? "/" : key.toString();
+    }
+
+    private static <V> LRUMap<String, V> shard( LRUMap<String, V>[] shards, String key )
+    {
+        return shards[shardIndex( key )];
+    }
+
+    private static int shardIndex( String key )
     {
-        filesHaveChangedOnDisk = true;
+        int hash = key.hashCode();
+        return (hash ^ (hash >>> 16)) & (HANDLE_SHARDS - 1);
     }
 }
@@ -0,0 +1,23 @@
+package holon.internal.http.netty;
+
+import io.netty.handler.codec.http.HttpContentCompressor;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+
+/**
+ * Compresses responses like netty's own compressor, except partial content. The Content-Range of a 206 response
+ * refers to the bytes as they are stored, so compressing just the requested range would hand the client bytes it
+ * cannot put together.
+ */
+public class NettyContentCompressor extends HttpContentCompressor
+{
+    @Override
+    protected Result beginEncode( HttpResponse headers, String acceptEncoding ) throws Exception
+    {
+        if(headers.getStatus().code() == HttpResponseStatus.PARTIAL_CONTENT.code())
+        {
+            return null;
+        }
+        return super.beginEncode( headers, acceptEncoding );
+    }
+}
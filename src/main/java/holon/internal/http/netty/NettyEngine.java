@@ -26,35 +26,62 @@ import holon.Holon;
 import holon.api.config.Config;
 import holon.api.exception.HolonException;
 import holon.api.logging.Logging;
+import holon.internal.http.netty.work.EventLoopDispatcher;
 import holon.internal.http.netty.work.NettyWorkEvent;
 import holon.internal.http.netty.work.NettyWorkHandler;
+import holon.internal.http.netty.work.RequestDispatcher;
+import holon.internal.http.netty.work.RingBufferDispatcher;
 import holon.spi.HolonEngine;
 import holon.spi.Route;
 import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
-import io.netty.handler.codec.http.HttpContentCompressor;
 import io.netty.handler.codec.http.HttpRequestDecoder;
 import io.netty.handler.codec.http.HttpResponseEncoder;
+import io.netty.handler.stream.ChunkedWriteHandler;
 
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.internal.PlatformDependent;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import java.util.function.Supplier;
 
 public class NettyEngine implements HolonEngine
 {
+    private static final String DISPATCH_SHARED = "shared";
+    private static final String DISPATCH_EVENT_LOOP = "event_loop";
+    private static final String TRANSPORT_NIO = "nio";
+    private static final String TRANSPORT_EPOLL = "epoll";
+    private static final int RING_SIZE = 1024;
+
     private final Logging.Logger logger;
     private final int httpPort;
     private final int workers;
+    private final String dispatchMode;
+    private final boolean epoll;
+    private final int acceptors;
+    private final ResponseSizes responseSizes = new ResponseSizes();
 
     private volatile boolean running = false;
     private ExecutorService executor;
-    private Disruptor<NettyWorkEvent> disruptor;
+    private final List<Disruptor<NettyWorkEvent>> disruptors = new ArrayList<>();
     private EventLoopGroup bossGroup;
     private EventLoopGroup workerGroup;
 
@@ -63,6 +90,57 @@ public class NettyEngine implements HolonEngine
         this.logger = logger;
         this.workers = config.get(Holon.Configuration.workers);
         this.httpPort = config.get( Holon.Configuration.http_port );
+        this.dispatchMode = config.get( Holon.Configuration.http_dispatch );
+        if(!dispatchMode.equals( DISPATCH_SHARED ) && !dispatchMode.equals( DISPATCH_EVENT_LOOP ))
+        {
+            throw new HolonException( "Unknown dispatch mode '" + dispatchMode + "', expected '" + DISPATCH_SHARED +
+                    "' or '" + DISPATCH_EVENT_LOOP + "'." );
+        }
+        this.epoll = useEpoll( config.get( Holon.Configuration.http_transport ) );
+        this.acceptors = acceptors( config.get( Holon.Configuration.http_acceptors ) );
+    }
+
+    private boolean useEpoll( String transport )
+    {
+        if(transport.equals( TRANSPORT_NIO ))
+        {
+            return false;
+        }
+        if(!transport.equals( TRANSPORT_EPOLL ))
+        {
+            throw new HolonException( "Unknown transport '" + transport + "', expected '" + TRANSPORT_NIO +
+                    "' or '" + TRANSPORT_EPOLL + "'." );
+        }
+        if(!Epoll.isAvailable())
+        {
+            logger.warn( "Native epoll transport is not available, falling back to nio.",
+                    Epoll.unavailabilityCause() );
+            return false;
+        }
+        if(!PlatformDependent.hasUnsafe())
+        {
+            // Netty then hands out heap buffers for socket reads, which the native transport cannot read into
+            logger.warn( "Native epoll transport needs direct buffer access, which netty does not have on this JVM, " +
+                    "falling back to nio." );
+            return false;
+        }
+        return true;
+    }
+
+    /** Whether the native epoll transport can be used on this machine and JVM, see {@link #useEpoll(String)}. */
+    public static boolean epollUsable()
+    {
+        return Epoll.isAvailable() && PlatformDependent.hasUnsafe();
+    }
+
+    private int acceptors( int configured )
+    {
+        if(configured > 1 && !epoll)
+        {
+            logger.warn( "Multiple acceptors require the epoll transport, using a single acceptor." );
+            return 1;
+        }
+        return Math.max( 1, configured );
     }
 
     @Override
@@ -71,23 +149,41 @@ public class NettyEngine implements HolonEngine
         running = true;
         executor = Executors.newCachedThreadPool();
 
-        disruptor = new Disruptor<>( NettyWorkEvent::new, 1024, executor );
-        disruptor.handleEventsWithWorkerPool( createWorkers( workers, routes ) );
-        disruptor.start();
-
-        RingBuffer<NettyWorkEvent> ringBuffer = disruptor.getRingBuffer();
+        Class<? extends ServerChannel> serverChannel;
+        if(epoll)
+        {
+            bossGroup = new EpollEventLoopGroup( acceptors );
+            workerGroup = new EpollEventLoopGroup();
+            serverChannel = EpollServerSocketChannel.class;
+        }
+        else
+        {
+            bossGroup = new NioEventLoopGroup(1);
+            workerGroup = new NioEventLoopGroup();
+            serverChannel = NioServerSocketChannel.class;
+        }
 
-        bossGroup = new NioEventLoopGroup(1);
-        workerGroup = new NioEventLoopGroup();
+        Function<Channel, RequestDispatcher> dispatchers = dispatchMode.equals( DISPATCH_EVENT_LOOP )
+                ? eventLoopDispatchers( routes )
+                : sharedDispatcher( routes );
 
         ServerBootstrap b = new ServerBootstrap();
         b.group( bossGroup, workerGroup );
-        b.channel( NioServerSocketChannel.class );
-        b.childHandler(new Initializer(ringBuffer));
+        b.channel( serverChannel );
+        b.childHandler(new Initializer(dispatchers));
+        if(acceptors > 1)
+        {
+            b.option( EpollChannelOption.SO_REUSEPORT, true );
+        }
 
         try
         {
-            b.bind(httpPort).sync();
+            // Each bind creates a listening socket on the next boss thread, with SO_REUSEPORT the kernel balances
+            // new connections between them.
+            for ( int i = 0; i < acceptors; i++ )
+            {
+                b.bind(httpPort).sync();
+            }
         }
         catch ( InterruptedException e )
         {
@@ -96,14 +192,59 @@ public class NettyEngine implements HolonEngine
 
     }
 
-    private WorkHandler<NettyWorkEvent>[] createWorkers( int count, Supplier<Iterable<Route>> routes )
+    /** All event loops publish to one ring buffer, served by a single pool of workers. */
+    private Function<Channel, RequestDispatcher> sharedDispatcher( Supplier<Iterable<Route>> routes )
+    {
+        RequestDispatcher dispatcher = new RingBufferDispatcher(
+                startWorkers( NettyWorkHandler.createWorkers( workers, routes, responseSizes, logger ) ) );
+        return ( ch ) -> dispatcher;
+    }
+
+    /**
+     * Each event loop routes its own requests. The routes are built once, and shared by all event loops and workers,
+     * rather than each building its own, which for static files means a file index and watcher each. The configured
+     * number of workers is split as evenly as it goes over one ring buffer per event loop, or, with fewer workers than
+     * event loops, over one per worker, each shared by several event loops.
+     */
+    private Function<Channel, RequestDispatcher> eventLoopDispatchers( Supplier<Iterable<Route>> routes )
     {
-        WorkHandler[] handlers = new WorkHandler[count];
-        for ( int i = 0; i < count; i++ )
+        List<EventExecutor> eventLoops = new ArrayList<>();
+        workerGroup.iterator().forEachRemaining( eventLoops::add );
+
+        List<Route> shared = new ArrayList<>();
+        routes.get().forEach( shared::add );
+
+        int total = Math.max( 1, workers );
+        int rings = Math.min( eventLoops.size(), total );
+        List<RingBuffer<NettyWorkEvent>> ringBuffers = new ArrayList<>();
+        for ( int i = 0; i < rings; i++ )
         {
-            handlers[i] = new NettyWorkHandler(routes);
+            int ringWorkers = total / rings + (i < total % rings ? 1 : 0);
+            ringBuffers.add( startWorkers(
+                    NettyWorkHandler.createWorkers( ringWorkers, () -> shared, responseSizes, logger ) ) );
         }
-        return handlers;
+
+        Map<EventExecutor, EventLoopDispatcher> dispatchers = new HashMap<>();
+        for ( int i = 0; i < eventLoops.size(); i++ )
+        {
+            dispatchers.put( eventLoops.get( i ),
+                    new EventLoopDispatcher( shared, ringBuffers.get( i % rings ), responseSizes, logger ) );
+        }
+        return ( ch ) -> dispatchers.get( ch.eventLoop() );
+    }
+
+    private RingBuffer<NettyWorkEvent> startWorkers( WorkHandler<NettyWorkEvent>[] workers )
+    {
+        Disruptor<NettyWorkEvent> disruptor = new Disruptor<>( NettyWorkEvent::new, RING_SIZE, executor );
+        disruptor.handleEventsWithWorkerPool( workers );
+        disruptors.add( disruptor );
+        return disruptor.start();
+    }
+
+    /** How large response bodies are expected to be, by the kind of content rendering them. */
+    public ResponseSizes responseSizes()
+    {
+        return responseSizes;
     }
 
     @Override
@@ -119,11 +260,8 @@ public class NettyEngine implements HolonEngine
         {
             // swallow
         }
-        if(disruptor != null)
-        {
-            disruptor.shutdown();
-            disruptor = null;
-        }
+        disruptors.forEach( Disruptor::shutdown );
+        disruptors.clear();
         if( executor != null)
         {
             executor.shutdown();
@@ -150,11 +288,11 @@ public class NettyEngine implements HolonEngine
 
     private final static class Initializer extends ChannelInitializer<SocketChannel>
     {
-        private final RingBuffer<NettyWorkEvent> ringBuffer;
+        private final Function<Channel, RequestDispatcher> dispatchers;
 
-        public Initializer( RingBuffer<NettyWorkEvent> ringBuffer )
+        public Initializer( Function<Channel, RequestDispatcher> dispatchers )
         {
-            this.ringBuffer = ringBuffer;
+            this.dispatchers = dispatchers;
         }
 
         @Override
@@ -165,9 +303,12 @@ public class NettyEngine implements HolonEngine
             pipeline.addLast( new HttpRequestDecoder() );
             pipeline.addLast( new HttpResponseEncoder() );
 
-            pipeline.addLast( new HttpContentCompressor() );
+            pipeline.addLast( new NettyContentCompressor() );
+
+            // Streams file responses that need to pass through the compressor, see NettyRequestContext
+            pipeline.addLast( new ChunkedWriteHandler() );
 
-            pipeline.addLast( new NettyServerHandler(ringBuffer) );
+            pipeline.addLast( new NettyServerHandler(dispatchers.apply( ch )) );
         }
     }
 }
@@ -19,55 +19,370 @@
  */
 package holon.internal.http.netty;
 
+import holon.api.exception.HolonException;
 import holon.api.http.Output;
+import holon.internal.io.ByteBufWriter;
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledDirectByteBuf;
 import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.LastHttpContent;
 
 import java.io.IOException;
-import java.io.OutputStreamWriter;
+import java.io.OutputStream;
 import java.io.Writer;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
-import java.nio.charset.Charset;
+import java.util.function.Supplier;
 
+/**
+ * Collects the body of a response. Written text is encoded straight into a pooled buffer by a writer that is reused
+ * for every response, see {@link ByteBufWriter}, and written bytes are copied into the same buffer, while files are
+ * not read at all - we just hold on to the file channel, and leave it to the request context to stream it straight
+ * from the OS file cache to the socket. Borrowed direct buffers, such as slices of a memory-mapped cache, are sent as
+ * they are, and handed back to their owner once netty has released them.
+ *
+ * Streamed bodies are collected in chunks instead. Once the first chunk is full, the response headers are sent, and
+ * from then on each chunk is sent as soon as it fills up. Bodies that fit in one chunk never start streaming, and are
+ * sent like any other buffer.
+ *
+ * Text buffers, and the first chunk of a stream, start at the size the request context expects the body to be, see
+ * {@link ResponseSizes}, so that they rarely need to grow while being written.
+ */
 public class NettyOutput implements Output
 {
-    private final Charset UTF_8 = Charset.forName( "UTF-8" );
+    private static final int STREAM_CHUNK_SIZE = 1024 * 16;
+
+    private final BodyWriter writer = new BodyWriter();
+    private final BodyStream bytes = new BodyStream();
 
     private Channel channel;
+    private Supplier<HttpResponse> streamingResponse;
+    private int bufferSize;
+    private ChunkedBody stream;
     private ByteBuf buffer;
+    private FileChannel file;
+    private long filePosition;
+    private long fileCount;
+    private Runnable fileSent;
 
     @Override
     public Writer asWriter()
     {
-        buffer = channel.alloc().buffer();
-        return new OutputStreamWriter( new ByteBufOutputStream( buffer ), UTF_8 );
+        discardBody();
+        buffer = channel.alloc().buffer( bufferSize );
+        return writer.initialize( buffer );
+    }
+
+    @Override
+    public Writer asStreamingWriter()
+    {
+        if(streamingResponse == null)
+        {
+            return asWriter();
+        }
+        discardBody();
+        stream = new ChunkedBody();
+        return writer.initialize( stream.chunk );
+    }
+
+    @Override
+    public OutputStream asStreamingOutputStream()
+    {
+        // Bytes go wherever text would, the writer keeps track of where that is
+        asStreamingWriter();
+        return bytes;
     }
 
     @Override
     public void write( FileChannel channel ) throws IOException
     {
-        int size = (int) channel.size();
-        ByteBuffer bb = ByteBuffer.allocateDirect( size );
-        while(bb.position() < bb.capacity())
+        write( channel, 0, channel.size() );
+    }
+
+    @Override
+    public void write( FileChannel channel, long position, long count )
+    {
+        write( channel, position, count, () -> {} );
+    }
+
+    @Override
+    public void write( FileChannel channel, long position, long count, Runnable onSent )
+    {
+        discardBody();
+        file = channel;
+        filePosition = position;
+        fileCount = count;
+        fileSent = onSent;
+    }
+
+    @Override
+    public void write( ByteBuffer buffer, Runnable onSent )
+    {
+        discardBody();
+        if(buffer.isDirect())
         {
-            channel.read( bb );
+            this.buffer = new BorrowedByteBuf( channel.alloc(), buffer, onSent );
+        }
+        else
+        {
+            this.buffer = Unpooled.copiedBuffer( buffer.duplicate() );
+            onSent.run();
         }
-        bb.position(0);
-        buffer = Unpooled.wrappedBuffer(bb);
     }
 
     public NettyOutput initialize( Channel channel )
+    {
+        return initialize( channel, null, ResponseSizes.DEFAULT_SIZE );
+    }
+
+    /**
+     * @param streamingResponse the response headers to send ahead of a streamed body, or null if the body may not be
+     *                          streamed, in which case streamed bodies are buffered like any other
+     * @param bufferSize the size to allocate buffers for written text at
+     */
+    public NettyOutput initialize( Channel channel, Supplier<HttpResponse> streamingResponse, int bufferSize )
     {
         this.channel = channel;
+        this.streamingResponse = streamingResponse;
+        this.bufferSize = bufferSize;
+        this.stream = null;
         this.buffer = Unpooled.EMPTY_BUFFER;
+        dropFile();
+        this.writer.initialize( null );
         return this;
     }
 
+    /**
+     * True if a streamed body has started going out, in which case the headers have been sent, and the rest of it
+     * must be sent with {@link #finishStream()}.
+     */
+    public boolean isStreaming()
+    {
+        return stream != null && stream.headersSent;
+    }
+
+    /** Send the last of a streamed body, and return the future of the final write. */
+    public ChannelFuture finishStream()
+    {
+        ChunkedBody body = stream;
+        stream = null;
+        writer.initialize( null );
+        if(body.chunk.isReadable())
+        {
+            channel.write( new DefaultHttpContent( body.chunk ) );
+        }
+        else
+        {
+            body.chunk.release();
+        }
+        return channel.write( LastHttpContent.EMPTY_LAST_CONTENT );
+    }
+
+    /** Give up on a streamed body that failed half way, the client has part of it, so all we can do is hang up. */
+    public ChannelFuture abortStream()
+    {
+        stream.chunk.release();
+        stream = null;
+        writer.initialize( null );
+        return channel.close();
+    }
+
+    /**
+     * Number of bytes written to the body through the writer or stream so far, or -1 if the body was not written that
+     * way.
+     */
+    public int textSize()
+    {
+        if(stream != null)
+        {
+            return stream.sent + stream.chunk.readableBytes();
+        }
+        return writer.target() == buffer ? buffer.readableBytes() : -1;
+    }
+
+    /** True if the body is a file, in which case {@link #file()} should be sent rather than {@link #buffer()}. */
+    public boolean isFile()
+    {
+        return file != null;
+    }
+
+    public FileChannel file()
+    {
+        return file;
+    }
+
+    /** Where in {@link #file()} the body starts. */
+    public long filePosition()
+    {
+        return filePosition;
+    }
+
+    /** Number of bytes of {@link #file()} in the body. */
+    public long fileCount()
+    {
+        return fileCount;
+    }
+
+    /**
+     * Hand the file off to be sent, after which this output forgets about it. The returned callback must be run once
+     * the file has been sent, or has failed to.
+     */
+    public Runnable sendFile()
+    {
+        Runnable onSent = fileSent;
+        file = null;
+        fileSent = null;
+        return onSent;
+    }
+
     public ByteBuf buffer()
     {
+        // The buffer is on its way out, anything written to it from here on would corrupt the response
+        writer.initialize( null );
+        if(stream != null)
+        {
+            // A streamed body small enough to never have started streaming
+            buffer = stream.chunk;
+            stream = null;
+        }
         return buffer;
     }
+
+    private void discardBody()
+    {
+        if(stream != null)
+        {
+            if(stream.headersSent)
+            {
+                throw new HolonException( "Cannot replace a response body that has already started streaming." );
+            }
+            stream.chunk.release();
+            stream = null;
+        }
+        if(buffer != null)
+        {
+            buffer.release();
+            buffer = Unpooled.EMPTY_BUFFER;
+        }
+        dropFile();
+        writer.initialize( null );
+    }
+
+    /** Forget about a file that is not going to be sent after all, letting its owner know. */
+    private void dropFile()
+    {
+        if(file != null)
+        {
+            sendFile().run();
+        }
+    }
+
+    /**
+     * Writes text into the body, and sends the chunk it is writing to once it fills up, if the body is streamed. Once
+     * the body has been handed off, the writer is detached from it, so that stale references to it write nothing.
+     */
+    private final class BodyWriter extends ByteBufWriter
+    {
+        @Override
+        protected void written() throws IOException
+        {
+            if(stream != null && stream.chunk.writerIndex() >= STREAM_CHUNK_SIZE)
+            {
+                stream.sendChunk();
+                target( stream.chunk );
+            }
+        }
+    }
+
+    /** Writes bytes into whatever buffer the writer is writing to, and has it send chunks as they fill up. */
+    private final class BodyStream extends OutputStream
+    {
+        @Override
+        public void write( int b ) throws IOException
+        {
+            ByteBuf target = writer.target();
+            if(target != null)
+            {
+                target.writeByte( b );
+                writer.written();
+            }
+        }
+
+        @Override
+        public void write( byte[] bytes, int offset, int length ) throws IOException
+        {
+            ByteBuf target;
+            while(length > 0 && (target = writer.target()) != null)
+            {
+                int count = stream == null ? length
+                        : Math.min( length, Math.max( 1, STREAM_CHUNK_SIZE - target.writerIndex() ) );
+                target.writeBytes( bytes, offset, count );
+                offset += count;
+                length -= count;
+                writer.written();
+            }
+        }
+    }
+
+    /**
+     * Sends chunks as they fill up. Writes from a thread other than the event loop wait for the client to catch up
+     * whenever the channel is not writable, so that a large body never piles up in memory. The event loop can't wait
+     * for itself, so bodies streamed from non-blocking routes are queued up in full if the client is slow.
+     */
+    private final class ChunkedBody
+    {
+        private ByteBuf chunk = channel.alloc().buffer(
+                Math.min( bufferSize, STREAM_CHUNK_SIZE + ByteBufWriter.HEADROOM ) );
+        private boolean headersSent;
+        private int sent;
+
+        private void sendChunk() throws IOException
+        {
+            if(!channel.isActive())
+            {
+                throw new IOException( "Client closed the connection while the response was streaming." );
+            }
+            if(!headersSent)
+            {
+                headersSent = true;
+                channel.write( streamingResponse.get() );
+            }
+
+            sent += chunk.readableBytes();
+            ChannelFuture written = channel.writeAndFlush( new DefaultHttpContent( chunk ) );
+            chunk = channel.alloc().buffer( STREAM_CHUNK_SIZE + ByteBufWriter.HEADROOM );
+            if(!channel.isWritable() && !channel.eventLoop().inEventLoop())
+            {
+                written.awaitUninterruptibly();
+            }
+        }
+    }
+
+    /**
+     * Wraps a direct buffer owned by someone else without copying it. Netty releases the buffer once it has been
+     * written, or once the compressor has consumed it, at which point we tell the owner.
+     */
+    private static final class BorrowedByteBuf extends UnpooledDirectByteBuf
+    {
+        private final Runnable onSent;
+
+        private BorrowedByteBuf( ByteBufAllocator alloc, ByteBuffer buffer, Runnable onSent )
+        {
+            // This constructor takes a slice of the buffer, and never frees it
+            super( alloc, buffer, buffer.remaining() );
+            this.onSent = onSent;
+        }
+
+        @Override
+        protected void deallocate()
+        {
+            super.deallocate();
+            onSent.run();
+        }
+    }
 }
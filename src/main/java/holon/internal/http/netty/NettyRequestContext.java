@@ -26,52 +26,96 @@ import holon.api.http.Cookies;
 import holon.api.http.Request;
 import holon.api.http.RequestHeaders;
 import holon.api.http.Status;
+import holon.internal.http.common.ResponseHeaders;
 import holon.internal.http.common.StandardCookie;
 import holon.internal.routing.path.Path;
 import holon.spi.RequestContext;
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
+import io.netty.buffer.ByteBufInputStream;
 import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.DefaultFileRegion;
 import io.netty.handler.codec.http.CookieDecoder;
 import io.netty.handler.codec.http.DefaultCookie;
 import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
 import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpChunkedInput;
+import io.netty.handler.codec.http.HttpContentCompressor;
 import io.netty.handler.codec.http.HttpHeaders;
 import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
 import io.netty.handler.codec.http.QueryStringDecoder;
 import io.netty.handler.codec.http.ServerCookieEncoder;
+import io.netty.handler.stream.ChunkedInput;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Supplier;
 
+import static io.netty.handler.codec.http.HttpHeaders.Names.ACCEPT_ENCODING;
+import static io.netty.handler.codec.http.HttpHeaders.Names.CONNECTION;
 import static io.netty.handler.codec.http.HttpHeaders.Names.CONTENT_LENGTH;
 import static io.netty.handler.codec.http.HttpHeaders.Names.COOKIE;
 
 public class NettyRequestContext implements RequestContext
 {
+    /** Chunk size used when files have to be streamed through the compressor rather than sent with sendfile. */
+    private static final int FILE_CHUNK_SIZE = 1024 * 16;
+
     private final NettyCookies cookies = new NettyCookies();
     private final NettyOutput output = new NettyOutput();
     private final NettyRequestHeaders headers = new NettyRequestHeaders();
 
+    private final Supplier<HttpResponse> streamingResponse = this::streamingResponse;
+
     private final Map<String, String> responseHeaders = new HashMap<>();
     private final Map<String,holon.api.http.Cookie> responseCookies = new HashMap<>();
     private final Set<String> discardCookies = new HashSet<>();
 
+    private final ResponseSizes responseSizes;
+
     private Path path;
     private HttpRequest request;
     private Channel channel;
     private Map<String,Object> formData;
     private boolean contentTypeOverridden;
+    private boolean contentEncoded;
+    private boolean keepAlive;
+    private boolean responded;
     private boolean cookiesDecoded = false;
     private Map<String,List<String>> queryParams;
 
+    /** Status and content type of the response being rendered, for the headers of a streamed body. */
+    private HttpResponseStatus responseStatus;
+    private String responseContentType;
+
+    public NettyRequestContext()
+    {
+        this( new ResponseSizes() );
+    }
+
+    /** @param responseSizes body size estimates, shared with the other workers of the engine */
+    public NettyRequestContext( ResponseSizes responseSizes )
+    {
+        this.responseSizes = responseSizes;
+    }
+
     /** Initialization called by the Holon stack */
     @Override
     public final RequestContext initialize( Path path )
@@ -88,8 +132,12 @@ public class NettyRequestContext implements RequestContext
         this.formData = formData;
         this.cookiesDecoded = false;
         this.contentTypeOverridden = false;
+        this.contentEncoded = false;
+        this.keepAlive = HttpHeaders.isKeepAlive( request );
+        this.responded = false;
         this.queryParams = null;
         this.headers.initialize( request.headers() );
+        this.output.initialize( channel );
         responseHeaders.clear();
         responseCookies.clear();
         discardCookies.clear();
@@ -108,6 +156,15 @@ public class NettyRequestContext implements RequestContext
         return formData;
     }
 
+    @Override
+    public InputStream body()
+    {
+        // Only JSON bodies are kept as they are, see NettyServerHandler
+        return request instanceof FullHttpRequest
+                ? new ByteBufInputStream( ((FullHttpRequest) request).content().duplicate() )
+                : null;
+    }
+
     @Override
     public RequestHeaders headers()
     {
@@ -159,19 +216,131 @@ public class NettyRequestContext implements RequestContext
     @Override
     public void respond( Status status, Content content, Object context )
     {
-        ByteBuf buffer = renderContent( content, context );
+        if(output.isStreaming())
+        {
+            // Rendering failed after part of the body went out, and we're asked to respond with an error instead
+            responseWritten( output.abortStream() );
+            return;
+        }
+
+        responseStatus = HttpResponseStatus.valueOf( status.code() );
+        responseContentType = contentType( content, context );
+        renderContent( content, context );
+
+        if(output.isFile())
+        {
+            respondWithFile( responseStatus, responseContentType, output.file(), output.filePosition(),
+                    output.fileCount(), output.sendFile() );
+            return;
+        }
 
+        if(output.isStreaming())
+        {
+            responseWritten( output.finishStream() );
+            return;
+        }
+
+        ByteBuf buffer = output.buffer();
         FullHttpResponse response = new DefaultFullHttpResponse(
                 HttpVersion.HTTP_1_1,
-                HttpResponseStatus.valueOf( status.code() ),
+                responseStatus,
                 buffer);
 
-        renderHeaders( response, contentType( content, context ) );
+        renderHeaders( response, responseContentType );
         renderCookies( response );
 
         response.headers().set( CONTENT_LENGTH, buffer.readableBytes() );
 
-        channel.writeAndFlush( response );
+        responseWritten( channel.write( response ) );
+    }
+
+    /**
+     * Headers for a body that is streamed as it is rendered, see {@link NettyOutput}. The length is not known up
+     * front, so the body is sent with chunked transfer encoding.
+     */
+    private HttpResponse streamingResponse()
+    {
+        HttpResponse response = new DefaultHttpResponse( HttpVersion.HTTP_1_1, responseStatus );
+        renderHeaders( response, responseContentType );
+        renderCookies( response );
+        HttpHeaders.setTransferEncodingChunked( response );
+        return response;
+    }
+
+    /**
+     * Send the header frame, followed by the file itself. Unless the response is going to be compressed, this uses
+     * a file region, meaning the OS copies the file straight from its page cache to the socket (sendfile), and the
+     * file contents never enter the JVM. The compressor needs to see the bytes, so in that case we fall back to
+     * streaming the file in chunks. Either way, onSent is run once netty is done with the file.
+     */
+    private void respondWithFile( HttpResponseStatus status, String contentType, FileChannel file, long position,
+            long length, Runnable onSent )
+    {
+        HttpResponse response = new DefaultHttpResponse( HttpVersion.HTTP_1_1, status );
+
+        renderHeaders( response, contentType );
+        renderCookies( response );
+
+        response.headers().set( CONTENT_LENGTH, length );
+
+        if(responseWillBeCompressed( status ))
+        {
+            HttpChunkedInput body = new HttpChunkedInput(
+                    new SharedChunkedFile( file, position, length, FILE_CHUNK_SIZE, onSent ) );
+            channel.write( response );
+            responseWritten( channel.write( body ) );
+        }
+        else
+        {
+            channel.write( response );
+            channel.write( new SharedFileRegion( file, position, length, onSent ) );
+            responseWritten( channel.write( LastHttpContent.EMPTY_LAST_CONTENT ) );
+        }
+    }
+
+    /**
+     * Called once the route is done with the request. Routes respond before they return, should one have failed to,
+     * the connection is closed, rather than leaving the client, and any requests pipelined behind this one, waiting.
+     * Either way, the request body has been released once this returns.
+     */
+    public void requestHandled()
+    {
+        if(!responded)
+        {
+            responseWritten( channel.close() );
+        }
+    }
+
+    /**
+     * Responses are not flushed here, the server handler flushes once per read burst, and only dispatches the next
+     * request on this connection once it knows the response to the current one has been written.
+     */
+    private void responseWritten( ChannelFuture lastWrite )
+    {
+        responded = true;
+        if(request instanceof FullHttpRequest && ((FullHttpRequest) request).refCnt() > 0)
+        {
+            // We're done with the body
+            ((FullHttpRequest) request).release();
+        }
+        if(!keepAlive)
+        {
+            lastWrite.addListener( ChannelFutureListener.CLOSE );
+        }
+        channel.pipeline().fireUserEventTriggered( NettyServerHandler.RESPONSE_WRITTEN );
+    }
+
+    private boolean responseWillBeCompressed( HttpResponseStatus status )
+    {
+        // The compressor leaves responses that already have a content encoding alone, and so does ours with partial
+        // content, see NettyContentCompressor
+        if(contentEncoded || status.code() == HttpResponseStatus.PARTIAL_CONTENT.code()
+           || channel.pipeline().get( HttpContentCompressor.class ) == null)
+        {
+            return false;
+        }
+        String acceptEncoding = request.headers().get( ACCEPT_ENCODING );
+        return acceptEncoding != null && (acceptEncoding.contains( "gzip" ) || acceptEncoding.contains( "deflate" ));
     }
 
     @Override
@@ -180,17 +349,24 @@ public class NettyRequestContext implements RequestContext
         return channel.remoteAddress();
     }
 
-    private ByteBuf renderContent( Content content, Object context )
+    private void renderContent( Content content, Object context )
     {
         try
         {
-            if(content == null)
+            // HTTP/1.0 clients don't understand chunked bodies, so bodies for them are never streamed
+            output.initialize( channel,
+                    request.getProtocolVersion().equals( HttpVersion.HTTP_1_0 ) ? null : streamingResponse,
+                    content == null ? ResponseSizes.DEFAULT_SIZE : responseSizes.bufferSize( content ) );
+            if(content != null)
             {
-                return Unpooled.EMPTY_BUFFER;
-            }
+                content.render( output, context );
 
-            content.render( output.initialize( channel), context );
-            return output.buffer();
+                int size = output.textSize();
+                if(size >= 0)
+                {
+                    responseSizes.record( content, size );
+                }
+            }
         }
         catch ( IOException e )
         {
@@ -198,7 +374,7 @@ public class NettyRequestContext implements RequestContext
         }
     }
 
-    private void renderCookies( FullHttpResponse response )
+    private void renderCookies( HttpResponse response )
     {
         for ( Map.Entry<String,Cookie> cookieToAdd : this.responseCookies.entrySet() )
         {
@@ -220,7 +396,7 @@ public class NettyRequestContext implements RequestContext
         }
     }
 
-    private void renderHeaders( FullHttpResponse response, String defaultContentType )
+    private void renderHeaders( HttpResponse response, String defaultContentType )
     {
         HttpHeaders headers = response.headers();
         for ( Map.Entry<String, String> header : responseHeaders.entrySet() )
@@ -231,6 +407,14 @@ public class NettyRequestContext implements RequestContext
         {
             headers.set( HttpHeaders.Names.CONTENT_TYPE, defaultContentType );
         }
+        if(!keepAlive)
+        {
+            headers.set( CONNECTION, HttpHeaders.Values.CLOSE );
+        }
+        else if(!request.getProtocolVersion().isKeepAliveDefault())
+        {
+            headers.set( CONNECTION, HttpHeaders.Values.KEEP_ALIVE );
+        }
     }
 
     @Override
@@ -261,7 +445,11 @@ public class NettyRequestContext implements RequestContext
         {
             contentTypeOverridden = true;
         }
-        responseHeaders.put( header, value );
+        else if(header.equalsIgnoreCase( HttpHeaders.Names.CONTENT_ENCODING ))
+        {
+            contentEncoded = !value.equalsIgnoreCase( HttpHeaders.Values.IDENTITY );
+        }
+        ResponseHeaders.add( responseHeaders, header, value );
         return this;
     }
 
@@ -277,6 +465,101 @@ public class NettyRequestContext implements RequestContext
         }
     }
 
+    /**
+     * The file channels we send are owned by the content that wrote them, which keeps them open across requests, so
+     * transferring a file must not close the channel like netty otherwise would. Instead, the content is told once
+     * netty is done with it.
+     */
+    private static final class SharedFileRegion extends DefaultFileRegion
+    {
+        private final Runnable onSent;
+
+        public SharedFileRegion( FileChannel file, long position, long length, Runnable onSent )
+        {
+            super( file, position, length );
+            this.onSent = onSent;
+        }
+
+        @Override
+        protected void deallocate()
+        {
+            // Channel is owned by the content, leave it open
+            onSent.run();
+        }
+    }
+
+    /**
+     * See {@link SharedFileRegion}. The channel is shared by every response sending the file at the same time, so
+     * unlike {@link io.netty.handler.stream.ChunkedNioFile}, chunks are read from where this body is at, without
+     * using or changing the position of the channel.
+     */
+    private static final class SharedChunkedFile implements ChunkedInput<ByteBuf>
+    {
+        private final FileChannel file;
+        private final long end;
+        private final int chunkSize;
+        private long position;
+        private Runnable onSent;
+
+        public SharedChunkedFile( FileChannel file, long position, long length, int chunkSize, Runnable onSent )
+        {
+            this.file = file;
+            this.position = position;
+            this.end = position + length;
+            this.chunkSize = chunkSize;
+            this.onSent = onSent;
+        }
+
+        @Override
+        public boolean isEndOfInput()
+        {
+            return position >= end;
+        }
+
+        @Override
+        public ByteBuf readChunk( ChannelHandlerContext ctx ) throws IOException
+        {
+            if(position >= end)
+            {
+                return null;
+            }
+
+            int size = (int) Math.min( chunkSize, end - position );
+            ByteBuf chunk = ctx.alloc().buffer( size );
+            try
+            {
+                ByteBuffer target = chunk.nioBuffer( 0, size );
+                while(target.hasRemaining())
+                {
+                    int read = file.read( target, position + target.position() );
+                    if(read == -1)
+                    {
+                        throw new EOFException( "File is shorter than the " + (end - position) + " bytes left to send." );
+                    }
+                }
+                chunk.writerIndex( size );
+                position += size;
+                return chunk;
+            }
+            catch ( IOException e )
+            {
+                chunk.release();
+                throw e;
+            }
+        }
+
+        @Override
+        public void close()
+        {
+            // Channel is owned by the content, leave it open
+            if(onSent != null)
+            {
+                onSent.run();
+                onSent = null;
+            }
+        }
+    }
+
     private static final class NettyRequestHeaders implements RequestHeaders
     {
         private HttpHeaders headers;
@@ -19,16 +19,23 @@
  */
 package holon.internal.http.netty;
 
-import com.lmax.disruptor.RingBuffer;
 import holon.api.http.UploadedFile;
-import holon.internal.http.netty.work.NettyWorkEvent;
-import io.netty.channel.Channel;
+import holon.internal.http.netty.work.RequestDispatcher;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
 import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaders;
 import io.netty.handler.codec.http.HttpMethod;
 import io.netty.handler.codec.http.HttpObject;
 import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
 import io.netty.handler.codec.http.LastHttpContent;
 import io.netty.handler.codec.http.multipart.Attribute;
 import io.netty.handler.codec.http.multipart.DefaultHttpDataFactory;
@@ -41,16 +48,41 @@ import io.netty.handler.codec.http.multipart.HttpPostRequestDecoder.EndOfDataDec
 import io.netty.handler.codec.http.multipart.HttpPostRequestDecoder.ErrorDataDecoderException;
 import io.netty.handler.codec.http.multipart.InterfaceHttpData;
 import io.netty.handler.codec.http.multipart.InterfaceHttpData.HttpDataType;
+import io.netty.util.ReferenceCountUtil;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Queue;
 
+/**
+ * Receives requests and hands them to the dispatcher, one at a time per connection. Requests pipelined by the client
+ * while an earlier request is still being handled are queued, and dispatched once the response to the earlier
+ * request has been written, which keeps responses in request order no matter which thread handles each request.
+ *
+ * Responses are written without flushing, this handler flushes them. Responses written while a read burst is being
+ * processed are flushed together when the burst ends.
+ *
+ * Form bodies are decoded into form parameters. JSON bodies are not decoded at all: the buffers they arrive in are
+ * held on to as they are, and dispatched as the content of a {@link FullHttpRequest}, which the request context
+ * releases once it has responded. A JSON body larger than {@link #MAX_JSON_BODY} is dropped as it comes in, the request
+ * is never dispatched, and once the body is over, it is answered with 413 Request Entity Too Large, in its turn among
+ * the requests on the connection, which is then closed.
+ */
 public class NettyServerHandler extends SimpleChannelInboundHandler<HttpObject>
 {
-    private final RingBuffer<NettyWorkEvent> ringBuffer;
+    /** User event fired through the pipeline once the full response to the current request has been written. */
+    public static final Object RESPONSE_WRITTEN = new Object();
+
+    private final RequestDispatcher dispatcher;
+
+    private final Queue<PendingRequest> pending = new ArrayDeque<>();
+    private boolean inFlight;
+    private boolean reading;
+    private boolean needsFlush;
 
     private HttpRequest request;
     private Map<String, Object> formParams;
@@ -60,6 +92,20 @@ public class NettyServerHandler extends SimpleChannelInboundHandler<HttpObject>
 
     private HttpPostRequestDecoder decoder;
 
+    /** Largest JSON body we hold in memory, larger ones are rejected. */
+    private static final int MAX_JSON_BODY = 1024 * 1024 * 8;
+
+    private CompositeByteBuf jsonBody;
+
+    /** Set while the rest of a rejected body is coming in, see {@link #MAX_JSON_BODY}. */
+    private boolean discarding;
+
+    /** Set once a request has been rejected, after which the connection is closed, and nothing more is read. */
+    private boolean rejected;
+
+    /** Stands in for a rejected request in the queue of pending requests. */
+    private static final PendingRequest TOO_LARGE = new PendingRequest( null, null );
+
     static
     {
         DiskFileUpload.deleteOnExitTemporaryFile = true; // should delete file on exit (in normal exit)
@@ -68,21 +114,31 @@ public class NettyServerHandler extends SimpleChannelInboundHandler<HttpObject>
         DiskAttribute.baseDirectory = null; // system temp directory
     }
 
-    public NettyServerHandler( RingBuffer<NettyWorkEvent> ringBuffer )
+    public NettyServerHandler( RequestDispatcher dispatcher )
     {
-        this.ringBuffer = ringBuffer;
-    }
-
-
-    public static void translate(NettyWorkEvent event, long sequence, HttpRequest request, Channel ch,
-            Map<String, Object> formParams)
-    {
-        event.initialize( request, ch, formParams );
+        this.dispatcher = dispatcher;
     }
 
     @Override
     public void channelRead0( ChannelHandlerContext ctx, HttpObject msg ) throws Exception
     {
+        reading = true;
+        if ( rejected )
+        {
+            return;
+        }
+
+        if ( discarding )
+        {
+            if ( msg instanceof LastHttpContent )
+            {
+                discarding = false;
+                rejected = true;
+                reject( ctx );
+            }
+            return;
+        }
+
         if ( msg instanceof HttpRequest )
         {
             HttpRequest request = this.request = (HttpRequest) msg;
@@ -94,6 +150,13 @@ public class NettyServerHandler extends SimpleChannelInboundHandler<HttpObject>
                 return;
             }
 
+            if ( isJson( request ) )
+            {
+                // Never consolidated, which would copy the body
+                jsonBody = ctx.alloc().compositeBuffer( Integer.MAX_VALUE );
+                return;
+            }
+
             try
             {
                 formParams = new HashMap<>();
@@ -107,6 +170,44 @@ public class NettyServerHandler extends SimpleChannelInboundHandler<HttpObject>
             }
         }
 
+        if ( jsonBody != null )
+        {
+            if ( msg instanceof HttpContent )
+            {
+                HttpContent chunk = (HttpContent) msg;
+                if ( jsonBody.readableBytes() + chunk.content().readableBytes() > MAX_JSON_BODY )
+                {
+                    releaseJsonBody();
+                    request = null;
+                    if ( chunk instanceof LastHttpContent )
+                    {
+                        rejected = true;
+                        reject( ctx );
+                    }
+                    else
+                    {
+                        discarding = true;
+                    }
+                    return;
+                }
+                if ( chunk.content().isReadable() )
+                {
+                    jsonBody.addComponent( chunk.content().retain() );
+                    jsonBody.writerIndex( jsonBody.writerIndex() + chunk.content().readableBytes() );
+                }
+                if ( chunk instanceof LastHttpContent )
+                {
+                    FullHttpRequest full = new DefaultFullHttpRequest( request.getProtocolVersion(),
+                            request.getMethod(), request.getUri(), jsonBody );
+                    full.headers().set( request.headers() );
+                    jsonBody = null;
+                    request = null;
+                    dispatch( ctx, full, Collections.emptyMap() );
+                }
+            }
+            return;
+        }
+
         // check if the decoder was constructed before
         // if not it handles the form get
         if ( decoder != null )
@@ -130,14 +231,110 @@ public class NettyServerHandler extends SimpleChannelInboundHandler<HttpObject>
                 // example of reading only if at the end
                 if ( chunk instanceof LastHttpContent )
                 {
-                    ringBuffer.publishEvent( NettyServerHandler::translate, request, ctx.channel(), formParams );
+                    dispatch( ctx, request, formParams );
                     reset();
                 }
             }
         }
         else
         {
-            ringBuffer.publishEvent( NettyServerHandler::translate, request, ctx.channel(), formParams );
+            dispatch( ctx, request, formParams );
+        }
+    }
+
+    private void dispatch( ChannelHandlerContext ctx, HttpRequest request, Map<String, Object> formParams )
+    {
+        if(inFlight)
+        {
+            pending.add( new PendingRequest( request, formParams ) );
+            return;
+        }
+        inFlight = true;
+        dispatcher.dispatch( request, ctx.channel(), formParams );
+    }
+
+    /** Answer a request with a body that is too large, once the responses to the requests before it are out. */
+    private void reject( ChannelHandlerContext ctx )
+    {
+        if(inFlight)
+        {
+            pending.add( TOO_LARGE );
+            return;
+        }
+        FullHttpResponse response = new DefaultFullHttpResponse( HttpVersion.HTTP_1_1,
+                HttpResponseStatus.REQUEST_ENTITY_TOO_LARGE );
+        response.headers().set( HttpHeaders.Names.CONTENT_LENGTH, 0 );
+        response.headers().set( HttpHeaders.Names.CONNECTION, HttpHeaders.Values.CLOSE );
+        ctx.writeAndFlush( response ).addListener( ChannelFutureListener.CLOSE );
+    }
+
+    @Override
+    public void userEventTriggered( ChannelHandlerContext ctx, Object evt ) throws Exception
+    {
+        if(evt != RESPONSE_WRITTEN)
+        {
+            super.userEventTriggered( ctx, evt );
+            return;
+        }
+
+        if(reading && ctx.channel().isWritable())
+        {
+            needsFlush = true;
+        }
+        else
+        {
+            needsFlush = false;
+            ctx.flush();
+        }
+
+        inFlight = false;
+        PendingRequest next = pending.poll();
+        if(next == TOO_LARGE)
+        {
+            reject( ctx );
+        }
+        else if(next != null)
+        {
+            dispatch( ctx, next.request, next.formParams );
+        }
+    }
+
+    @Override
+    public void channelReadComplete( ChannelHandlerContext ctx ) throws Exception
+    {
+        reading = false;
+        if(needsFlush)
+        {
+            needsFlush = false;
+            ctx.flush();
+        }
+        super.channelReadComplete( ctx );
+    }
+
+    private static boolean isJson( HttpRequest request )
+    {
+        String type = request.headers().get( HttpHeaders.Names.CONTENT_TYPE );
+        if ( type == null )
+        {
+            return false;
+        }
+        // The media type, without parameters like the charset
+        int end = type.indexOf( ';' );
+        end = end == -1 ? type.length() : end;
+        while ( end > 0 && type.charAt( end - 1 ) == ' ' )
+        {
+            end--;
+        }
+        return (end == 16 && type.regionMatches( true, 0, "application/json", 0, 16 ))
+               || (end >= 5 && type.regionMatches( true, end - 5, "+json", 0, 5 ));
+    }
+
+    private void releaseJsonBody()
+    {
+        if ( jsonBody != null )
+        {
+            jsonBody.release();
+            jsonBody = null;
         }
     }
 
@@ -242,6 +439,15 @@ public class NettyServerHandler extends SimpleChannelInboundHandler<HttpObject>
         ctx.channel().close();
     }
 
+    @Override
+    public void channelInactive( ChannelHandlerContext ctx ) throws Exception
+    {
+        releaseJsonBody();
+        pending.forEach( p -> ReferenceCountUtil.release( p.request ) );
+        pending.clear();
+        super.channelInactive( ctx );
+    }
+
     @Override
     public void channelUnregistered( ChannelHandlerContext ctx ) throws Exception
     {
@@ -250,4 +456,16 @@ public class NettyServerHandler extends SimpleChannelInboundHandler<HttpObject>
             decoder.cleanFiles();
         }
     }
+
+    private static final class PendingRequest
+    {
+        private final HttpRequest request;
+        private final Map<String, Object> formParams;
+
+        PendingRequest( HttpRequest request, Map<String, Object> formParams )
+        {
+            this.request = request;
+            this.formParams = formParams;
+        }
+    }
 }
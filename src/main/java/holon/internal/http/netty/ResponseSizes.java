@@ -0,0 +1,94 @@
+package holon.internal.http.netty;
+
+import holon.api.http.Content;
+import holon.internal.io.ByteBufWriter;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers how large the bodies rendered by each kind of {@link Content} tend to be, so that the buffer for the next
+ * one can be allocated at about the right size up front, rather than starting small and being grown, with everything
+ * written so far copied over, as the body is written. Most content renders bodies of much the same size every time.
+ * Estimates are kept by {@link Content#sizeKey()}, so content created for a single response shares the estimate of
+ * its class, rather than leaving an estimate behind that is never used again.
+ *
+ * An estimate follows a larger body right away, since underestimating costs a copy, and shrinks back slowly after
+ * smaller ones, at a sixteenth of the difference per body. Once stable, estimates are only read, so the workers sharing
+ * an instance don't contend over them.
+ */
+public class ResponseSizes
+{
+    /** Buffer size for content we know nothing about yet. */
+    public static final int DEFAULT_SIZE = 256;
+
+    /** Bodies larger than this are started in a buffer of this size, and grown from there. */
+    public static final int MAX_SIZE = 1024 * 1024;
+
+    /** Should content keep coming up with new keys, one estimate is dropped for each new one past this many. */
+    private static final int MAX_TRACKED = 4096;
+
+    private final Map<Object, Estimate> estimates = new ConcurrentHashMap<>();
+
+    /** The buffer size to start the next body rendered by the given content with. */
+    public int bufferSize( Content content )
+    {
+        Estimate estimate = estimates.get( content.sizeKey() );
+        return estimate == null ? DEFAULT_SIZE : estimate.size + ByteBufWriter.HEADROOM;
+    }
+
+    /** Record the size of a body rendered by the given content. */
+    public void record( Content content, int size )
+    {
+        size = Math.min( size, MAX_SIZE );
+        Object key = content.sizeKey();
+        Estimate estimate = estimates.get( key );
+        if(estimate == null)
+        {
+            if(estimates.size() >= MAX_TRACKED)
+            {
+                dropOne();
+            }
+            estimates.put( key, new Estimate( size ) );
+            return;
+        }
+
+        int current = estimate.size;
+        int next = size >= current ? size : current - ((current - size) >> 4);
+        if(next != current)
+        {
+            // Racing updates from other workers may be lost, which at worst costs a buffer copy later on
+            estimate.size = next;
+        }
+    }
+
+    /** The current estimates, in bytes, by size key, for tuning and troubleshooting. */
+    public Map<Object, Integer> estimates()
+    {
+        Map<Object, Integer> sizes = new HashMap<>();
+        estimates.forEach( ( key, estimate ) -> sizes.put( key, estimate.size ) );
+        return sizes;
+    }
+
+    private void dropOne()
+    {
+        Iterator<Object> keys = estimates.keySet().iterator();
+        if(keys.hasNext())
+        {
+            keys.next();
+            keys.remove();
+        }
+    }
+
+    private static class Estimate
+    {
+        private volatile int size;
+
+        Estimate( int size )
+        {
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/**
+ * Copyright (c) 2002-2014 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package holon.internal.http.netty.work;
+
+import com.lmax.disruptor.RingBuffer;
+import holon.api.logging.Logging;
+import holon.internal.http.common.FourOhFourRoute;
+import holon.internal.http.netty.NettyRequestContext;
+import holon.internal.http.netty.ResponseSizes;
+import holon.internal.routing.basic.TreeRouter;
+import holon.spi.RequestContext;
+import holon.spi.Route;
+import io.netty.channel.Channel;
+import io.netty.handler.codec.http.HttpRequest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dispatches requests for a single event loop, and must only be called from that event loop's thread.
+ *
+ * Requests are routed right away on the event loop. Routes that do not block are called there and then, skipping the
+ * hand-off to another thread entirely. Blocking routes are published to a ring buffer shared with as few other event
+ * loops as the number of workers allows, see {@link holon.internal.http.netty.NettyEngine}, so that event loops rarely
+ * contend with each other over a ring sequence. The workers on the other side of the ring route the request again,
+ * against the same route instances as the event loop.
+ *
+ * Blocking routes with dynamic patterns are not matched on the event loop at all, since matching them may block as
+ * well, like looking for a static file on disk. Requests that get as far as such a route are handed off as they are,
+ * and the workers work out where they go.
+ */
+public class EventLoopDispatcher implements RequestDispatcher
+{
+    private final NettyRequestContext ctx;
+    private final RingBuffer<NettyWorkEvent> ringBuffer;
+    private final TreeRouter router;
+    private final Logging.Logger logger;
+
+    /** The request currently being routed, used by {@link HandOffRoute} to publish it to the workers. */
+    private HttpRequest request;
+    private Channel channel;
+    private Map<String, Object> formParams;
+    private boolean handedOff;
+
+    /**
+     * @param routes the routes, shared with the workers that serve the ring buffer
+     * @param ringBuffer where blocking requests are published for the workers
+     */
+    public EventLoopDispatcher( Iterable<Route> routes, RingBuffer<NettyWorkEvent> ringBuffer,
+                                ResponseSizes responseSizes, Logging.Logger logger )
+    {
+        this.logger = logger;
+        this.ringBuffer = ringBuffer;
+        ctx = new NettyRequestContext( responseSizes );
+        router = new TreeRouter( handOffBlockingRoutes( routes ), new FourOhFourRoute() );
+    }
+
+    @Override
+    public void dispatch( HttpRequest request, Channel ch, Map<String, Object> formParams )
+    {
+        this.request = request;
+        this.channel = ch;
+        this.formParams = formParams;
+        this.handedOff = false;
+        try
+        {
+            NettyWorkHandler.route( router, ctx.initialize( request, ch, formParams ), request, logger );
+        }
+        finally
+        {
+            if(!handedOff)
+            {
+                ctx.requestHandled();
+            }
+            this.request = null;
+            this.channel = null;
+            this.formParams = null;
+        }
+    }
+
+    private Iterable<Route> handOffBlockingRoutes( Iterable<Route> routes )
+    {
+        List<Route> dispatchRoutes = new ArrayList<>();
+        for ( Route route : routes )
+        {
+            dispatchRoutes.add( route.isBlocking() ? new HandOffRoute( route ) : route );
+        }
+        return dispatchRoutes;
+    }
+
+    /**
+     * Stands in for a blocking route in the event loop router, sending requests that match it off to the workers. A
+     * dynamic pattern is replaced with one that matches any path, see the class docs.
+     */
+    private class HandOffRoute implements Route
+    {
+        private final Route route;
+        private final PathPattern pattern;
+
+        HandOffRoute( Route route )
+        {
+            this.route = route;
+            this.pattern = route.pattern().isDynamic() ? new AnyPath( route.pattern().pattern() ) : route.pattern();
+        }
+
+        @Override
+        public String method()
+        {
+            return route.method();
+        }
+
+        @Override
+        public PathPattern pattern()
+        {
+            return pattern;
+        }
+
+        @Override
+        public void call( RequestContext req )
+        {
+            // The worker is done with the request when it says so, not us
+            handedOff = true;
+            ringBuffer.publishEvent( NettyWorkEvent::translate, request, channel, formParams );
+        }
+    }
+
+    /** A dynamic pattern that matches every path, and never changes. */
+    private static class AnyPath implements Route.PathPattern
+    {
+        private final String pattern;
+
+        AnyPath( String pattern )
+        {
+            this.pattern = pattern;
+        }
+
+        @Override
+        public boolean isDynamic()
+        {
+            return true;
+        }
+
+        @Override
+        public String pattern()
+        {
+            return pattern;
+        }
+
+        @Override
+        public boolean matches( String path )
+        {
+            return true;
+        }
+
+        @Override
+        public long version()
+        {
+            return 0;
+        }
+    }
+}
@@ -30,6 +30,12 @@ public class NettyWorkEvent
     private Channel ch;
     private Map<String,Object> formParams;
 
+    public static void translate( NettyWorkEvent event, long sequence, HttpRequest request, Channel ch,
+            Map<String, Object> formParams )
+    {
+        event.initialize( request, ch, formParams );
+    }
+
     public void initialize( HttpRequest request, Channel ch, Map<String, Object> formParams )
     {
         this.request = request;
@@ -20,8 +20,11 @@
 package holon.internal.http.netty.work;
 
 import com.lmax.disruptor.WorkHandler;
+import holon.api.logging.Logging;
 import holon.internal.http.common.FourOhFourRoute;
 import holon.internal.http.netty.NettyRequestContext;
+import holon.internal.http.netty.ResponseSizes;
+import holon.internal.routing.HttpMethod;
 import holon.internal.routing.basic.TreeRouter;
 import holon.spi.Route;
 import io.netty.handler.codec.http.HttpRequest;
@@ -32,18 +35,53 @@ public class NettyWorkHandler implements WorkHandler<NettyWorkEvent>
 {
     private final NettyRequestContext ctx;
     private final TreeRouter router;
+    private final Logging.Logger logger;
 
-    public NettyWorkHandler( Supplier<Iterable<Route>> routes )
+    public NettyWorkHandler( Supplier<Iterable<Route>> routes, ResponseSizes responseSizes, Logging.Logger logger )
     {
-        ctx = new NettyRequestContext();
-        router = new TreeRouter( routes.get(), new FourOhFourRoute() );
+        this.ctx = new NettyRequestContext( responseSizes );
+        this.router = new TreeRouter( routes.get(), new FourOhFourRoute() );
+        this.logger = logger;
     }
 
     @Override
     public void onEvent( NettyWorkEvent event ) throws Exception
     {
         HttpRequest req = event.request();
-        router.invoke( req.getMethod().name().toLowerCase(), req.getUri().split( "\\?" )[0],
-                ctx.initialize( req, event.channel(), event.formParams() ) );
+        try
+        {
+            route( router, ctx.initialize( req, event.channel(), event.formParams() ), req, logger );
+        }
+        finally
+        {
+            ctx.requestHandled();
+        }
+    }
+
+    /**
+     * Routes that fail are expected to respond with an error themselves, anything that still gets through is logged
+     * here, so that it does not take down the thread routing the request.
+     */
+    static void route( TreeRouter router, NettyRequestContext ctx, HttpRequest req, Logging.Logger logger )
+    {
+        try
+        {
+            router.invoke( HttpMethod.Standard.of( req.getMethod().name() ), req.getUri(), ctx );
+        }
+        catch ( Throwable e )
+        {
+            logger.error( "Failed to handle request for '" + req.getUri() + "'.", e );
+        }
+    }
+
+    public static WorkHandler<NettyWorkEvent>[] createWorkers( int count, Supplier<Iterable<Route>> routes,
+                                                               ResponseSizes responseSizes, Logging.Logger logger )
+    {
+        WorkHandler[] handlers = new WorkHandler[count];
+        for ( int i = 0; i < count; i++ )
+        {
+            handlers[i] = new NettyWorkHandler( routes, responseSizes, logger );
+        }
+        return handlers;
     }
 }
@@ -0,0 +1,45 @@
+/**
+ * Copyright (c) 2002-2014 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package holon.internal.http.netty.work;
+
+import com.lmax.disruptor.RingBuffer;
+import io.netty.channel.Channel;
+import io.netty.handler.codec.http.HttpRequest;
+
+import java.util.Map;
+
+/**
+ * Publishes every request to a ring buffer shared by all network threads, to be picked up by a pool of workers.
+ */
+public class RingBufferDispatcher implements RequestDispatcher
+{
+    private final RingBuffer<NettyWorkEvent> ringBuffer;
+
+    public RingBufferDispatcher( RingBuffer<NettyWorkEvent> ringBuffer )
+    {
+        this.ringBuffer = ringBuffer;
+    }
+
+    @Override
+    public void dispatch( HttpRequest request, Channel ch, Map<String, Object> formParams )
+    {
+        ringBuffer.publishEvent( NettyWorkEvent::translate, request, ch, formParams );
+    }
+}
@@ -20,13 +20,16 @@
 package holon.internal.http.undertow;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 
 import holon.api.http.Output;
 import io.undertow.server.HttpServerExchange;
+import org.xnio.channels.Channels;
 import org.xnio.channels.StreamSinkChannel;
 
 public class UndertowOutput implements Output
@@ -47,10 +50,39 @@ public class UndertowOutput implements Output
         return new OutputStreamWriter( exchange.getOutputStream(), UTF_8 );
     }
 
+    @Override
+    public OutputStream asStreamingOutputStream()
+    {
+        exchange.startBlocking();
+        return exchange.getOutputStream();
+    }
+
     @Override
     public void write( FileChannel channel ) throws IOException
     {
         StreamSinkChannel responseChannel = exchange.getResponseChannel();
         responseChannel.transferFrom( channel, 0, channel.size() );
     }
+
+    @Override
+    public void write( FileChannel channel, long position, long count ) throws IOException
+    {
+        StreamSinkChannel responseChannel = exchange.getResponseChannel();
+        responseChannel.transferFrom( channel, position, count );
+    }
+
+    @Override
+    public void write( ByteBuffer buffer, Runnable onSent ) throws IOException
+    {
+        try
+        {
+            StreamSinkChannel responseChannel = exchange.getResponseChannel();
+            Channels.writeBlocking( responseChannel, buffer.duplicate() );
+            Channels.flushBlocking( responseChannel );
+        }
+        finally
+        {
+            onSent.run();
+        }
+    }
 }
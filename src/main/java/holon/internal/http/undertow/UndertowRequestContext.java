@@ -26,6 +26,7 @@ import holon.api.http.Request;
 import holon.api.http.RequestHeaders;
 import holon.api.http.Status;
 import holon.api.http.UploadedFile;
+import holon.internal.http.common.ResponseHeaders;
 import holon.internal.http.common.StandardCookie;
 import holon.internal.routing.path.Path;
 import holon.spi.RequestContext;
@@ -40,6 +41,7 @@ import io.undertow.util.HttpString;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -141,7 +143,7 @@ public class UndertowRequestContext implements RequestContext
         {
             contentTypeOverridden = true;
         }
-        responseHeaders.put( header, value );
+        ResponseHeaders.add( responseHeaders, header, value );
         return this;
     }
 
@@ -157,6 +159,13 @@ public class UndertowRequestContext implements RequestContext
         return null;           // TODO
     }
 
+    @Override
+    public InputStream body()
+    {
+        exchange.startBlocking();
+        return exchange.getInputStream();
+    }
+
     @Override
     public Map<String, Object> formData() throws IOException
     {
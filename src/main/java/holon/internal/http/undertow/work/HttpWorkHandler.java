@@ -22,6 +22,7 @@ package holon.internal.http.undertow.work;
 import com.lmax.disruptor.WorkHandler;
 import holon.internal.http.common.FourOhFourRoute;
 import holon.internal.http.undertow.UndertowRequestContext;
+import holon.internal.routing.HttpMethod;
 import holon.internal.routing.basic.TreeRouter;
 import holon.spi.Route;
 import io.undertow.server.HttpServerExchange;
@@ -45,7 +46,7 @@ public class HttpWorkHandler implements WorkHandler<HttpWorkEvent>
         HttpServerExchange exchange = event.exchange();
         try
         {
-            router.invoke( exchange.getRequestMethod().toString().toLowerCase(),
+            router.invoke( HttpMethod.Standard.of( exchange.getRequestMethod().toString() ),
                     exchange.getRequestPath(), ctx.initialize( exchange ) );
         }
         finally
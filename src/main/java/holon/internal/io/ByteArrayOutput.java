@@ -1,38 +1,82 @@
 package holon.internal.io;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
+import java.io.OutputStream;
 import java.io.Writer;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
-import java.nio.charset.Charset;
 
 import holon.api.http.Output;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.Unpooled;
 
 /**
- * In-memory output backed by a byte array.
+ * In-memory output backed by a byte array. Text is encoded straight into it, see {@link ByteBufWriter}.
  */
 public class ByteArrayOutput implements Output
 {
-    private final ByteArrayOutputStream baos = new ByteArrayOutputStream(128);
+    private final ByteBuf body = Unpooled.buffer( 128 );
+    private ByteBufWriter writer;
+    private OutputStream stream;
 
     @Override
     public Writer asWriter()
     {
-        return new OutputStreamWriter( baos, Charset.forName("UTF-8") );
+        // One writer for however many times the body is written
+        if(writer == null)
+        {
+            writer = new ByteBufWriter().initialize( body );
+        }
+        return writer;
+    }
+
+    @Override
+    public OutputStream asStreamingOutputStream()
+    {
+        // Text is not held back by the writer, so bytes can go right after it
+        if(stream == null)
+        {
+            stream = new ByteBufOutputStream( body );
+        }
+        return stream;
     }
 
     @Override
     public void write( FileChannel channel ) throws IOException
     {
-        ByteBuffer buffer = ByteBuffer.allocate( (int) channel.size() );
-        channel.read( buffer );
-        baos.write( buffer.array(), 0, (int) channel.size() );
+        write( channel, 0, channel.size() );
+    }
+
+    @Override
+    public void write( FileChannel channel, long position, long count ) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate( (int) count );
+        while(buffer.hasRemaining() && channel.read( buffer, position + buffer.position() ) != -1)
+        {
+            // Keep reading until the region is in
+        }
+        buffer.flip();
+        body.writeBytes( buffer );
+    }
+
+    @Override
+    public void write( ByteBuffer buffer, Runnable onSent )
+    {
+        try
+        {
+            body.writeBytes( buffer.duplicate() );
+        }
+        finally
+        {
+            onSent.run();
+        }
     }
 
     public byte[] toByteArray()
     {
-        return baos.toByteArray();
+        byte[] bytes = new byte[body.readableBytes()];
+        body.getBytes( body.readerIndex(), bytes );
+        return bytes;
     }
 }
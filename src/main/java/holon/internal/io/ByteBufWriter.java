@@ -0,0 +1,235 @@
+package holon.internal.io;
+
+import io.netty.buffer.ByteBuf;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes text as UTF-8 straight into a buffer, without an intermediate byte array or charset encoder. Meant to be
+ * reused: point it at a new buffer with {@link #initialize(ByteBuf)} for each body. Runs of ASCII, which is most of
+ * what templates and JSON produce, are copied a byte per char without further checks.
+ *
+ * Text is encoded in slices of at most {@link #SLICE} chars, and {@link #written()} is called after each, which lets
+ * subclasses send off or swap the buffer as it fills up. Slices are cut to what is sure to fit in the room left in
+ * the buffer, which is only grown once there is less than {@link #HEADROOM} left. A buffer allocated with that much
+ * room to spare beyond the size of the body is never grown, and never copied. Like
+ * {@link java.io.OutputStreamWriter}, malformed surrogates are written as '?'. Writes while not pointed at a buffer are
+ * dropped.
+ */
+public class ByteBufWriter extends Writer
+{
+    public static final int SLICE = 1024;
+
+    /** Slices are not cut shorter than this, unless the text is. */
+    private static final int MIN_SLICE = 64;
+
+    /** Room at the end of a buffer that is enough for any slice to be written without growing it. */
+    public static final int HEADROOM = MIN_SLICE * 3 + 1;
+
+    private ByteBuf target;
+
+    /** A high surrogate at the end of the last write, waiting for its low half. */
+    private char highSurrogate;
+
+    /** View of the room at the end of the target, for the slice being written, see {@link #reserve(int)}. */
+    private ByteBuffer out;
+    private int sliceStart;
+
+    public ByteBufWriter initialize( ByteBuf target )
+    {
+        this.target = target;
+        this.highSurrogate = 0;
+        return this;
+    }
+
+    /** The buffer being written to, or null. */
+    public ByteBuf target()
+    {
+        return target;
+    }
+
+    /** Carry on writing into another buffer, as opposed to {@link #initialize(ByteBuf)}, which starts over. */
+    public void target( ByteBuf target )
+    {
+        this.target = target;
+    }
+
+    /** Called after each slice of text has been written to the target. */
+    protected void written() throws IOException
+    {
+
+    }
+
+    @Override
+    public void write( int c ) throws IOException
+    {
+        if(target == null)
+        {
+            return;
+        }
+        reserve( 1 );
+        encode( out, (char) c );
+        commit();
+        written();
+    }
+
+    @Override
+    public void write( char[] chars, int offset, int length ) throws IOException
+    {
+        int end = offset + length;
+        while(offset < end && target != null)
+        {
+            int sliceEnd = offset + reserve( end - offset );
+            ByteBuffer out = this.out;
+            while(offset < sliceEnd)
+            {
+                char c;
+                if(highSurrogate == 0)
+                {
+                    while(offset < sliceEnd && (c = chars[offset]) < 0x80)
+                    {
+                        out.put( (byte) c );
+                        offset++;
+                    }
+                    if(offset == sliceEnd)
+                    {
+                        break;
+                    }
+                }
+                encode( out, chars[offset++] );
+            }
+            commit();
+            written();
+        }
+    }
+
+    @Override
+    public void write( String str, int offset, int length ) throws IOException
+    {
+        int end = offset + length;
+        while(offset < end && target != null)
+        {
+            int sliceEnd = offset + reserve( end - offset );
+            ByteBuffer out = this.out;
+            while(offset < sliceEnd)
+            {
+                char c;
+                if(highSurrogate == 0)
+                {
+                    while(offset < sliceEnd && (c = str.charAt( offset )) < 0x80)
+                    {
+                        out.put( (byte) c );
+                        offset++;
+                    }
+                    if(offset == sliceEnd)
+                    {
+                        break;
+                    }
+                }
+                encode( out, str.charAt( offset++ ) );
+            }
+            commit();
+            written();
+        }
+    }
+
+    @Override
+    public Writer append( CharSequence csq ) throws IOException
+    {
+        String str = String.valueOf( csq );
+        write( str, 0, str.length() );
+        return this;
+    }
+
+    @Override
+    public Writer append( char c ) throws IOException
+    {
+        write( c );
+        return this;
+    }
+
+    @Override
+    public void flush()
+    {
+        // Nothing is held back, other than half a surrogate pair
+    }
+
+    @Override
+    public void close()
+    {
+
+    }
+
+    /**
+     * Make room for the next slice of at most the given number of chars, at worst three bytes each, growing the target
+     * only if it is nearly full.
+     *
+     * @return the number of chars in the slice
+     */
+    private int reserve( int chars )
+    {
+        // One extra byte, for a surrogate left over from the last write turning out to be malformed
+        int fits = (target.writableBytes() - 1) / 3;
+        if(fits < Math.min( chars, MIN_SLICE ))
+        {
+            target.ensureWritable( Math.min( chars, SLICE ) * 3 + 1 );
+            fits = (target.writableBytes() - 1) / 3;
+        }
+        int slice = Math.min( chars, Math.min( fits, SLICE ) );
+
+        // This is a view of the memory of the target, which does not necessarily start at position 0
+        out = target.internalNioBuffer( target.writerIndex(), slice * 3 + 1 );
+        sliceStart = out.position();
+        return slice;
+    }
+
+    private void commit()
+    {
+        target.writerIndex( target.writerIndex() + out.position() - sliceStart );
+    }
+
+    private void encode( ByteBuffer out, char c )
+    {
+        if(highSurrogate != 0)
+        {
+            char high = highSurrogate;
+            highSurrogate = 0;
+            if(Character.isLowSurrogate( c ))
+            {
+                int codePoint = Character.toCodePoint( high, c );
+                out.put( (byte) (0xF0 | (codePoint >> 18)) );
+                out.put( (byte) (0x80 | ((codePoint >> 12) & 0x3F)) );
+                out.put( (byte) (0x80 | ((codePoint >> 6) & 0x3F)) );
+                out.put( (byte) (0x80 | (codePoint & 0x3F)) );
+                return;
+            }
+            out.put( (byte) '?' );
+        }
+
+        if(c < 0x80)
+        {
+            out.put( (byte) c );
+        }
+        else if(c < 0x800)
+        {
+            out.put( (byte) (0xC0 | (c >> 6)) );
+            out.put( (byte) (0x80 | (c & 0x3F)) );
+        }
+        else if(Character.isHighSurrogate( c ))
+        {
+            highSurrogate = c;
+        }
+        else if(Character.isLowSurrogate( c ))
+        {
+            out.put( (byte) '?' );
+        }
+        else
+        {
+            out.put( (byte) (0xE0 | (c >> 12)) );
+            out.put( (byte) (0x80 | ((c >> 6) & 0x3F)) );
+            out.put( (byte) (0x80 | (c & 0x3F)) );
+        }
+    }
+}
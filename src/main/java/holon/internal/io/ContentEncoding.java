@@ -0,0 +1,179 @@
+package holon.internal.io;
+
+import holon.util.ContentHash;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Content codings we can keep pre-compressed copies of response bodies in. These produce the same output netty's
+ * HttpContentCompressor would, and responses that already declare one of them as their Content-Encoding are passed
+ * through the compressor untouched, so serving a pre-compressed body costs no CPU at all.
+ */
+public enum ContentEncoding
+{
+    IDENTITY( "identity" )
+    {
+        @Override
+        protected OutputStream wrap( OutputStream out )
+        {
+            return out;
+        }
+    },
+    GZIP( "gzip" )
+    {
+        @Override
+        protected OutputStream wrap( OutputStream out ) throws IOException
+        {
+            return new GZIPOutputStream( out, BUFFER_SIZE );
+        }
+    },
+    DEFLATE( "deflate" )
+    {
+        @Override
+        protected OutputStream wrap( OutputStream out )
+        {
+            // Zlib-wrapped, which is what HTTP means by 'deflate'
+            return new DeflaterOutputStream( out );
+        }
+    };
+
+    /** The encodings we keep pre-compressed variants for. */
+    public static final ContentEncoding[] COMPRESSED = new ContentEncoding[]{ GZIP, DEFLATE };
+
+    private static final int BUFFER_SIZE = 1024 * 8;
+
+    private final String headerValue;
+
+    ContentEncoding( String headerValue )
+    {
+        this.headerValue = headerValue;
+    }
+
+    /** The value of this encoding as used in Content-Encoding headers. */
+    public String headerValue()
+    {
+        return headerValue;
+    }
+
+    /**
+     * Write the full contents of the source channel, encoded with this encoding, to the target channel. Neither
+     * channel is closed.
+     */
+    public void encode( FileChannel source, FileChannel target ) throws IOException
+    {
+        encode( source, target, null );
+    }
+
+    /**
+     * Like {@link #encode(FileChannel, FileChannel)}, also feeding the source bytes to the given hash as they are
+     * read, so that the caller gets an etag for the source without reading it a second time.
+     */
+    public void encode( FileChannel source, FileChannel target, ContentHash hash ) throws IOException
+    {
+        OutputStream out = wrap( Channels.newOutputStream( target ) );
+        ByteBuffer buffer = ByteBuffer.allocate( BUFFER_SIZE );
+        long position = 0;
+        int read;
+        while((read = source.read( buffer, position )) != -1)
+        {
+            out.write( buffer.array(), 0, read );
+            if(hash != null)
+            {
+                hash.update( buffer.array(), 0, read );
+            }
+            position += read;
+            buffer.clear();
+        }
+        if(out instanceof DeflaterOutputStream)
+        {
+            ((DeflaterOutputStream) out).finish();
+        }
+        out.flush();
+    }
+
+    /** Encode the given bytes with this encoding. */
+    public byte[] encode( byte[] source ) throws IOException
+    {
+        ByteArrayOutputStream target = new ByteArrayOutputStream( source.length / 2 + 64 );
+        OutputStream out = wrap( target );
+        out.write( source );
+        if(out instanceof DeflaterOutputStream)
+        {
+            ((DeflaterOutputStream) out).finish();
+        }
+        out.flush();
+        return target.toByteArray();
+    }
+
+    protected abstract OutputStream wrap( OutputStream out ) throws IOException;
+
+    /**
+     * Pick the encoding to respond with, given the Accept-Encoding header of a request. This follows the same rules
+     * as netty's HttpContentCompressor: the encoding with the highest quality wins, gzip wins ties, and a wildcard
+     * means gzip or deflate, whichever was not explicitly listed.
+     */
+    public static ContentEncoding negotiate( String acceptEncoding )
+    {
+        if(acceptEncoding == null || acceptEncoding.length() == 0)
+        {
+            return IDENTITY;
+        }
+
+        float starQ = -1.0f;
+        float gzipQ = -1.0f;
+        float deflateQ = -1.0f;
+        for ( String encoding : acceptEncoding.split( "," ) )
+        {
+            float q = 1.0f;
+            int equalsPos = encoding.indexOf( '=' );
+            if(equalsPos != -1)
+            {
+                try
+                {
+                    q = Float.valueOf( encoding.substring( equalsPos + 1 ) );
+                }
+                catch ( NumberFormatException e )
+                {
+                    // Ignore encoding
+                    q = 0.0f;
+                }
+            }
+            if(encoding.contains( "*" ))
+            {
+                starQ = q;
+            }
+            else if(encoding.contains( "gzip" ) && q > gzipQ)
+            {
+                gzipQ = q;
+            }
+            else if(encoding.contains( "deflate" ) && q > deflateQ)
+            {
+                deflateQ = q;
+            }
+        }
+
+        if(gzipQ > 0.0f || deflateQ > 0.0f)
+        {
+            return gzipQ >= deflateQ ? GZIP : DEFLATE;
+        }
+        if(starQ > 0.0f)
+        {
+            if(gzipQ == -1.0f)
+            {
+                return GZIP;
+            }
+            if(deflateQ == -1.0f)
+            {
+                return DEFLATE;
+            }
+        }
+        return IDENTITY;
+    }
+}
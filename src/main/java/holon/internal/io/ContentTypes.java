@@ -13,6 +13,16 @@ public class ContentTypes
         suffixToContentType.put( "html", "text/html" );
         suffixToContentType.put( "js",   "application/javascript" );
         suffixToContentType.put( "json", "application/json" );
+        suffixToContentType.put( "svg",  "image/svg+xml" );
+        suffixToContentType.put( "png",  "image/png" );
+        suffixToContentType.put( "jpg",  "image/jpeg" );
+        suffixToContentType.put( "jpeg", "image/jpeg" );
+        suffixToContentType.put( "gif",  "image/gif" );
+        suffixToContentType.put( "mp4",  "video/mp4" );
+        suffixToContentType.put( "webm", "video/webm" );
+        suffixToContentType.put( "mp3",  "audio/mpeg" );
+        suffixToContentType.put( "pdf",  "application/pdf" );
+        suffixToContentType.put( "zip",  "application/zip" );
     }
 
     public static String contentTypeForSuffix( String suffix )
@@ -21,4 +31,18 @@ public class ContentTypes
         return type == null ? "text/plain" : type;
     }
 
+    /** True if bodies of this content type are worth compressing, i.e. it is text rather than an already-packed format. */
+    public static boolean isCompressible( String contentType )
+    {
+        if(contentType == null)
+        {
+            return false;
+        }
+        return contentType.startsWith( "text/" )
+            || contentType.startsWith( "application/javascript" )
+            || contentType.startsWith( "application/json" )
+            || contentType.startsWith( "application/xml" )
+            || contentType.startsWith( "image/svg+xml" );
+    }
+
 }
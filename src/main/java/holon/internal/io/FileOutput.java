@@ -20,33 +20,165 @@
 package holon.internal.io;
 
 import java.io.IOException;
-import java.io.OutputStreamWriter;
+import java.io.OutputStream;
 import java.io.Writer;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
-import java.nio.charset.Charset;
 
 import holon.api.http.Output;
+import holon.util.ContentHash;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 
 import static java.nio.channels.Channels.newOutputStream;
 
+/**
+ * Writes a body to a file, such as one a response is spilled to so that it never has to be held in memory. Given a
+ * hash, every byte written is fed to it on the way, so the etag of the body is known once it has been written,
+ * without reading the file back.
+ *
+ * Text is encoded straight into a buffer, see {@link ByteBufWriter}, which is written to the file whenever it fills up.
+ */
 public class FileOutput implements Output
 {
+    private static final int BUFFER_SIZE = 1024 * 8;
+
     private final FileChannel ch;
+    private final OutputStream out;
+    private final ContentHash hash;
+    private ByteBuf text;
+    private TextWriter writer;
 
     public FileOutput( FileChannel ch )
+    {
+        this( ch, null );
+    }
+
+    /** @param hash fed the bytes of the body as they are written, or null */
+    public FileOutput( FileChannel ch, ContentHash hash )
     {
         this.ch = ch;
+        this.hash = hash;
+        this.out = hash == null ? newOutputStream( ch ) : new HashingOutputStream( newOutputStream( ch ), hash );
     }
 
     @Override
     public Writer asWriter()
     {
-        return new OutputStreamWriter( newOutputStream( ch ), Charset.forName( "UTF-8" ) );
+        if(writer == null)
+        {
+            // Room for a full buffer and the slice that fills it up, so that it never needs to grow
+            text = Unpooled.buffer( BUFFER_SIZE + ByteBufWriter.HEADROOM );
+            writer = new TextWriter();
+            writer.initialize( text );
+        }
+        return writer;
+    }
+
+    @Override
+    public OutputStream asStreamingOutputStream() throws IOException
+    {
+        flush();
+        return out;
     }
 
     @Override
     public void write( FileChannel channel ) throws IOException
     {
-        channel.transferTo( 0, channel.size(), ch );
+        write( channel, 0, channel.size() );
+    }
+
+    @Override
+    public void write( FileChannel channel, long position, long count ) throws IOException
+    {
+        flush();
+        ByteBuffer buffer = ByteBuffer.allocate( (int) Math.min( count, BUFFER_SIZE ) );
+        long end = position + count;
+        while(position < end)
+        {
+            buffer.clear().limit( (int) Math.min( buffer.capacity(), end - position ) );
+            int read = channel.read( buffer, position );
+            if(read == -1)
+            {
+                break;
+            }
+            buffer.flip();
+            write( buffer );
+            position += read;
+        }
+    }
+
+    @Override
+    public void write( ByteBuffer buffer, Runnable onSent ) throws IOException
+    {
+        try
+        {
+            flush();
+            write( buffer.duplicate() );
+        }
+        finally
+        {
+            onSent.run();
+        }
+    }
+
+    /** Write out any text still held by the writer. Call this once the body has been rendered. */
+    public void flush() throws IOException
+    {
+        if(text != null && text.isReadable())
+        {
+            write( text.nioBuffer() );
+            text.clear();
+        }
+    }
+
+    private void write( ByteBuffer bytes ) throws IOException
+    {
+        if(hash != null)
+        {
+            hash.update( bytes );
+        }
+        while(bytes.hasRemaining())
+        {
+            ch.write( bytes );
+        }
+    }
+
+    private final class TextWriter extends ByteBufWriter
+    {
+        @Override
+        protected void written() throws IOException
+        {
+            if(text.readableBytes() >= BUFFER_SIZE)
+            {
+                flush();
+            }
+        }
+    }
+
+    private static final class HashingOutputStream extends OutputStream
+    {
+        private final OutputStream out;
+        private final ContentHash hash;
+
+        private HashingOutputStream( OutputStream out, ContentHash hash )
+        {
+            this.out = out;
+            this.hash = hash;
+        }
+
+        @Override
+        public void write( int b ) throws IOException
+        {
+            hash.update( b );
+            out.write( b );
+        }
+
+        @Override
+        public void write( byte[] bytes, int offset, int length ) throws IOException
+        {
+            hash.update( bytes, offset, length );
+            out.write( bytes, offset, length );
+        }
     }
 }
@@ -10,6 +10,25 @@ public interface HttpMethod
         DELETE,
         OPTIONS,
         HEAD,
+        ;
+
+        private static final Standard[] VALUES = values();
+
+        /** The standard method with the given name, ignoring case, or null if it is not one we know of. */
+        public static Standard of( String name )
+        {
+            if(name != null)
+            {
+                for ( Standard method : VALUES )
+                {
+                    if(method.name().equalsIgnoreCase( name ))
+                    {
+                        return method;
+                    }
+                }
+            }
+            return null;
+        }
     }
 
     String name();
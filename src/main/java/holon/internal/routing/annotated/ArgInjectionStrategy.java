@@ -10,8 +10,8 @@ import holon.spi.RequestContext;
 public interface ArgInjectionStrategy
 {
     /**
-     * Injects a single argument into an array of arguments, at some specific position. This is used for arguments
-     * that change per-request.
+     * Provides a single argument, for some specific position in the argument list. This is used for arguments that
+     * change per-request.
      */
     static abstract class ArgumentInjector
     {
@@ -22,11 +22,17 @@ public interface ArgInjectionStrategy
             this.position = position;
         }
 
-        public void apply( Object[] args, RequestContext ctx, Pipeline pipeline )
+        public int position()
+        {
+            return position;
+        }
+
+        /** The argument for the given request. */
+        public Object argument( RequestContext ctx, Pipeline pipeline )
         {
             try
             {
-                args[position] = generateArgument( ctx, pipeline );
+                return generateArgument( ctx, pipeline );
             }
             catch ( IOException e )
             {
@@ -41,8 +47,7 @@ public interface ArgInjectionStrategy
 
     /**
      * Satisfy an argument, either by setting it directly at the specified position or by returning an ArgumentInjector,
-     * which will be invoked when the method is called, and is expected to set the argument at the specified position
-     * then.
+     * which will be asked for the argument at the specified position each time the method is called.
      */
     ArgumentInjector satisfyArgument( Object[] args, int position, Class<?> type, Annotation[] annotation );
 }
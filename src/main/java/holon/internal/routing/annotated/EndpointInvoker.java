@@ -0,0 +1,116 @@
+package holon.internal.routing.annotated;
+
+import holon.api.exception.HolonException;
+import holon.api.middleware.Pipeline;
+import holon.spi.RequestContext;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+
+import static holon.internal.routing.annotated.ArgInjectionStrategy.ArgumentInjector;
+import static java.lang.invoke.MethodType.methodType;
+
+/**
+ * Compiles a call to an endpoint or middleware method into a single method handle that takes the request and the
+ * pipeline, works out each argument, and calls the method with them. Arguments are passed straight through, rather
+ * than through an array shared by all requests, and the JIT can inline the argument injectors and the method itself
+ * into the caller. The compiled handler keeps no state of its own, so it can be called from many threads at once, as
+ * long as the injectors keep none either: components provided by middleware come with the pipeline of each request,
+ * see {@link MiddlewareContext}.
+ */
+class EndpointInvoker
+{
+    private static final MethodType HANDLER_TYPE = methodType( void.class, RequestContext.class, Pipeline.class );
+    private static final MethodHandle INJECT;
+
+    static
+    {
+        try
+        {
+            INJECT = MethodHandles.lookup().findVirtual( ArgumentInjector.class, "argument",
+                    methodType( Object.class, RequestContext.class, Pipeline.class ) );
+        }
+        catch ( NoSuchMethodException | IllegalAccessException e )
+        {
+            throw new ExceptionInInitializerError( e );
+        }
+    }
+
+    /**
+     * @param args values for arguments that are the same for every request, by position
+     * @param injectors injectors for arguments that change per request, these take precedence over args
+     */
+    static BiConsumer<RequestContext, Pipeline> compile( Object obj, Method method, Object[] args,
+                                                         ArgumentInjector[] injectors )
+    {
+        MethodHandle handle;
+        try
+        {
+            handle = MethodHandles.lookup().unreflect( method );
+        }
+        catch ( IllegalAccessException e )
+        {
+            throw new HolonException( "Cannot call '" + method + "', it is not accessible.", e );
+        }
+        if(!Modifier.isStatic( method.getModifiers() ))
+        {
+            handle = handle.bindTo( obj );
+        }
+
+        Class<?>[] types = method.getParameterTypes();
+        MethodHandle[] arguments = new MethodHandle[types.length];
+        for ( int i = 0; i < types.length; i++ )
+        {
+            arguments[i] = MethodHandles.dropArguments(
+                    MethodHandles.constant( Object.class, args[i] ), 0, RequestContext.class, Pipeline.class );
+        }
+        for ( ArgumentInjector injector : injectors )
+        {
+            arguments[injector.position()] = INJECT.bindTo( injector );
+        }
+
+        // (ctx, pipe, arg0 .. argN), return value ignored
+        handle = MethodHandles.dropArguments( handle.asType( handle.type().changeReturnType( void.class ) ),
+                0, RequestContext.class, Pipeline.class );
+
+        // Fold the arguments in from the last one, each step moves the last argument first, and then fills it in
+        // from the request and pipeline, which folding leaves in place for the next step.
+        for ( int i = types.length - 1; i >= 0; i-- )
+        {
+            int[] reorder = new int[i + 3];
+            reorder[0] = 1;
+            reorder[1] = 2;
+            for ( int k = 0; k < i; k++ )
+            {
+                reorder[k + 2] = k + 3;
+            }
+            reorder[i + 2] = 0;
+
+            MethodType lastFirst = methodType( void.class, types[i], RequestContext.class, Pipeline.class )
+                    .appendParameterTypes( Arrays.copyOf( types, i ) );
+            handle = MethodHandles.foldArguments( MethodHandles.permuteArguments( handle, lastFirst, reorder ),
+                    arguments[i].asType( methodType( types[i], RequestContext.class, Pipeline.class ) ) );
+        }
+
+        MethodHandle invoker = handle.asType( HANDLER_TYPE );
+        return ( RequestContext ctx, Pipeline pipe ) -> {
+            try
+            {
+                invoker.invokeExact( ctx, pipe );
+            }
+            catch ( RuntimeException | Error e )
+            {
+                throw e;
+            }
+            catch ( Throwable e )
+            {
+                throw new HolonException( "Failed to handle request.", e );
+            }
+        };
+    }
+}
@@ -19,63 +19,43 @@
  */
 package holon.internal.routing.annotated;
 
-import java.lang.annotation.Annotation;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Set;
-import java.util.function.Supplier;
+import java.util.Map;
 
-import holon.api.http.Cookie;
-import holon.internal.http.common.StandardCookie;
-
-import static java.util.Collections.emptyList;
+import holon.api.middleware.Pipeline;
 
+/**
+ * The components middleware has provided for one request, see {@link Pipeline#satisfyDependency(Class, Object)}. The
+ * compiled middleware stack of a route is shared by every request to it, so each request that goes through the stack
+ * gets a context of its own, which is handed from step to step along with the request.
+ */
 public class MiddlewareContext
 {
-    // Temporary, to be expanded to something smarter
-    private final HashMap<Class<?>, Object> components = new HashMap<>();
-    private final HashMap<String, Cookie> cookies = new HashMap<>();
-    private final Set<String> cookiesToDiscard = new HashSet<>();
-
-    /**
-     * Create an object that can be used later to supply a dependency that satisfies the type and annotations
-     * given here, based on components provided by middleware at request time.
-     */
-    public Supplier<Object> newSupplier( Class<?> type, Annotation[] annotations )
-    {
-        return () -> components.get( type );
-    }
+    /** Created on first use, since most middleware provides nothing. */
+    private Map<Class<?>, Object> components;
 
     public void satisfy( Class<?> cls, Object component )
     {
+        if(components == null)
+        {
+            components = new HashMap<>();
+        }
         components.put( cls, component );
     }
 
-    public void setCookie( String name, String value, String path, String domain,
-                           int maxAge, boolean secure, boolean httpOnly )
+    /** The component provided for the given type, or null if no middleware has provided one. */
+    public Object component( Class<?> type )
     {
-        cookies.put( name, new StandardCookie( name, value, domain, path, maxAge, secure, httpOnly ) );
+        return components == null ? null : components.get( type );
     }
 
-    public void discardCookie( String name )
-    {
-        cookiesToDiscard.add( name );
-    }
-
-    public Iterable<Cookie> cookiesToSet()
-    {
-        return cookies.size() > 0 ? cookies.values() : emptyList();
-    }
-
-    public Iterable<String> cookiesToDiscard()
-    {
-        return cookiesToDiscard;
-    }
-
-    public void initialize()
+    /**
+     * The context of the request a handler was handed the given pipeline for, or null if the handler is an endpoint
+     * without any middleware in front of it.
+     */
+    public static MiddlewareContext of( Pipeline pipeline )
     {
-        components.clear();
-        cookies.clear();
-        cookiesToDiscard.clear();
+        return pipeline instanceof MiddlewarePipelineStep.Call ? ((MiddlewarePipelineStep.Call) pipeline).context()
+                                                               : null;
     }
 }
@@ -22,6 +22,7 @@ package holon.internal.routing.annotated;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
+import holon.api.exception.HolonException;
 import holon.api.middleware.Pipeline;
 import holon.spi.RequestContext;
 
@@ -37,47 +38,81 @@ import holon.spi.RequestContext;
  * Middleware has two special powers: They can forward requests up the middleware pipeline and they can inject new
  * request-specific components that become available for dependency injection to components further up the chain.
  *
- * This class represents one step in the pipeline, associated with one middleware handler. It implements the API that
- * the middleware handler can use to interact with its special powers.
+ * This class represents one step in the pipeline, associated with one middleware handler. A step is compiled once per
+ * route and shared by all requests to it, so it holds no request state: each time it is called, the middleware handler
+ * is given a {@link Call}, which implements the API that the handler can use to interact with its special powers for
+ * that one request.
  */
-public class MiddlewarePipelineStep implements Pipeline, Consumer<RequestContext>
+public class MiddlewarePipelineStep implements BiConsumer<RequestContext, MiddlewareContext>
 {
-    private final Consumer<RequestContext> nextInChain;
+    private final BiConsumer<RequestContext, MiddlewareContext> nextInChain;
     private final BiConsumer<RequestContext, Pipeline> middleware;
-    protected final MiddlewareContext ctx;
 
-    private RequestContext request;
-
-    public MiddlewarePipelineStep( Consumer<RequestContext> nextInChain, BiConsumer<RequestContext, Pipeline> middleware,
-                                   MiddlewareContext ctx )
+    public MiddlewarePipelineStep( BiConsumer<RequestContext, MiddlewareContext> nextInChain,
+                                   BiConsumer<RequestContext, Pipeline> middleware )
     {
         this.nextInChain = nextInChain;
         this.middleware = middleware;
-        this.ctx = ctx;
     }
 
     @Override
-    public <T> void satisfyDependency( Class<T> cls, T component )
+    public void accept( RequestContext request, MiddlewareContext ctx )
     {
-        ctx.satisfy( cls, component );
+        middleware.accept( request, new Call( nextInChain, request, ctx ) );
     }
 
-    @Override
-    public void call()
+    /** The end of a middleware stack, the endpoint gets the components that the middleware provided. */
+    public static BiConsumer<RequestContext, MiddlewareContext> endpoint(
+            BiConsumer<RequestContext, Pipeline> endpoint )
     {
-        nextInChain.accept( request );
+        return ( request, ctx ) -> endpoint.accept( request, new Call( null, request, ctx ) );
     }
 
-    @Override
-    public void call( RequestContext req )
+    /** The start of a middleware stack, which gives each request a context of its own. */
+    public static Consumer<RequestContext> stack( BiConsumer<RequestContext, MiddlewareContext> first )
     {
-        nextInChain.accept( req );
+        return ( request ) -> first.accept( request, new MiddlewareContext() );
     }
 
-    @Override
-    public void accept( RequestContext request )
+    /** The pipeline as seen by one handler, for one request. */
+    static final class Call implements Pipeline
     {
-        this.request = request;
-        middleware.accept( request, this );
+        private final BiConsumer<RequestContext, MiddlewareContext> nextInChain;
+        private final RequestContext request;
+        private final MiddlewareContext ctx;
+
+        Call( BiConsumer<RequestContext, MiddlewareContext> nextInChain, RequestContext request, MiddlewareContext ctx )
+        {
+            this.nextInChain = nextInChain;
+            this.request = request;
+            this.ctx = ctx;
+        }
+
+        MiddlewareContext context()
+        {
+            return ctx;
+        }
+
+        @Override
+        public <T> void satisfyDependency( Class<T> cls, T component )
+        {
+            ctx.satisfy( cls, component );
+        }
+
+        @Override
+        public void call()
+        {
+            call( request );
+        }
+
+        @Override
+        public void call( RequestContext req )
+        {
+            if(nextInChain == null)
+            {
+                throw new HolonException( "Endpoints are the end of the pipeline, there is nothing further to call." );
+            }
+            nextInChain.accept( req, ctx );
+        }
     }
 }
@@ -1,9 +1,9 @@
 package holon.internal.routing.annotated;
 
-import holon.api.exception.HolonException;
 import holon.api.http.DELETE;
 import holon.api.http.GET;
 import holon.api.http.HEAD;
+import holon.api.http.NonBlocking;
 import holon.api.http.OPTIONS;
 import holon.api.http.POST;
 import holon.api.http.PUT;
@@ -17,6 +17,7 @@ import holon.internal.routing.annotated.injection.ComponentInjectionStrategy;
 import holon.internal.routing.annotated.injection.CookieParamInjectionStrategy;
 import holon.internal.routing.annotated.injection.FormParamInjectionStrategy;
 import holon.internal.routing.annotated.injection.HeaderParamInjectionStrategy;
+import holon.internal.routing.annotated.injection.JsonBodyInjectionStrategy;
 import holon.internal.routing.annotated.injection.MiddlewareProvidedArgStrategy;
 import holon.internal.routing.annotated.injection.PathParamInjectionStrategy;
 import holon.internal.routing.annotated.injection.QueryParamInjectionStrategy;
@@ -27,7 +28,6 @@ import holon.spi.Route;
 import holon.util.collection.Pair;
 
 import java.lang.annotation.Annotation;
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.List;
@@ -45,7 +45,7 @@ import static java.util.Arrays.asList;
  */
 public class RouteCompiler
 {
-    private final ArgInjectionStrategy[] endpointInjectionStrategies;
+    private final ArgInjectionStrategy[] injectionStrategies;
     private final DependencyInjector dependencyInjector;
     private final List<Class<?>> globalMiddleware;
 
@@ -53,50 +53,54 @@ public class RouteCompiler
     {
         this.globalMiddleware = reverse(new ArrayList<>(globalMiddleware));
         this.dependencyInjector = new DependencyInjector( components );
-        endpointInjectionStrategies = new ArgInjectionStrategy[]{
+        injectionStrategies = new ArgInjectionStrategy[]{
             new ComponentInjectionStrategy(components),
             new RequestInjectionStrategy(),
             new FormParamInjectionStrategy(),
+            new JsonBodyInjectionStrategy(),
             new PathParamInjectionStrategy(),
             new QueryParamInjectionStrategy(),
             new CookieParamInjectionStrategy(),
-            new HeaderParamInjectionStrategy()
+            new HeaderParamInjectionStrategy(),
+            new MiddlewareProvidedArgStrategy()
         };
     }
 
     public Route compile( String basePath, Class<?> cls, Method method, Annotation annotation )
     {
-        MiddlewareContext mwProvidedDeps = new MiddlewareContext();
-        MiddlewareProvidedArgStrategy middleDepsInjectionStrategy = new MiddlewareProvidedArgStrategy( mwProvidedDeps );
-
-        Consumer<RequestContext> endpoint = createEndpoint( dependencyInjector.instantiate( cls ), method,
-               middleDepsInjectionStrategy );
-
-        endpoint = buildMiddlewareStack( cls, method, mwProvidedDeps, middleDepsInjectionStrategy, endpoint );
+        Consumer<RequestContext> endpoint = buildMiddlewareStack( cls, method,
+                createPipelineHandler( dependencyInjector.instantiate( cls ), method ) );
+        boolean blocking = !method.isAnnotationPresent( NonBlocking.class );
 
         if(annotation instanceof GET )
         {
-            return new CallbackRoute( HttpMethod.Standard.GET, basePath + ((GET)annotation).value(), endpoint );
+            return new CallbackRoute( HttpMethod.Standard.GET, basePath + ((GET)annotation).value(), endpoint,
+                    blocking );
         }
         else if(annotation instanceof POST )
         {
-            return new CallbackRoute( HttpMethod.Standard.POST, basePath + ((POST)annotation).value(), endpoint );
+            return new CallbackRoute( HttpMethod.Standard.POST, basePath + ((POST)annotation).value(), endpoint,
+                    blocking );
         }
         else if(annotation instanceof PUT )
         {
-            return new CallbackRoute( HttpMethod.Standard.PUT, basePath + ((PUT)annotation).value(), endpoint );
+            return new CallbackRoute( HttpMethod.Standard.PUT, basePath + ((PUT)annotation).value(), endpoint,
+                    blocking );
         }
         else if(annotation instanceof DELETE )
         {
-            return new CallbackRoute( HttpMethod.Standard.DELETE, basePath + ((DELETE)annotation).value(), endpoint );
+            return new CallbackRoute( HttpMethod.Standard.DELETE, basePath + ((DELETE)annotation).value(), endpoint,
+                    blocking );
         }
         else if(annotation instanceof HEAD )
         {
-            return new CallbackRoute( HttpMethod.Standard.HEAD, basePath + ((HEAD)annotation).value(), endpoint );
+            return new CallbackRoute( HttpMethod.Standard.HEAD, basePath + ((HEAD)annotation).value(), endpoint,
+                    blocking );
         }
         else if(annotation instanceof OPTIONS )
         {
-            return new CallbackRoute( HttpMethod.Standard.OPTIONS, basePath + ((OPTIONS)annotation).value(), endpoint );
+            return new CallbackRoute( HttpMethod.Standard.OPTIONS, basePath + ((OPTIONS)annotation).value(), endpoint,
+                    blocking );
         }
         else
         {
@@ -104,33 +108,36 @@ public class RouteCompiler
         }
     }
 
-    private Consumer<RequestContext> buildMiddlewareStack( Class<?> cls, Method method, MiddlewareContext mwProvidedDeps, MiddlewareProvidedArgStrategy middleDepsInjectionStrategy, Consumer<RequestContext> endpoint )
+    /**
+     * Put the middleware for the route in front of the endpoint. Routes without middleware call the endpoint
+     * straight away, others set up a {@link MiddlewareContext} for each request to carry what the middleware provides.
+     */
+    private Consumer<RequestContext> buildMiddlewareStack( Class<?> cls, Method method,
+                                                           BiConsumer<RequestContext, Pipeline> endpoint )
     {
-        for ( Pair<Pair<Class<?>, Annotation>, Method> middleware : listMiddleware( cls, method ) )
+        List<Pair<Pair<Class<?>, Annotation>, Method>> middlewares = listMiddleware( cls, method );
+        if(middlewares.isEmpty())
+        {
+            return (ctx) -> endpoint.accept( ctx, null );
+        }
+
+        BiConsumer<RequestContext, MiddlewareContext> stack = MiddlewarePipelineStep.endpoint( endpoint );
+        for ( Pair<Pair<Class<?>, Annotation>, Method> middleware : middlewares )
         {
             Class<?> middlewareClass = middleware.first().first();
             Object middlewareAnnotation = middleware.first().second();
             BiConsumer<RequestContext, Pipeline> handler = createPipelineHandler(
                     dependencyInjector.instantiate( middlewareClass, asList( middlewareAnnotation ) ),
-                    middleware.second(), middleDepsInjectionStrategy );
+                    middleware.second() );
 
-            endpoint = new MiddlewarePipelineStep( endpoint, handler, mwProvidedDeps );
+            stack = new MiddlewarePipelineStep( stack, handler );
         }
-        return endpoint;
+        return MiddlewarePipelineStep.stack( stack );
     }
 
-    private Consumer<RequestContext> createEndpoint( Object obj, Method method, MiddlewareProvidedArgStrategy middleDeps )
+    private BiConsumer<RequestContext, Pipeline> createPipelineHandler( Object obj, Method method )
     {
-        BiConsumer<RequestContext, Pipeline> endpoint = createPipelineHandler( obj, method, middleDeps );
-        return (ctx) -> endpoint.accept( ctx, null );
-    }
-
-    private BiConsumer<RequestContext, Pipeline> createPipelineHandler( Object obj, Method method,
-                                                                 MiddlewareProvidedArgStrategy middleDeps )
-    {
-        // middleDeps handled separately as they are stateful, so we need one per endpoint stack.
-        ArgInjectionStrategy[] injectionStrategies = concat( endpointInjectionStrategies, new ArgInjectionStrategy[]{middleDeps} );
-
+        // Only collects the arguments that are the same for every request, the compiled handler does not share it
         Object[] args = new Object[method.getParameterCount()];
         List<ArgumentInjector> injectorList = new ArrayList<>();
 
@@ -153,30 +160,8 @@ public class RouteCompiler
             }
         }
 
-        // Convert to primitive array to avoid creating iterators during runtime
-        ArgumentInjector[] injectors = injectorList.toArray(new ArgumentInjector[injectorList.size()]);
-
-        return ( ctx, pipe ) -> {
-            try
-            {
-                for ( ArgumentInjector argumentInjector : injectors )
-                {
-                    argumentInjector.apply( args, ctx, pipe );
-                }
-
-                method.invoke( obj, args );
-            }
-            catch ( IllegalArgumentException | IllegalAccessException | InvocationTargetException e )
-            {
-                // To avoid huge exception chains caused by an exception thrown deep inside a route, where each
-                // wrapping middleware would add two exceptions, we unwrap exceptions here if possible.
-                if(e.getCause() != null && e.getCause() instanceof RuntimeException)
-                {
-                    throw (RuntimeException)e.getCause();
-                }
-                throw new HolonException( "Failed to handle request.", e );
-            }
-        };
+        return EndpointInvoker.compile( obj, method, args,
+                injectorList.toArray( new ArgumentInjector[injectorList.size()] ) );
     }
 
     private List<Pair<Pair<Class<?>, Annotation>, Method>> listMiddleware( Class<?> cls, Method method )
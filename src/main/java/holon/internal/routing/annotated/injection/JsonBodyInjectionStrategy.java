@@ -0,0 +1,60 @@
+package holon.internal.routing.annotated.injection;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import holon.api.exception.BadRequestException;
+import holon.api.http.JsonBody;
+import holon.api.middleware.Pipeline;
+import holon.internal.routing.annotated.ArgInjectionStrategy;
+import holon.spi.RequestContext;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.annotation.Annotation;
+
+import static holon.internal.routing.annotated.AnnotationExtractor.findAnnotation;
+
+/**
+ * Binds JSON request bodies to the type of the argument. The reader for each argument is set up when the route is
+ * compiled, with the deserializer for its type looked up already, and the body is parsed as UTF-8 bytes, straight off
+ * the buffers it arrived in. Missing and malformed bodies are the client's fault, and are answered with 400 Bad Request,
+ * see {@link BadRequestException}.
+ */
+public class JsonBodyInjectionStrategy implements ArgInjectionStrategy
+{
+    /** Shared, so that routes binding the same type share its deserializer. */
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @Override
+    public boolean appliesTo( Class<?> type, Annotation[] annotations )
+    {
+        return findAnnotation( JsonBody.class, annotations ) != null;
+    }
+
+    @Override
+    public ArgumentInjector satisfyArgument( Object[] args, int position, Class<?> type, Annotation[] annotations )
+    {
+        final ObjectReader reader = MAPPER.reader( type );
+        return new ArgumentInjector(position)
+        {
+            @Override
+            public Object generateArgument( RequestContext ctx, Pipeline pipeline ) throws IOException
+            {
+                InputStream body = ctx.body();
+                if(body == null)
+                {
+                    throw new BadRequestException( "Missing required JSON request body." );
+                }
+                try
+                {
+                    return reader.readValue( body );
+                }
+                catch ( JsonProcessingException e )
+                {
+                    throw new BadRequestException( "Malformed JSON request body: " + e.getOriginalMessage(), e );
+                }
+            }
+        };
+    }
+}
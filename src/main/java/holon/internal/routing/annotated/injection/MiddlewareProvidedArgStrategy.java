@@ -21,7 +21,6 @@ package holon.internal.routing.annotated.injection;
 
 import java.io.IOException;
 import java.lang.annotation.Annotation;
-import java.util.function.Supplier;
 
 import holon.api.middleware.Pipeline;
 import holon.internal.routing.annotated.ArgInjectionStrategy;
@@ -29,16 +28,11 @@ import holon.internal.routing.annotated.MiddlewareContext;
 import holon.spi.RequestContext;
 
 /**
- * This satisfies dependency injection by injecting request-specific components provided by middleware layers.
+ * This satisfies dependency injection by injecting request-specific components provided by middleware layers, which
+ * are found through the pipeline the handler is called with, see {@link MiddlewareContext#of(Pipeline)}.
  */
 public class MiddlewareProvidedArgStrategy implements ArgInjectionStrategy
 {
-    private final MiddlewareContext deps;
-
-    public MiddlewareProvidedArgStrategy( MiddlewareContext deps )
-    {
-        this.deps = deps;
-    }
 
     @Override
     public boolean appliesTo( Class<?> type, Annotation[] annotations )
@@ -50,13 +44,13 @@ public class MiddlewareProvidedArgStrategy implements ArgInjectionStrategy
     @Override
     public ArgumentInjector satisfyArgument( Object[] args, int position, Class<?> type, Annotation[] annotations )
     {
-        Supplier<Object> supplier = deps.newSupplier( type, annotations );
         return new ArgumentInjector(position)
         {
             @Override
             public Object generateArgument( RequestContext ctx, Pipeline pipeline ) throws IOException
             {
-                return supplier.get();
+                MiddlewareContext deps = MiddlewareContext.of( pipeline );
+                return deps == null ? null : deps.component( type );
             }
         };
     }
@@ -2,6 +2,7 @@ package holon.internal.routing.basic;
 
 import java.util.function.Consumer;
 
+import holon.api.exception.BadRequestException;
 import holon.api.http.Status;
 import holon.internal.http.common.ErrorContent;
 import holon.internal.routing.HttpMethod;
@@ -17,12 +18,19 @@ public class CallbackRoute implements Route
     private final HttpMethod httpMethod;
     private final PathPattern path;
     private final Consumer<RequestContext> endpoint;
+    private final boolean blocking;
 
     public CallbackRoute( HttpMethod httpMethod, String path, Consumer<RequestContext> endpoint )
+    {
+        this( httpMethod, path, endpoint, true );
+    }
+
+    public CallbackRoute( HttpMethod httpMethod, String path, Consumer<RequestContext> endpoint, boolean blocking )
     {
         this.httpMethod = httpMethod;
         this.path = BasicPathPattern.compile( path );
         this.endpoint = endpoint;
+        this.blocking = blocking;
     }
 
     @Override
@@ -37,6 +45,12 @@ public class CallbackRoute implements Route
         return path;
     }
 
+    @Override
+    public boolean isBlocking()
+    {
+        return blocking;
+    }
+
     @Override
     public void call( RequestContext context )
     {
@@ -44,6 +58,10 @@ public class CallbackRoute implements Route
         {
             endpoint.accept( context );
         }
+        catch(BadRequestException e)
+        {
+            context.respond( Status.Code.BAD_REQUEST );
+        }
         catch(Throwable e)
         {
             e.printStackTrace();//TODO
@@ -1,128 +1,330 @@
 package holon.internal.routing.basic;
 
+import holon.api.exception.HolonException;
+import holon.internal.routing.HttpMethod;
 import holon.internal.routing.path.PathTreeCompiler;
 import holon.internal.routing.path.PatternSegment;
 import holon.spi.RequestContext;
 import holon.spi.Route;
+import holon.util.collection.LRUMap;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
 
 /**
  * A router implementation, this is single threaded, and does not support recursive
  * calls (eg. you can't call invoke another route while executing one).
+ *
+ * The pattern tree from {@link PathTreeCompiler} is compiled into nodes that find their static children through a
+ * hash table, so the cost of routing depends on the length of the path rather than on the number of routes. Paths are
+ * not split into strings; segments are kept as offsets into the request uri, and the hash of each segment is computed
+ * over those offsets. Together with routes being keyed on {@link HttpMethod.Standard}, routing a request to a route in
+ * the tree allocates nothing.
+ *
+ * Paths that miss the tree are matched against the dynamic routes in order. If all dynamic routes for a method are
+ * versioned, see {@link Route.PathPattern#version()}, the outcome, including that nothing matched, is remembered per
+ * path until one of the versions changes. Repeated requests for the same paths, like a bot scanning for files that
+ * are not there, then don't ask the routes again.
  */
 public class TreeRouter
 {
     public static final String[] NO_SEGMENTS = new String[]{};
-    private final PatternSegment[] routeTree;
-    private final Map<String, List<Route>> dynamicRoutes;
+
+    /** Must be a power of two, see {@link LRUMap}. */
+    private static final int DYNAMIC_MATCH_SLOTS = 1024;
+
+    private final Map<HttpMethod.Standard, Node> routeTrees;
+    private final Map<HttpMethod.Standard, List<Route>> dynamicRoutes;
+    private final Map<HttpMethod.Standard, LRUMap<String, DynamicMatch>> dynamicMatches;
 
     private final Route notFoundRoute;
     private final PatternSegment.ParamHandlingPath reusablePath = new PatternSegment.ParamHandlingPath();
 
+    /** Start and end offsets of each segment in the path being routed, see {@link PatternSegment#invoke}. */
+    private int[] segmentBounds = new int[32];
+    private int segmentCount;
+
     public TreeRouter( Iterable<Route> routes, Route notFoundRoute )
     {
         this.notFoundRoute = notFoundRoute;
         dynamicRoutes = buildDynamicRoutes( routes );
-        routeTree = buildRouteTree( routes );
+        dynamicMatches = new EnumMap<>( HttpMethod.Standard.class );
+        dynamicRoutes.keySet().forEach( ( m ) -> dynamicMatches.put( m, new LRUMap<>( DYNAMIC_MATCH_SLOTS ) ) );
+        routeTrees = buildRouteTrees( routes );
     }
 
-    public void invoke( String method, String path, RequestContext ctx )
+    /**
+     * @param method the request method, or null for methods we don't know of, which are routed to the not found route
+     * @param uri the request uri, anything from a '?' onwards is ignored
+     */
+    public void invoke( HttpMethod.Standard method, String uri, RequestContext ctx )
     {
+        int pathEnd = uri.indexOf( '?' );
+        if(pathEnd == -1)
+        {
+            pathEnd = uri.length();
+        }
+
         // First, try routing through the pattern tree
-        String[] pathSegments = segmentPath( path );
-        PatternSegment found = traverseRouteTree( pathSegments, method, 0, routeTree );
+        segmentPath( uri, pathEnd );
+        Node methodTree = method == null ? null : routeTrees.get( method );
+        PatternSegment found = methodTree == null ? null : traverseRouteTree( methodTree, uri, 0 );
         if(found != null)
         {
-            found.invoke( pathSegments, path, ctx );
+            found.invoke( uri, pathEnd, segmentBounds, ctx );
             return;
         }
 
         // Route was not in our tree, fall back to dynamic path matching (routes that match using custom java code)
-        ctx.initialize( reusablePath.initialize( path, pathSegments ) );
+        ctx.initialize( reusablePath.initializeFromBounds( uri, pathEnd, segmentBounds ) );
 
         // And then find a dynamic path that likes this request
-        List<Route> list = dynamicRoutes.get( method );
-        if(list != null)
+        List<Route> list = method == null ? null : dynamicRoutes.get( method );
+        Route route = list == null ? null : matchDynamic( list, dynamicMatches.get( method ), reusablePath.fullPath() );
+        if(route != null)
         {
-            for ( Route route : list )
-            {
-                if(route.pattern().matches( path ))
-                {
-                    route.call( ctx );
-                    return;
-                }
-            }
+            route.call( ctx );
+            return;
         }
 
         notFoundRoute.call( ctx );
     }
 
-    private String[] segmentPath( String path )
+    private Route matchDynamic( List<Route> routes, LRUMap<String, DynamicMatch> matches, String path )
     {
-        if(path.startsWith( "/" ))
+        // Read before matching, so that if a pattern changes while we match, what we remember is already outdated
+        long version = version( routes );
+        DynamicMatch match = null;
+        if(version != Route.PathPattern.UNVERSIONED)
         {
-            path = path.substring( 1 );
+            match = matches.get( path );
+            if(match != null && match.version == version)
+            {
+                return match.route;
+            }
         }
 
-        if(path.length() == 0)
+        Route found = null;
+        for ( Route route : routes )
         {
-            return NO_SEGMENTS;
+            if(route.pattern().matches( path ))
+            {
+                found = route;
+                break;
+            }
         }
 
-        return path.split( "/" );
+        if(version != Route.PathPattern.UNVERSIONED)
+        {
+            if(match == null)
+            {
+                matches.put( path, new DynamicMatch( found, version ) );
+            }
+            else
+            {
+                match.route = found;
+                match.version = version;
+            }
+        }
+        return found;
     }
 
-    private PatternSegment traverseRouteTree( String[] segments, String currentSegment, int currentSegmentIndex, PatternSegment[] tree )
+    /** A combined version of the given routes, or UNVERSIONED if any of them is. */
+    private long version( List<Route> routes )
     {
-        for ( PatternSegment patternSegment : tree )
+        long version = 0;
+        for ( Route route : routes )
         {
-            if(patternSegment.matches( currentSegment ))
+            long routeVersion = route.pattern().version();
+            if(routeVersion == Route.PathPattern.UNVERSIONED)
             {
-                if( currentSegmentIndex == segments.length )
-                {
-                    if(patternSegment.isCompleteRoute())
-                    {
-                        return patternSegment;
-                    }
-                }
-                else
-                {
-                    PatternSegment found = traverseRouteTree(
-                            segments, segments[currentSegmentIndex],
-                            currentSegmentIndex+1, patternSegment.children() );
-                    if(found != null)
-                    {
-                        return found;
-                    }
-                }
+                return Route.PathPattern.UNVERSIONED;
+            }
+            // Versions only ever grow, so the sum changes whenever any of them does
+            version += routeVersion;
+        }
+        return version;
+    }
+
+    /**
+     * Find the segments of the path, the way String#split would: a leading slash is ignored, and so are empty
+     * trailing segments.
+     */
+    private void segmentPath( String uri, int pathEnd )
+    {
+        int length = pathEnd;
+        int start = length > 0 && uri.charAt( 0 ) == '/' ? 1 : 0;
+        int count = 0, nonEmpty = 0;
+        while(start < length)
+        {
+            int end = uri.indexOf( '/', start );
+            if(end == -1 || end > length)
+            {
+                end = length;
+            }
+
+            if(count * 2 + 1 >= segmentBounds.length)
+            {
+                int[] grown = new int[segmentBounds.length * 2];
+                System.arraycopy( segmentBounds, 0, grown, 0, segmentBounds.length );
+                segmentBounds = grown;
+            }
+            segmentBounds[count * 2] = start;
+            segmentBounds[count * 2 + 1] = end;
+            count++;
+            if(end > start)
+            {
+                nonEmpty = count;
+            }
+            start = end + 1;
+        }
+        segmentCount = nonEmpty;
+    }
+
+    private PatternSegment traverseRouteTree( Node node, String path, int segment )
+    {
+        if(segment == segmentCount)
+        {
+            return node.segment.isCompleteRoute() ? node.segment : null;
+        }
+
+        int start = segmentBounds[segment * 2], end = segmentBounds[segment * 2 + 1];
+        Node child = node.child( path, start, end );
+        if(child != null)
+        {
+            PatternSegment found = traverseRouteTree( child, path, segment + 1 );
+            if(found != null)
+            {
+                return found;
             }
         }
-        return null;
+
+        // Static segments take precedence, but if the path could not be routed through them, try the wildcard
+        return node.wildcard == null ? null : traverseRouteTree( node.wildcard, path, segment + 1 );
     }
 
-    private PatternSegment[] buildRouteTree( Iterable<Route> routes )
+    private Map<HttpMethod.Standard, Node> buildRouteTrees( Iterable<Route> routes )
     {
-        return new PathTreeCompiler().compile( routes );
+        // The compiled tree has the methods as its first level, each becomes a tree of its own
+        Map<HttpMethod.Standard, Node> trees = new EnumMap<>( HttpMethod.Standard.class );
+        for ( PatternSegment methodSegment : new PathTreeCompiler().compile( routes ) )
+        {
+            trees.put( method( methodSegment.value() ), new Node( methodSegment, methodSegment.children() ) );
+        }
+        return trees;
     }
 
-    private Map<String, List<Route>> buildDynamicRoutes( Iterable<Route> routes )
+    private Map<HttpMethod.Standard, List<Route>> buildDynamicRoutes( Iterable<Route> routes )
     {
-        Map<String, List<Route>> rs = new HashMap<>(1024, 0.5f);
+        Map<HttpMethod.Standard, List<Route>> rs = new EnumMap<>( HttpMethod.Standard.class );
         routes.forEach( (route) ->{
             if(route.pattern().isDynamic())
             {
-                if(!rs.containsKey( route.method() ))
-                {
-                    rs.put( route.method().toLowerCase(), new ArrayList<>() );
-                }
-                rs.get( route.method().toLowerCase() ).add( route );
+                rs.computeIfAbsent( method( route.method() ), ( m ) -> new ArrayList<>() ).add( route );
             }
         });
         return rs;
     }
 
+    private static HttpMethod.Standard method( String name )
+    {
+        HttpMethod.Standard method = HttpMethod.Standard.of( name );
+        if(method == null)
+        {
+            throw new HolonException( "Unsupported HTTP method for route: '" + name + "'." );
+        }
+        return method;
+    }
+
+    /** The dynamic route a path matched, or null if none did, as of the given combined version. */
+    private static class DynamicMatch
+    {
+        private Route route;
+        private long version;
+
+        DynamicMatch( Route route, long version )
+        {
+            this.route = route;
+            this.version = version;
+        }
+    }
+
+    /**
+     * A compiled pattern segment. Static children are kept in an open addressing table, at most half full, keyed on
+     * the same hash as {@link String#hashCode()}, so that a child can be found from a range of the path without
+     * creating a string for it.
+     */
+    private static class Node
+    {
+        private final PatternSegment segment;
+        private final String[] keys;
+        private final Node[] children;
+        private final int mask;
+        private final Node wildcard;
+
+        Node( PatternSegment segment, PatternSegment[] childSegments )
+        {
+            this.segment = segment;
+
+            int size = Integer.highestOneBit( Math.max( 1, childSegments.length ) * 2 ) * 2;
+            this.keys = new String[size];
+            this.children = new Node[size];
+            this.mask = size - 1;
+
+            Node wildcard = null;
+            for ( PatternSegment child : childSegments )
+            {
+                Node node = new Node( child, child.children() );
+                String key = child.value();
+                if(key == null)
+                {
+                    wildcard = node;
+                    continue;
+                }
+
+                int slot = spread( key.hashCode() ) & mask;
+                while(keys[slot] != null && !keys[slot].equals( key ))
+                {
+                    slot = (slot + 1) & mask;
+                }
+                if(keys[slot] == null)
+                {
+                    keys[slot] = key;
+                    children[slot] = node;
+                }
+            }
+            this.wildcard = wildcard;
+        }
+
+        /** The static child matching the given range of the path, or null. */
+        Node child( String path, int start, int end )
+        {
+            int hash = 0;
+            for ( int i = start; i < end; i++ )
+            {
+                hash = 31 * hash + path.charAt( i );
+            }
+
+            int length = end - start;
+            for ( int slot = spread( hash ) & mask; ; slot = (slot + 1) & mask )
+            {
+                String key = keys[slot];
+                if(key == null)
+                {
+                    return null;
+                }
+                if(key.length() == length && path.regionMatches( start, key, 0, length ))
+                {
+                    return children[slot];
+                }
+            }
+        }
+
+        private static int spread( int hash )
+        {
+            return hash ^ (hash >>> 16);
+        }
+    }
 }
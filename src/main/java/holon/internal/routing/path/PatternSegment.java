@@ -39,7 +39,17 @@ public interface PatternSegment
 {
     boolean matches(String segment);
 
-    void invoke( String[] allSegments, String path, RequestContext ctx );
+    /** The segment this matches, or null if it matches any segment. */
+    String value();
+
+    /**
+     * Invoke the route at this segment.
+     *
+     * @param uri the request uri, of which the path is the first pathEnd characters
+     * @param segmentBounds start and end offsets into the uri of each segment, start of segment n at index 2n
+     *                      and its end at 2n+1
+     */
+    void invoke( String uri, int pathEnd, int[] segmentBounds, RequestContext ctx );
 
     PatternSegment[] children();
 
@@ -75,9 +85,15 @@ public interface PatternSegment
         }
 
         @Override
-        public final void invoke( String[] allSegments, String fullPath, RequestContext ctx )
+        public final String value()
+        {
+            return segmentValue;
+        }
+
+        @Override
+        public final void invoke( String uri, int pathEnd, int[] segmentBounds, RequestContext ctx )
         {
-            route.call( ctx.initialize( path.initialize( fullPath, allSegments ) ) );
+            route.call( ctx.initialize( path.initializeFromBounds( uri, pathEnd, segmentBounds ) ) );
         }
 
         @Override
@@ -129,9 +145,15 @@ public interface PatternSegment
         }
 
         @Override
-        public final void invoke( String[] allSegments, String fullPath, RequestContext ctx )
+        public final String value()
+        {
+            return null;
+        }
+
+        @Override
+        public final void invoke( String uri, int pathEnd, int[] segmentBounds, RequestContext ctx )
         {
-            route.call(ctx.initialize( path.initialize( fullPath, allSegments ) ));
+            route.call(ctx.initialize( path.initializeFromBounds( uri, pathEnd, segmentBounds ) ));
         }
 
         @Override
@@ -163,12 +185,19 @@ public interface PatternSegment
         }
     }
 
-    /** This is the facade we expose to routes when they are invoked. */
+    /**
+     * This is the facade we expose to routes when they are invoked. Segments are either given as strings, or as
+     * offsets into the request uri, in which case neither the path nor a parameter becomes a string unless the route
+     * asks for it.
+     */
     static class ParamHandlingPath implements Path
     {
         private final Map<String, Integer> segmentKeys;
+        private String uri;
+        private int pathEnd;
         private String path;
         private String[] segments;
+        private int[] segmentBounds;
 
         public ParamHandlingPath()
         {
@@ -184,7 +213,15 @@ public interface PatternSegment
         public final String param( String key )
         {
             Integer segmentIndex = segmentKeys.get( key );
-            if(segmentIndex != null && segments.length > segmentIndex)
+            if(segmentIndex == null)
+            {
+                return null;
+            }
+            if(segmentBounds != null)
+            {
+                return uri.substring( segmentBounds[segmentIndex * 2], segmentBounds[segmentIndex * 2 + 1] );
+            }
+            if(segments != null && segments.length > segmentIndex)
             {
                 return segments[segmentIndex];
             }
@@ -194,13 +231,30 @@ public interface PatternSegment
         @Override
         public final String fullPath()
         {
+            if(path == null && uri != null)
+            {
+                path = pathEnd == uri.length() ? uri : uri.substring( 0, pathEnd );
+            }
             return path;
         }
 
         public final ParamHandlingPath initialize( String path, String[] segments )
         {
+            this.uri = path;
+            this.pathEnd = path == null ? 0 : path.length();
             this.path = path;
             this.segments = segments;
+            this.segmentBounds = null;
+            return this;
+        }
+
+        public final ParamHandlingPath initializeFromBounds( String uri, int pathEnd, int[] segmentBounds )
+        {
+            this.uri = uri;
+            this.pathEnd = pathEnd;
+            this.path = null;
+            this.segments = null;
+            this.segmentBounds = segmentBounds;
             return this;
         }
     }
@@ -6,6 +6,7 @@ import holon.api.http.RequestHeaders;
 import holon.internal.routing.path.Path;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.SocketAddress;
 import java.util.Map;
 
@@ -21,6 +22,14 @@ public interface RequestContext extends Request
     @Deprecated
     Map<String, Object> formData() throws IOException;
 
+    /**
+     * The body of a request that is not form data, like a JSON request, or null if there is none. Can be read once.
+     */
+    default InputStream body() throws IOException
+    {
+        return null;
+    }
+
     // Temporary
     @Deprecated
     RequestHeaders headers();
@@ -4,6 +4,9 @@ public interface Route
 {
     public interface PathPattern
     {
+        /** Returned by {@link #version()} by patterns whose matches may not be remembered. */
+        long UNVERSIONED = -1;
+
         /**
          * This pattern is implemented in dynamic code, the engine is not allowed to try and bypass the pattern
          * matching with its own mechanisms.
@@ -24,10 +27,29 @@ public interface Route
          * Determine if this pattern matches a specific path.
          */
         boolean matches(String path);
+
+        /**
+         * For dynamic patterns, a stamp that grows whenever the set of paths this pattern matches may have changed.
+         * As long as it stays the same, engines may remember which paths matched, and which did not, rather than
+         * asking again. Patterns that return {@link #UNVERSIONED}, the default, are asked every time.
+         */
+        default long version()
+        {
+            return UNVERSIONED;
+        }
     }
 
     String method();
     PathPattern pattern();
 
     void call( RequestContext req );
+
+    /**
+     * Routes that never block may be called directly on network threads by engines that support it. Routes are
+     * assumed to block unless they say otherwise.
+     */
+    default boolean isBlocking()
+    {
+        return true;
+    }
 }
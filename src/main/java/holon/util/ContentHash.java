@@ -0,0 +1,80 @@
+package holon.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Builds etags from a fast, non-cryptographic hash of a body, fed incrementally so that it can be computed while the
+ * body is being read or written for some other reason, rather than in a pass of its own.
+ *
+ * The hash is a CRC32 of the bytes, which the JVM computes with hardware instructions where they exist, combined with
+ * the length. That is plenty to tell two versions of one resource apart, which is all an etag needs to do; unlike
+ * {@link Digest#md5(String)}, it is not meant to tell arbitrary content apart.
+ */
+public class ContentHash
+{
+    private static final int BUFFER_SIZE = 1024 * 8;
+
+    private final CRC32 crc = new CRC32();
+    private long length;
+
+    public ContentHash update( int b )
+    {
+        crc.update( b );
+        length++;
+        return this;
+    }
+
+    public ContentHash update( byte[] bytes, int offset, int count )
+    {
+        crc.update( bytes, offset, count );
+        length += count;
+        return this;
+    }
+
+    /** Hash the remaining bytes of the buffer, without moving its position. */
+    public ContentHash update( ByteBuffer bytes )
+    {
+        length += bytes.remaining();
+        crc.update( bytes.duplicate() );
+        return this;
+    }
+
+    /** Hash the full contents of the channel, using positional reads, so the position of the channel is left as is. */
+    public ContentHash update( FileChannel channel ) throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate( BUFFER_SIZE );
+        long position = 0;
+        int read;
+        while((read = channel.read( buffer, position )) != -1)
+        {
+            buffer.flip();
+            update( buffer );
+            position += read;
+            buffer.clear();
+        }
+        return this;
+    }
+
+    /** A strong etag, quoted, for the bytes hashed so far. */
+    public String etag()
+    {
+        return '"' + Long.toHexString( crc.getValue() ) + '-' + Long.toHexString( length ) + '"';
+    }
+
+    public static String etag( byte[] bytes )
+    {
+        return new ContentHash().update( bytes, 0, bytes.length ).etag();
+    }
+
+    /**
+     * A weak etag from the size and modification time of a file. This costs no reads at all, but it changes whenever
+     * the file is touched, and differs between nodes that got the same file at different times.
+     */
+    public static String weakEtag( long size, long lastModifiedMillis )
+    {
+        return "W/\"" + Long.toHexString( lastModifiedMillis ) + '-' + Long.toHexString( size ) + '"';
+    }
+}
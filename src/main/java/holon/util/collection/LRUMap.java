@@ -94,7 +94,7 @@ public class LRUMap<K, V> implements Map<K, V>
         int index = index( key );
         LRUEntry<K,V> entry = buckets[index];
 
-        while(entry != null && entry.next != null)
+        while(entry != null)
         {
             if(entry.key.equals( key ))
             {
@@ -110,6 +110,11 @@ public class LRUMap<K, V> implements Map<K, V>
         entry = newEntry( key, value );
         entry.next = buckets[index];
         buckets[index] = entry;
+        if(index == clockBucket && prevClockEntry == null && clockEntry == entry.next && clockEntry != null)
+        {
+            // The clock is at the old head of this bucket, which now comes after the new entry
+            prevClockEntry = entry;
+        }
         return null;
     }
 
@@ -151,10 +156,11 @@ public class LRUMap<K, V> implements Map<K, V>
                     {
                         buckets[clockBucket] = clockEntry.next;
                     }
-                    removeHandler.accept( clockEntry.key, clockEntry.value );
-
+                    K removedKey = clockEntry.key;
+                    V removedValue = clockEntry.value;
                     LRUEntry<K, V> next = clockEntry.next;
                     addToFreelist( clockEntry );
+                    removeHandler.accept( removedKey, removedValue );
                     clockEntry = next;
                     size--;
                     return;
@@ -190,11 +196,20 @@ public class LRUMap<K, V> implements Map<K, V>
                     buckets[index] = entry.next;
                 }
                 size--;
+                if(entry == clockEntry || entry == prevClockEntry)
+                {
+                    // Start the clock over at the next bucket, rather than follow an entry that is no longer there
+                    clockEntry = null;
+                    prevClockEntry = null;
+                }
+
+                K removedKey = entry.key;
+                V removedValue = entry.value;
                 addToFreelist( entry );
 
-                removeHandler.accept( entry.key, entry.value );
+                removeHandler.accept( removedKey, removedValue );
 
-                return entry.value;
+                return removedValue;
             }
             previous = entry;
             entry = entry.next;
@@ -229,11 +244,15 @@ public class LRUMap<K, V> implements Map<K, V>
             }
         }
         size = 0;
+        clockEntry = null;
+        prevClockEntry = null;
     }
 
     private void addToFreelist( LRUEntry<K, V> entry )
     {
         entry.usageCount = -1;
+        entry.key = null;
+        entry.value = null;
         entry.next = nextFree;
         nextFree = entry;
     }
@@ -259,7 +278,7 @@ public class LRUMap<K, V> implements Map<K, V>
     private LRUEntry<K,V> findEntry( Object key )
     {
         LRUEntry<K,V> entry = buckets[ index( key ) ];
-        while(entry != null && !entry.key.equals( key ) && entry.next != null)
+        while(entry != null && !entry.key.equals( key ))
         {
             entry = entry.next;
         }
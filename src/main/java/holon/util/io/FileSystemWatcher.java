@@ -33,12 +33,16 @@ public class FileSystemWatcher implements Scheduler.Job
     @FunctionalInterface
     public interface FSEventHandler
     {
+        /**
+         * @param path the changed file, relative to the watched folder, or null for an OVERFLOW event, meaning events
+         *             were lost and anything may have changed
+         */
         void onFileEvent( WatchEvent.Kind kind, Path path );
     }
 
     private final FSEventHandler handler;
+    private final FileSystem fs;
     private final Path basePath;
-    private final WatchService watchService;
 
     /** This tracks the highest found modification time in the file tree we're monitoring, to check for changes.  */
     private Map<Path, Long> modificationTimes = new HashMap<>();
@@ -48,24 +52,18 @@ public class FileSystemWatcher implements Scheduler.Job
     public FileSystemWatcher( FileSystem fs, Path basePath, FSEventHandler handler )
     {
         this.handler = handler;
-        try
-        {
-            this.basePath = basePath;
-            this.watchService = fs.newWatchService();
-        }
-        catch ( IOException e)
-        {
-            throw new RuntimeException( e );
-        }
+        this.fs = fs;
+        this.basePath = basePath;
     }
 
     @Override
     public void run()
     {
         stopped = false;
-        try
+        // Opened here rather than up front, so that watchers that are never scheduled hold no OS resources
+        try(WatchService watchService = fs.newWatchService())
         {
-            registerAll( basePath );
+            registerAll( basePath, watchService );
 
             boolean valid = true;
             while(valid && !stopped)
@@ -73,13 +71,27 @@ public class FileSystemWatcher implements Scheduler.Job
                 WatchKey key = watchService.poll();
                 if(key != null)
                 {
-                    key.pollEvents().forEach( ( e ) -> {
+                    // Event contexts are relative to the directory that was watched, which may be a subdirectory
+                    Path dir = (Path) key.watchable();
+                    for ( WatchEvent<?> e : key.pollEvents() )
+                    {
+                        if(e.kind() == StandardWatchEventKinds.OVERFLOW)
+                        {
+                            handler.onFileEvent( e.kind(), null );
+                            continue;
+                        }
+
+                        Path file = dir.resolve( (Path) e.context() );
                         if(e.kind() == StandardWatchEventKinds.ENTRY_DELETE)
                         {
-                            modificationTimes.remove( e.context() );
+                            modificationTimes.remove( file );
                         }
-                        handler.onFileEvent( e.kind(), (Path) e.context() );
-                    } );
+                        else if(e.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory( file ))
+                        {
+                            registerAll( file, watchService );
+                        }
+                        handler.onFileEvent( e.kind(), basePath.relativize( file ) );
+                    }
                 }
                 else
                 {
@@ -97,7 +109,7 @@ public class FileSystemWatcher implements Scheduler.Job
         }
     }
 
-    private void registerAll(final Path start) throws IOException {
+    private void registerAll(final Path start, WatchService watchService) throws IOException {
         Files.walkFileTree( start, new SimpleFileVisitor<Path>()
         {
             @Override
@@ -2,14 +2,19 @@ package holon.util.io;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.PathMatcher;
 import java.util.ArrayList;
 import java.util.List;
 
 import static java.nio.file.Files.readAllBytes;
+import static java.nio.file.StandardOpenOption.DELETE_ON_CLOSE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
 
 public class FileTools
 {
@@ -24,6 +29,13 @@ public class FileTools
         return new String( readAllBytes( file.toPath() ), encoding);
     }
 
+    /** A new, empty temporary file open for reading and writing, which is removed once it is closed. */
+    public static FileChannel temporaryFile() throws IOException
+    {
+        Path path = Files.createTempFile( "holon", ".tmp" );
+        return FileChannel.open( path, READ, WRITE, DELETE_ON_CLOSE );
+    }
+
     /**
      * Find files recursively in a directory, matching a {@link java.nio.file.PathMatcher glob} path pattern.
      */
@@ -0,0 +1,89 @@
+package holon.util.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Decodes UTF-8 bytes written to it into text for a writer, for handing bytes to something that only takes text.
+ * Characters split across writes are decoded once all of their bytes are in. Closing the stream decodes what is left
+ * and flushes the writer, but leaves it open.
+ */
+public class Utf8WriterOutputStream extends OutputStream
+{
+    private final Writer out;
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput( CodingErrorAction.REPLACE )
+            .onUnmappableCharacter( CodingErrorAction.REPLACE );
+    private final ByteBuffer bytes = ByteBuffer.allocate( 1024 );
+    private final CharBuffer chars = CharBuffer.allocate( 1024 );
+
+    public Utf8WriterOutputStream( Writer out )
+    {
+        this.out = out;
+    }
+
+    @Override
+    public void write( int b ) throws IOException
+    {
+        write( new byte[]{(byte) b}, 0, 1 );
+    }
+
+    @Override
+    public void write( byte[] b, int off, int len ) throws IOException
+    {
+        while(len > 0)
+        {
+            int n = Math.min( len, bytes.remaining() );
+            bytes.put( b, off, n );
+            off += n;
+            len -= n;
+            decode( false );
+        }
+    }
+
+    @Override
+    public void flush() throws IOException
+    {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        decode( true );
+        while(decoder.flush( chars ).isOverflow())
+        {
+            drain();
+        }
+        drain();
+        decoder.reset();
+        out.flush();
+    }
+
+    private void decode( boolean endOfInput ) throws IOException
+    {
+        bytes.flip();
+        CoderResult result;
+        do
+        {
+            result = decoder.decode( bytes, chars, endOfInput );
+            drain();
+        } while(result.isOverflow());
+        // Keeps the start of a character whose remaining bytes have not been written yet
+        bytes.compact();
+    }
+
+    private void drain() throws IOException
+    {
+        chars.flip();
+        out.write( chars.array(), chars.arrayOffset() + chars.position(), chars.remaining() );
+        chars.clear();
+    }
+}
@@ -0,0 +1,82 @@
+package holon.api.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import static holon.util.io.FileTools.temporaryFile;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class OutputTest
+{
+    @Test
+    public void shouldDecodeStreamedBytesIntoTheWriter() throws Exception
+    {
+        // Given
+        TextAndFileOutput out = new TextAndFileOutput();
+        byte[] utf8 = "{\"name\":\"\u00c5sa \u00d6berg\"}".getBytes( StandardCharsets.UTF_8 );
+
+        // When the two bytes of the first letter of the name are written separately
+        OutputStream stream = out.asStreamingOutputStream();
+        stream.write( utf8, 0, 10 );
+        stream.write( utf8, 10, utf8.length - 10 );
+        stream.flush();
+
+        // Then
+        assertThat( out.text.toString(), equalTo( "{\"name\":\"\u00c5sa \u00d6berg\"}" ) );
+    }
+
+    @Test
+    public void shouldSendRegionsAndBuffersAsFiles() throws Exception
+    {
+        // Given
+        TextAndFileOutput out = new TextAndFileOutput();
+        AtomicBoolean sent = new AtomicBoolean();
+
+        // When
+        try ( FileChannel file = temporaryFile() )
+        {
+            file.write( ByteBuffer.wrap( "0123456789".getBytes( StandardCharsets.US_ASCII ) ) );
+            out.write( file, 2, 5 );
+        }
+        out.write( ByteBuffer.wrap( "abc".getBytes( StandardCharsets.US_ASCII ) ), () -> sent.set( true ) );
+
+        // Then
+        assertThat( new String( out.files.toByteArray(), StandardCharsets.US_ASCII ), equalTo( "23456abc" ) );
+        assertTrue( sent.get() );
+    }
+
+    /** An output implementing only what an output had to before the streaming and region methods came along. */
+    private static class TextAndFileOutput implements Output
+    {
+        private final StringWriter text = new StringWriter();
+        private final ByteArrayOutputStream files = new ByteArrayOutputStream();
+
+        @Override
+        public Writer asWriter()
+        {
+            return text;
+        }
+
+        @Override
+        public void write( FileChannel channel ) throws IOException
+        {
+            ByteBuffer buffer = ByteBuffer.allocate( (int) channel.size() );
+            while(buffer.hasRemaining() && channel.read( buffer, buffer.position() ) != -1)
+            {
+                // Keep reading until the file is in
+            }
+            files.write( buffer.array(), 0, buffer.position() );
+        }
+    }
+}
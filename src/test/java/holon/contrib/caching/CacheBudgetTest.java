@@ -0,0 +1,130 @@
+package holon.contrib.caching;
+
+import holon.api.http.Status;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.hasItem;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class CacheBudgetTest
+{
+    @Rule public TemporaryFolder testDir = new TemporaryFolder();
+
+    private SlabStore store;
+
+    @Test
+    public void shouldEvictWhenOverEntryBudget() throws Exception
+    {
+        // Given
+        CacheBudget budget = new CacheBudget( Long.MAX_VALUE, 3 );
+        GlobalCacheEntry a = entry( "/a", 0 ), b = entry( "/b", 0 ), c = entry( "/c", 0 );
+        budget.admit( a );
+        budget.admit( b );
+        budget.admit( c );
+        a.touch();
+
+        // When
+        List<GlobalCacheEntry> victims = budget.admit( entry( "/d", 0 ) );
+
+        // Then
+        assertThat( victims, equalTo( Collections.singletonList( b ) ) );
+        assertThat( budget.entries(), equalTo( 3 ) );
+    }
+
+    @Test
+    public void shouldEvictWhenOverByteBudget() throws Exception
+    {
+        // Given
+        CacheBudget budget = new CacheBudget( 250, Integer.MAX_VALUE );
+        GlobalCacheEntry first = entry( "/first", 100 );
+        budget.admit( first );
+        budget.admit( entry( "/second", 100 ) );
+
+        // When
+        List<GlobalCacheEntry> victims = budget.admit( entry( "/third", 100 ) );
+
+        // Then
+        assertThat( victims, equalTo( Collections.singletonList( first ) ) );
+        assertThat( budget.bytes(), equalTo( 200l ) );
+    }
+
+    @Test
+    public void shouldRejectEntriesLargerThanTheByteBudget() throws Exception
+    {
+        // Given
+        CacheBudget budget = new CacheBudget( 250, Integer.MAX_VALUE );
+        budget.admit( entry( "/first", 100 ) );
+        budget.admit( entry( "/second", 100 ) );
+        GlobalCacheEntry huge = entry( "/huge", 300 );
+
+        // When
+        List<GlobalCacheEntry> victims = budget.admit( huge );
+
+        // Then
+        assertThat( budget.fits( huge ), equalTo( false ) );
+        assertThat( victims, equalTo( Collections.singletonList( huge ) ) );
+        assertThat( budget.entries(), equalTo( 2 ) );
+        assertThat( budget.bytes(), equalTo( 200l ) );
+    }
+
+    @Test
+    public void shouldKeepFrequentlyUsedEntriesDuringScan() throws Exception
+    {
+        // Given
+        CacheBudget budget = new CacheBudget( Long.MAX_VALUE, 3 );
+        GlobalCacheEntry hot = entry( "/hot", 0 );
+        budget.admit( hot );
+        for ( int i = 0; i < 4; i++ )
+        {
+            hot.touch();
+        }
+
+        // When
+        List<GlobalCacheEntry> victims = new ArrayList<>();
+        for ( int i = 0; i < 4; i++ )
+        {
+            victims.addAll( budget.admit( entry( "/scan/" + i, 0 ) ) );
+        }
+
+        // Then
+        assertThat( victims, not( hasItem( hot ) ) );
+        assertThat( victims.size(), equalTo( 2 ) );
+    }
+
+    @Test
+    public void shouldNotCountReleasedEntries() throws Exception
+    {
+        // Given
+        CacheBudget budget = new CacheBudget( 250, 2 );
+        GlobalCacheEntry released = entry( "/released", 100 );
+        budget.admit( released );
+        budget.admit( entry( "/kept", 100 ) );
+
+        // When
+        budget.release( released );
+        List<GlobalCacheEntry> victims = budget.admit( entry( "/new", 100 ) );
+
+        // Then
+        assertThat( victims.size(), equalTo( 0 ) );
+        assertThat( budget.entries(), equalTo( 2 ) );
+        assertThat( budget.bytes(), equalTo( 200l ) );
+    }
+
+    private GlobalCacheEntry entry( String path, int size ) throws Exception
+    {
+        if(store == null)
+        {
+            store = new SlabStore( testDir.newFolder().toPath(), 1024 );
+        }
+        byte[] body = size > 0 ? new byte[size] : null;
+        return new GlobalCacheEntry().populate( path, path, Status.Code.OK, Collections.emptyMap(), body, store );
+    }
+}
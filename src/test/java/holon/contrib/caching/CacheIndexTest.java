@@ -0,0 +1,145 @@
+package holon.contrib.caching;
+
+import holon.api.http.Status;
+import holon.internal.io.ContentEncoding;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static holon.util.collection.Maps.map;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class CacheIndexTest
+{
+    private static final int SEGMENT_SIZE = 1024;
+
+    @Rule public TemporaryFolder testDir = new TemporaryFolder();
+
+    @Test
+    public void shouldRestoreStoredEntries() throws Exception
+    {
+        // Given
+        Path dir = testDir.newFolder().toPath();
+        SlabStore store = new SlabStore( dir, SEGMENT_SIZE );
+        CacheIndex index = new CacheIndex( dir, store );
+        index.open();
+        GlobalCacheEntry stored = entry( store, "/a", "hello" );
+        index.stored( stored );
+        index.close();
+
+        // When
+        List<GlobalCacheEntry> restored = new CacheIndex( dir, new SlabStore( dir, SEGMENT_SIZE ) ).open();
+
+        // Then
+        assertThat( restored.size(), equalTo( 1 ) );
+        GlobalCacheEntry entry = restored.get( 0 );
+        assertThat( entry.id(), equalTo( stored.id() ) );
+        assertThat( entry.path(), equalTo( "/a" ) );
+        assertThat( entry.etag(), equalTo( stored.etag() ) );
+        assertThat( entry.size(), equalTo( stored.size() ) );
+        assertThat( entry.status().code(), equalTo( 200 ) );
+        assertThat( entry.headers(), equalTo( stored.headers() ) );
+        assertThat( entry.encodings(), equalTo( stored.encodings() ) );
+    }
+
+    @Test
+    public void shouldNotRestoreRemovedOrReplacedEntries() throws Exception
+    {
+        // Given
+        Path dir = testDir.newFolder().toPath();
+        SlabStore store = new SlabStore( dir, SEGMENT_SIZE );
+        CacheIndex index = new CacheIndex( dir, store );
+        index.open();
+        GlobalCacheEntry removed = entry( store, "/removed", "a" );
+        GlobalCacheEntry replaced = entry( store, "/replaced", "b" );
+        GlobalCacheEntry replacement = entry( store, "/replaced", "c" );
+        index.stored( removed );
+        index.stored( replaced );
+        index.removed( removed );
+        index.stored( replacement );
+        index.close();
+
+        // When
+        List<GlobalCacheEntry> restored = new CacheIndex( dir, new SlabStore( dir, SEGMENT_SIZE ) ).open();
+
+        // Then
+        assertThat( ids( restored ), equalTo( ids( replacement ) ) );
+    }
+
+    @Test
+    public void shouldNotRestoreEntriesWithMissingBodies() throws Exception
+    {
+        // Given a store small enough that every body gets a segment of its own
+        Path dir = testDir.newFolder().toPath();
+        SlabStore store = new SlabStore( dir, 1 );
+        CacheIndex index = new CacheIndex( dir, store );
+        index.open();
+        GlobalCacheEntry kept = entry( store, "/kept", "a" );
+        GlobalCacheEntry lost = entry( store, "/lost", "b" );
+        index.stored( kept );
+        index.stored( lost );
+        index.close();
+        Files.delete( dir.resolve( "slab-" + lost.body( ContentEncoding.IDENTITY ).segmentId() + ".dat" ) );
+
+        // When
+        List<GlobalCacheEntry> restored = new CacheIndex( dir, new SlabStore( dir, SEGMENT_SIZE ) ).open();
+
+        // Then
+        assertThat( ids( restored ), equalTo( ids( kept ) ) );
+    }
+
+    @Test
+    public void shouldIgnoreTornLastRecord() throws Exception
+    {
+        // Given
+        Path dir = testDir.newFolder().toPath();
+        SlabStore store = new SlabStore( dir, SEGMENT_SIZE );
+        CacheIndex index = new CacheIndex( dir, store );
+        index.open();
+        GlobalCacheEntry first = entry( store, "/first", "a" );
+        index.stored( first );
+        index.stored( entry( store, "/second", "b" ) );
+        index.close();
+
+        Path log = dir.resolve( CacheIndex.FILE_NAME );
+        try(FileChannel channel = FileChannel.open( log, StandardOpenOption.WRITE ))
+        {
+            channel.truncate( channel.size() - 5 );
+        }
+
+        // When
+        List<GlobalCacheEntry> restored = new CacheIndex( dir, new SlabStore( dir, SEGMENT_SIZE ) ).open();
+
+        // Then
+        assertThat( ids( restored ), equalTo( ids( first ) ) );
+    }
+
+    private GlobalCacheEntry entry( SlabStore store, String path, String body ) throws Exception
+    {
+        return new GlobalCacheEntry().populate( path, path, Status.Code.OK,
+                map( "Content-Type", "text/plain" ), body.getBytes( "UTF-8" ), store );
+    }
+
+    private List<String> ids( GlobalCacheEntry ... entries )
+    {
+        List<String> ids = new ArrayList<>();
+        for ( GlobalCacheEntry entry : entries )
+        {
+            ids.add( entry.id() );
+        }
+        return ids;
+    }
+
+    private List<String> ids( List<GlobalCacheEntry> entries )
+    {
+        return ids( entries.toArray( new GlobalCacheEntry[0] ) );
+    }
+}
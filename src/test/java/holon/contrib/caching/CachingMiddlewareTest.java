@@ -20,11 +20,15 @@
 package holon.contrib.caching;
 
 import holon.Holon;
+import holon.api.http.Default;
 import holon.api.http.GET;
+import holon.api.http.HeaderParam;
+import holon.api.http.QueryParam;
 import holon.api.http.Request;
 import holon.api.http.Status;
 import holon.contrib.http.StringContent;
 import holon.internal.HolonFactory;
+import holon.internal.logging.printstream.PrintStreamLogging;
 import holon.util.HTTP;
 import org.junit.After;
 import org.junit.Before;
@@ -32,7 +36,10 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
+import java.io.File;
 import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.nio.file.Paths;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
@@ -41,9 +48,15 @@ import static holon.Holon.Configuration.home_dir;
 import static holon.Holon.Configuration.workers;
 import static holon.internal.config.MapConfig.config;
 import static holon.util.collection.Maps.map;
+import static io.netty.handler.codec.http.HttpHeaders.Names.ACCEPT_ENCODING;
+import static io.netty.handler.codec.http.HttpHeaders.Names.ACCEPT_LANGUAGE;
 import static io.netty.handler.codec.http.HttpHeaders.Names.ETAG;
 import static io.netty.handler.codec.http.HttpHeaders.Names.IF_NONE_MATCH;
+import static io.netty.handler.codec.http.HttpHeaders.Names.VARY;
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
 import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.not;
 import static org.hamcrest.MatcherAssert.assertThat;
 
 public class CachingMiddlewareTest
@@ -53,6 +66,7 @@ public class CachingMiddlewareTest
     private static AtomicInteger endpointCalled = new AtomicInteger(0);
     private static AtomicReference<String> simpleContent = new AtomicReference<>( "hello, world!" );
     private HttpCache httpCache;
+    private File cacheDir;
     private Holon holon;
 
     /**
@@ -83,18 +97,58 @@ public class CachingMiddlewareTest
             endpointCalled.incrementAndGet();
             req.respond( Status.Code.OK );
         }
+
+        @GET("/large")
+        @Cached(time=100)
+        public void large( Request req )
+        {
+            endpointCalled.incrementAndGet();
+            StringBuilder body = new StringBuilder();
+            for ( int i = 0; i < 1024; i++ )
+            {
+                body.append( i ).append( ' ' );
+            }
+            req.respond( Status.Code.OK, new StringContent( body.toString() ) );
+        }
+
+        @GET("/listing")
+        @Cached(time=100, queryParams = {"page", "size"}, vary = {ACCEPT_LANGUAGE})
+        public void listing( Request req,
+                @QueryParam("page") @Default("1") String page,
+                @QueryParam("size") @Default("10") String size,
+                @HeaderParam(ACCEPT_LANGUAGE) @Default("en") String language )
+        {
+            endpointCalled.incrementAndGet();
+            req.respond( Status.Code.OK, new StringContent( language + ":" + page + ":" + size ) );
+        }
     }
 
     @Before
     public void setup() throws IOException
     {
-        httpCache = new HttpCache( Paths.get(testDir.newFolder().toURI()) );
+        cacheDir = testDir.newFolder();
+        start();
+        endpointCalled.set( 0 );
+    }
+
+    private void start() throws IOException
+    {
+        start( InvalidationBus.NONE );
+    }
+
+    private void start( InvalidationBus bus ) throws IOException
+    {
+        start( new HttpCache( Paths.get(cacheDir.toURI()), bus, new PrintStreamLogging( System.out ) ) );
+    }
+
+    private void start( HttpCache cache ) throws IOException
+    {
+        httpCache = cache;
         holon = new HolonFactory().newHolon( config( map(
                         home_dir, testDir.getRoot().getAbsolutePath(),
                         workers, "1") ),
                 new Object[]{httpCache}, new Class[]{Endpoint.class}, new Class[]{} );
         holon.start();
-        endpointCalled.set( 0 );
     }
 
     @After
@@ -182,4 +236,212 @@ public class CachingMiddlewareTest
         assertThat(resWithOtherEtag.status(), equalTo(200));
         assertThat(resWithNoEtag.status(), equalTo(200));
     }
+
+    @Test
+    public void shouldServePrecompressedVariantByAcceptEncoding() throws Exception
+    {
+        // When
+        HTTP.Response identity = HTTP.withHeaders( ACCEPT_ENCODING, "identity" ).GET( holon.httpUrl() + "/simple" );
+        HTTP.Response gzip = HTTP.withHeaders( ACCEPT_ENCODING, "gzip" ).GET( holon.httpUrl() + "/simple" );
+        HTTP.Response deflate = HTTP.withHeaders( ACCEPT_ENCODING, "deflate" ).GET( holon.httpUrl() + "/simple" );
+
+        // Then
+        assertThat(endpointCalled.get(), equalTo( 1 ));
+        assertThat(identity.contentAsString(), equalTo(simpleContent.get()));
+        assertThat(gzip.contentAsString(), equalTo(simpleContent.get()));
+        assertThat(deflate.contentAsString(), equalTo(simpleContent.get()));
+        assertThat(gzip.header( ETAG ), not(equalTo(identity.header( ETAG ))));
+        assertThat(deflate.header( ETAG ), not(equalTo(gzip.header( ETAG ))));
+    }
+
+    @Test
+    public void shouldTrigger304OnlyForEtagOfNegotiatedVariant() throws Exception
+    {
+        // Given
+        String gzipEtag = HTTP.withHeaders( ACCEPT_ENCODING, "gzip" ).GET( holon.httpUrl() + "/simple" ).header( ETAG );
+
+        // When
+        HTTP.Response sameVariant = HTTP.withHeaders( ACCEPT_ENCODING, "gzip", IF_NONE_MATCH, gzipEtag )
+                .GET( holon.httpUrl() + "/simple" );
+        HTTP.Response otherVariant = HTTP.withHeaders( ACCEPT_ENCODING, "identity", IF_NONE_MATCH, gzipEtag )
+                .GET( holon.httpUrl() + "/simple" );
+
+        // Then
+        assertThat(sameVariant.status(), equalTo(304));
+        assertThat(otherVariant.status(), equalTo(200));
+        assertThat(otherVariant.contentAsString(), equalTo(simpleContent.get()));
+    }
+
+    @Test
+    public void shouldDeleteFilesOfEvictedEntries() throws Exception
+    {
+        // Given
+        HTTP.GET( holon.httpUrl() + "/simple" );
+        int filesPerEntry = cacheDir.list().length;
+
+        // When
+        httpCache.evict( "/simple" );
+        HTTP.GET( holon.httpUrl() + "/simple" );
+
+        // Then
+        assertThat(endpointCalled.get(), equalTo( 2 ));
+        assertThat(cacheDir.list().length, equalTo( filesPerEntry ));
+    }
+
+    @Test
+    public void shouldCacheQueryParamVariantsSeparately() throws Exception
+    {
+        // When
+        HTTP.Response first = HTTP.GET( holon.httpUrl() + "/listing?page=1&size=5" );
+        HTTP.Response second = HTTP.GET( holon.httpUrl() + "/listing?page=2&size=5" );
+        HTTP.Response reordered = HTTP.GET( holon.httpUrl() + "/listing?size=5&page=1" );
+        HTTP.Response ignoredParam = HTTP.GET( holon.httpUrl() + "/listing?page=1&size=5&utm=x" );
+
+        // Then
+        assertThat(first.contentAsString(), equalTo("en:1:5"));
+        assertThat(second.contentAsString(), equalTo("en:2:5"));
+        assertThat(reordered.contentAsString(), equalTo("en:1:5"));
+        assertThat(ignoredParam.contentAsString(), equalTo("en:1:5"));
+        assertThat(endpointCalled.get(), equalTo( 2 ));
+    }
+
+    @Test
+    public void shouldCacheVaryHeaderVariantsSeparately() throws Exception
+    {
+        // When
+        HTTP.Response swedish = HTTP.withHeaders( ACCEPT_LANGUAGE, "sv" ).GET( holon.httpUrl() + "/listing" );
+        HTTP.Response english = HTTP.withHeaders( ACCEPT_LANGUAGE, "en" ).GET( holon.httpUrl() + "/listing" );
+        HTTP.Response swedishAgain = HTTP.withHeaders( ACCEPT_LANGUAGE, "sv" ).GET( holon.httpUrl() + "/listing" );
+
+        // Then
+        assertThat(swedish.contentAsString(), equalTo("sv:1:10"));
+        assertThat(english.contentAsString(), equalTo("en:1:10"));
+        assertThat(swedishAgain.contentAsString(), equalTo("sv:1:10"));
+        assertThat(endpointCalled.get(), equalTo( 2 ));
+        assertThat(swedish.header( VARY ), equalTo( "accept-language, Accept-Encoding" ));
+        assertThat(swedishAgain.header( VARY ), equalTo( "accept-language, Accept-Encoding" ));
+    }
+
+    @Test
+    public void shouldServeButNotCacheResponsesLargerThanTheCache() throws Exception
+    {
+        // Given a cache with room for small responses only
+        holon.stop();
+        httpCache.stop();
+        start( new HttpCache( testDir.newFolder().toPath(), 1024, 100, new PrintStreamLogging( System.out ) ) );
+        HTTP.GET( holon.httpUrl() + "/simple" );
+
+        // When
+        HTTP.Response first = HTTP.GET( holon.httpUrl() + "/large" );
+        HTTP.Response second = HTTP.GET( holon.httpUrl() + "/large" );
+        HTTP.GET( holon.httpUrl() + "/large" );
+        HTTP.GET( holon.httpUrl() + "/simple" );
+
+        // Then
+        String body = first.contentAsString();
+        assertThat(first.status(), equalTo( 200 ));
+        assertThat(body.length(), equalTo( 4010 ));
+        assertThat(second.contentAsString(), equalTo( body ));
+
+        // And the large response rendered each time, while the small one stayed cached
+        assertThat(endpointCalled.get(), equalTo( 4 ));
+    }
+
+    @Test
+    public void shouldEvictAllVariantsSharingACacheKey() throws Exception
+    {
+        // Given
+        HTTP.GET( holon.httpUrl() + "/listing?page=1" );
+        HTTP.GET( holon.httpUrl() + "/listing?page=2" );
+
+        // When
+        httpCache.evict( "/listing" );
+        HTTP.GET( holon.httpUrl() + "/listing?page=1" );
+        HTTP.GET( holon.httpUrl() + "/listing?page=2" );
+
+        // Then
+        assertThat(endpointCalled.get(), equalTo( 4 ));
+    }
+
+    @Test
+    public void shouldServeCachedEntriesAfterRestart() throws Exception
+    {
+        // Given
+        HTTP.Response beforeRestart = HTTP.GET( holon.httpUrl() + "/simple" );
+        HTTP.GET( holon.httpUrl() + "/listing?page=2" );
+        simpleContent.set( "Rendered after restart" );
+
+        // When
+        holon.stop();
+        httpCache.stop();
+        start();
+        HTTP.Response afterRestart = HTTP.GET( holon.httpUrl() + "/simple" );
+        HTTP.Response variant = HTTP.GET( holon.httpUrl() + "/listing?page=2" );
+
+        // Then
+        assertThat(endpointCalled.get(), equalTo( 2 ));
+        assertThat(afterRestart.contentAsString(), equalTo( beforeRestart.contentAsString() ));
+        assertThat(afterRestart.header( ETAG ), equalTo( beforeRestart.header( ETAG ) ));
+        assertThat(variant.contentAsString(), equalTo( "en:2:10" ));
+    }
+
+    @Test
+    public void shouldNotRestoreEvictedEntriesAfterRestart() throws Exception
+    {
+        // Given
+        HTTP.GET( holon.httpUrl() + "/simple" );
+        httpCache.evict( "/simple" );
+
+        // When
+        holon.stop();
+        httpCache.stop();
+        start();
+        HTTP.GET( holon.httpUrl() + "/simple" );
+
+        // Then
+        assertThat(endpointCalled.get(), equalTo( 2 ));
+    }
+
+    @Test
+    public void shouldEvictKeysEvictedOnOtherNodes() throws Exception
+    {
+        // Given
+        holon.stop();
+        httpCache.stop();
+        UdpInvalidationBus bus = new UdpInvalidationBus( loopback(), emptyList(),
+                new PrintStreamLogging( System.out ) );
+        start( bus );
+        UdpInvalidationBus otherNode = new UdpInvalidationBus( loopback(), asList( bus.localAddress() ),
+                new PrintStreamLogging( System.out ) );
+        otherNode.start( key -> {} );
+
+        HTTP.GET( holon.httpUrl() + "/simple" );
+        simpleContent.set( "Evicted elsewhere" );
+
+        try
+        {
+            // When
+            otherNode.publish( "/simple" );
+
+            // Then
+            String content = null;
+            long deadline = System.currentTimeMillis() + 5000;
+            while(!"Evicted elsewhere".equals( content ) && System.currentTimeMillis() < deadline)
+            {
+                Thread.sleep( 20 );
+                content = HTTP.GET( holon.httpUrl() + "/simple" ).contentAsString();
+            }
+            assertThat(content, equalTo( "Evicted elsewhere" ));
+            assertThat(endpointCalled.get(), equalTo( 2 ));
+        }
+        finally
+        {
+            otherNode.stop();
+        }
+    }
+
+    private InetSocketAddress loopback()
+    {
+        return new InetSocketAddress( InetAddress.getLoopbackAddress(), 0 );
+    }
 }
@@ -0,0 +1,90 @@
+package holon.contrib.caching;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class GlobalCacheEntryTest
+{
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @After
+    public void tearDown()
+    {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void shouldParkWaitersUntilLoaded() throws Exception
+    {
+        // Given
+        GlobalCacheEntry entry = new GlobalCacheEntry();
+        AtomicReference<Thread> waiter = new AtomicReference<>();
+        Future<Boolean> loaded = executor.submit( () -> {
+            waiter.set( Thread.currentThread() );
+            return entry.awaitLoaded();
+        } );
+        awaitParked( waiter );
+
+        // When
+        entry.markAsLoaded();
+
+        // Then
+        assertThat( loaded.get( 10, TimeUnit.SECONDS ), equalTo( true ) );
+    }
+
+    @Test
+    public void shouldReleaseWaitersWhenEvictedWhileLoading() throws Exception
+    {
+        // Given
+        GlobalCacheEntry entry = new GlobalCacheEntry();
+        AtomicReference<Thread> waiter = new AtomicReference<>();
+        Future<Boolean> loaded = executor.submit( () -> {
+            waiter.set( Thread.currentThread() );
+            return entry.awaitLoaded();
+        } );
+        awaitParked( waiter );
+
+        // When
+        entry.requestEviction();
+
+        // Then
+        assertThat( loaded.get( 10, TimeUnit.SECONDS ), equalTo( false ) );
+    }
+
+    @Test
+    public void shouldNotWaitForLoadedEntries() throws Exception
+    {
+        // Given
+        GlobalCacheEntry entry = new GlobalCacheEntry();
+        entry.markAsLoaded();
+
+        // When
+        boolean loaded = entry.awaitLoaded();
+
+        // Then
+        assertThat( loaded, equalTo( true ) );
+    }
+
+    private void awaitParked( AtomicReference<Thread> waiter ) throws InterruptedException
+    {
+        long timeout = System.currentTimeMillis() + 10_000;
+        while(waiter.get() == null || waiter.get().getState() != Thread.State.TIMED_WAITING)
+        {
+            if(System.currentTimeMillis() > timeout)
+            {
+                throw new AssertionError( "Waiter never parked, state was " +
+                        (waiter.get() == null ? null : waiter.get().getState()) );
+            }
+            Thread.sleep( 10 );
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package holon.contrib.caching;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class SlabStoreTest
+{
+    @Rule public TemporaryFolder testDir = new TemporaryFolder();
+
+    @Test
+    public void shouldStoreBodiesNextToEachOther() throws Exception
+    {
+        // Given
+        SlabStore store = new SlabStore( testDir.newFolder().toPath(), 16 );
+
+        // When
+        SlabStore.Slot a = store.store( bytes( "hello" ) );
+        SlabStore.Slot b = store.store( bytes( "world" ) );
+
+        // Then
+        assertThat( a.segmentId(), equalTo( b.segmentId() ) );
+        assertThat( b.offset(), equalTo( 5 ) );
+        assertThat( string( a ), equalTo( "hello" ) );
+        assertThat( string( b ), equalTo( "world" ) );
+    }
+
+    @Test
+    public void shouldReuseSegmentOnceAllSlotsAreFreed() throws Exception
+    {
+        // Given
+        SlabStore store = new SlabStore( testDir.newFolder().toPath(), 8 );
+        SlabStore.Slot first = store.store( bytes( "aaaaaa" ) );
+        SlabStore.Slot second = store.store( bytes( "bbbbbb" ) );
+
+        // When
+        first.release();
+        SlabStore.Slot third = store.store( bytes( "cccccc" ) );
+
+        // Then
+        assertThat( third.segmentId(), equalTo( first.segmentId() ) );
+        assertThat( third.offset(), equalTo( 0 ) );
+        assertThat( string( second ), equalTo( "bbbbbb" ) );
+        assertThat( string( third ), equalTo( "cccccc" ) );
+    }
+
+    @Test
+    public void shouldNotFreeSlotsThatAreStillBeingSent() throws Exception
+    {
+        // Given
+        SlabStore store = new SlabStore( testDir.newFolder().toPath(), 8 );
+        SlabStore.Slot inFlight = store.store( bytes( "aaaaaa" ) );
+        assertThat( inFlight.retain(), equalTo( true ) );
+
+        // When the owner lets go, while a response still holds a reference
+        inFlight.release();
+        store.store( bytes( "bbbbbb" ) );
+        SlabStore.Slot next = store.store( bytes( "cccccc" ) );
+
+        // Then
+        assertThat( next.segmentId(), not( equalTo( inFlight.segmentId() ) ) );
+        assertThat( string( inFlight ), equalTo( "aaaaaa" ) );
+
+        // And when the response is sent, the slot is gone for good
+        inFlight.releaser().run();
+        assertThat( inFlight.retain(), equalTo( false ) );
+    }
+
+    @Test
+    public void shouldGiveLargeBodiesSegmentsOfTheirOwn() throws Exception
+    {
+        // Given
+        Path dir = testDir.newFolder().toPath();
+        SlabStore store = new SlabStore( dir, 4 );
+
+        // When
+        SlabStore.Slot large = store.store( bytes( "a large body" ) );
+
+        // Then
+        Path file = dir.resolve( "slab-" + large.segmentId() + ".dat" );
+        assertThat( string( large ), equalTo( "a large body" ) );
+        assertThat( Files.exists( file ), equalTo( true ) );
+
+        // And when freed, its segment is deleted rather than kept around
+        large.release();
+        assertThat( Files.exists( file ), equalTo( false ) );
+    }
+
+    @Test
+    public void shouldReportMostlyDeadSegmentsOnce() throws Exception
+    {
+        // Given
+        SlabStore store = new SlabStore( testDir.newFolder().toPath(), 8 );
+        SlabStore.Slot[] slots = new SlabStore.Slot[8];
+        for ( int i = 0; i < slots.length; i++ )
+        {
+            slots[i] = store.store( bytes( "a" ) );
+        }
+        SlabStore.Slot survivor = slots[0];
+        store.store( bytes( "bbbbbbbb" ) );
+
+        // When
+        for ( int i = 1; i < slots.length; i++ )
+        {
+            slots[i].release();
+        }
+
+        // Then
+        assertThat( store.hasSparseSegments(), equalTo( true ) );
+        Set<Integer> sparse = store.sparseSegments();
+        assertThat( sparse.contains( survivor.segmentId() ), equalTo( true ) );
+        assertThat( store.hasSparseSegments(), equalTo( false ) );
+        assertThat( store.sparseSegments().isEmpty(), equalTo( true ) );
+    }
+
+    @Test
+    public void shouldLocateSlotsStoredByEarlierStore() throws Exception
+    {
+        // Given
+        Path dir = testDir.newFolder().toPath();
+        SlabStore before = new SlabStore( dir, 16 );
+        SlabStore.Slot kept = before.store( bytes( "kept" ) );
+        before.store( bytes( "dropped" ) );
+        before.force();
+
+        // When
+        SlabStore after = new SlabStore( dir, 16 );
+        SlabStore.Slot located = after.locate( kept.segmentId(), kept.offset(), kept.length() );
+        after.claim( located );
+        after.restored();
+
+        // Then
+        assertThat( string( located ), equalTo( "kept" ) );
+        assertThat( after.locate( 7, 0, 4 ), nullValue() );
+        assertThat( after.locate( kept.segmentId(), 0, 17 ), nullValue() );
+
+        // And new bodies go after the claimed ones, never on top of them
+        SlabStore.Slot next = after.store( bytes( "next" ) );
+        assertThat( asList( next.segmentId(), next.offset() ),
+                not( equalTo( asList( located.segmentId(), located.offset() ) ) ) );
+        assertThat( string( located ), equalTo( "kept" ) );
+    }
+
+    private static byte[] bytes( String value ) throws Exception
+    {
+        return value.getBytes( "UTF-8" );
+    }
+
+    private static String string( SlabStore.Slot slot ) throws Exception
+    {
+        ByteBuffer buffer = slot.buffer().duplicate();
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get( bytes );
+        return new String( bytes, "UTF-8" );
+    }
+}
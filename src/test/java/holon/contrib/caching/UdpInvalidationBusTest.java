@@ -0,0 +1,159 @@
+package holon.contrib.caching;
+
+import holon.internal.logging.printstream.PrintStreamLogging;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class UdpInvalidationBusTest
+{
+    private final List<UdpInvalidationBus> buses = new ArrayList<>();
+    private final ConcurrentMap<String, AtomicInteger> received = new ConcurrentHashMap<>();
+    private final ByteArrayOutputStream log = new ByteArrayOutputStream();
+
+    @After
+    public void tearDown()
+    {
+        buses.forEach( UdpInvalidationBus::stop );
+    }
+
+    @Test
+    public void shouldDeliverEvictionsToPeers() throws Exception
+    {
+        // Given
+        UdpInvalidationBus receiver = bus( emptyList() );
+        UdpInvalidationBus sender = bus( asList( receiver.localAddress() ) );
+
+        // When
+        sender.publish( "/a" );
+        sender.publish( "/b" );
+
+        // Then
+        awaitReceived( "/a", "/b" );
+    }
+
+    @Test
+    public void shouldCoalesceRepeatedEvictionsOfOneKey() throws Exception
+    {
+        // Given
+        UdpInvalidationBus receiver = bus( emptyList() );
+        UdpInvalidationBus sender = bus( asList( receiver.localAddress() ), 200 );
+
+        // When
+        for ( int i = 0; i < 100; i++ )
+        {
+            sender.publish( "/hot" );
+        }
+        sender.publish( "/done" );
+
+        // Then
+        awaitReceived( "/hot", "/done" );
+        assertThat( received.get( "/hot" ).get(), equalTo( 1 ) );
+    }
+
+    @Test
+    public void shouldBatchManyEvictionsIntoFewDatagrams() throws Exception
+    {
+        // Given
+        try(DatagramSocket peer = new DatagramSocket( 0, InetAddress.getLoopbackAddress() ))
+        {
+            peer.setSoTimeout( 1000 );
+            UdpInvalidationBus sender = bus(
+                    asList( new InetSocketAddress( InetAddress.getLoopbackAddress(), peer.getLocalPort() ) ), 200 );
+
+            // When
+            for ( int i = 0; i < 500; i++ )
+            {
+                sender.publish( "/item/" + i );
+            }
+
+            // Then
+            int datagrams = 0;
+            try
+            {
+                while(true)
+                {
+                    DatagramPacket packet = new DatagramPacket( new byte[2048], 2048 );
+                    peer.receive( packet );
+                    assertTrue( packet.getLength() <= 1400 );
+                    datagrams++;
+                }
+            }
+            catch ( SocketTimeoutException e )
+            {
+                // No more batches
+            }
+            assertTrue( "Expected a handful of datagrams, got " + datagrams, datagrams > 0 && datagrams <= 10 );
+        }
+    }
+
+    @Test
+    public void shouldLogAndDropKeysTooLongForADatagram() throws Exception
+    {
+        // Given
+        UdpInvalidationBus receiver = bus( emptyList() );
+        UdpInvalidationBus sender = bus( asList( receiver.localAddress() ) );
+        StringBuilder longKey = new StringBuilder( "/long/" );
+        while(longKey.length() < 2000)
+        {
+            longKey.append( "segment/" );
+        }
+
+        // When
+        sender.publish( longKey.toString() );
+        sender.publish( "/short" );
+
+        // Then
+        awaitReceived( "/short" );
+        assertFalse( received.containsKey( longKey.toString() ) );
+        assertThat( log.toString(), containsString( "Not telling other nodes to evict '/long/segment/" ) );
+    }
+
+    private UdpInvalidationBus bus( List<InetSocketAddress> peers ) throws Exception
+    {
+        return bus( peers, 10 );
+    }
+
+    private UdpInvalidationBus bus( List<InetSocketAddress> peers, long flushIntervalMs ) throws Exception
+    {
+        UdpInvalidationBus bus = new UdpInvalidationBus( new InetSocketAddress( InetAddress.getLoopbackAddress(), 0 ),
+                peers, flushIntervalMs, TimeUnit.MILLISECONDS, new PrintStreamLogging( new PrintStream( log, true ) ) );
+        buses.add( bus );
+        bus.start( key -> received.computeIfAbsent( key, k -> new AtomicInteger() ).incrementAndGet() );
+        return bus;
+    }
+
+    private void awaitReceived( String ... keys ) throws InterruptedException
+    {
+        Set<String> expected = new HashSet<>( asList( keys ) );
+        long deadline = System.currentTimeMillis() + 5000;
+        while(!received.keySet().containsAll( expected ) && System.currentTimeMillis() < deadline)
+        {
+            Thread.sleep( 10 );
+        }
+        assertTrue( "Expected " + expected + ", got " + received.keySet(), received.keySet().containsAll( expected ) );
+    }
+}
@@ -0,0 +1,40 @@
+package holon.contrib.http;
+
+import holon.internal.io.ByteArrayOutput;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class JsonContentTest
+{
+    public static class User
+    {
+        public String name = "Sm\u00f6rg\u00e5s";
+        public int age = 12;
+    }
+
+    @Test
+    public void shouldRenderUtf8Json() throws Exception
+    {
+        // Given
+        JsonContent json = new JsonContent( User.class );
+
+        // When & then
+        assertThat( render( json, new User() ), equalTo( "{\"name\":\"Sm\u00f6rg\u00e5s\",\"age\":12}" ) );
+        assertThat( render( json, asList( 1, 2 ) ), equalTo( "[1,2]" ) );
+        assertThat( render( json, Collections.singletonMap( "a", null ) ), equalTo( "{\"a\":null}" ) );
+        assertThat( render( json, null ), equalTo( "null" ) );
+    }
+
+    private static String render( JsonContent json, Object context ) throws Exception
+    {
+        ByteArrayOutput out = new ByteArrayOutput();
+        json.render( out, context );
+        return new String( out.toByteArray(), StandardCharsets.UTF_8 );
+    }
+}
@@ -0,0 +1,152 @@
+package holon.integration;
+
+import holon.api.http.GET;
+import holon.api.http.Request;
+import holon.api.http.Status;
+import holon.contrib.caching.Cached;
+import holon.contrib.caching.HttpCache;
+import holon.contrib.http.StringContent;
+import holon.internal.logging.printstream.PrintStreamLogging;
+import holon.util.HTTP;
+import holon.util.HolonRule;
+import holon.util.io.FileTools;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static holon.Holon.Configuration.workers;
+import static holon.internal.config.MapConfig.config;
+import static holon.util.collection.Maps.map;
+import static io.netty.handler.codec.http.HttpHeaders.Names.CACHE_CONTROL;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class CacheExpiryIntegrationTest
+{
+    private static final AtomicInteger endpointCalled = new AtomicInteger();
+    private static final AtomicReference<String> content = new AtomicReference<>();
+    private static volatile CountDownLatch renderStarted;
+    private static volatile CountDownLatch renderReleased;
+
+    private final Path cacheDir = newCacheDir();
+    private final HttpCache cache = newCache( cacheDir );
+
+    @Rule
+    public HolonRule holon = new HolonRule( new Class[]{Endpoint.class}, new Object[]{cache},
+            config( map( workers, "4" ) ) );
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    public static class Endpoint
+    {
+        @GET("/expiring")
+        @Cached(time=1)
+        public void expiring( Request req ) throws InterruptedException
+        {
+            endpointCalled.incrementAndGet();
+            CountDownLatch started = renderStarted;
+            if(started != null)
+            {
+                started.countDown();
+                renderReleased.await( 10, TimeUnit.SECONDS );
+            }
+            req.respond( Status.Code.OK, new StringContent( content.get() ) );
+        }
+    }
+
+    @Before
+    public void setup()
+    {
+        endpointCalled.set( 0 );
+        content.set( "stale" );
+        renderStarted = null;
+        renderReleased = null;
+    }
+
+    @After
+    public void tearDown()
+    {
+        executor.shutdownNow();
+        cache.stop();
+        FileTools.deleteRecursively( cacheDir.toFile() );
+    }
+
+    @Test
+    public void shouldRefreshEntriesAfterTheirTimeToLive() throws Exception
+    {
+        // Given
+        HTTP.Response cached = HTTP.GET( holon.httpUrl() + "/expiring" );
+        content.set( "fresh" );
+
+        // When
+        Thread.sleep( 1500 );
+        HTTP.Response refreshed = HTTP.GET( holon.httpUrl() + "/expiring" );
+
+        // Then
+        assertThat( cached.header( CACHE_CONTROL ), equalTo( "public, max-age=1" ) );
+        assertThat( refreshed.contentAsString(), equalTo( "fresh" ) );
+        assertThat( endpointCalled.get(), equalTo( 2 ) );
+    }
+
+    @Test
+    public void shouldServeStaleEntryWhileOneRequestRefreshesIt() throws Exception
+    {
+        // Given
+        HTTP.GET( holon.httpUrl() + "/expiring" );
+        content.set( "fresh" );
+        Thread.sleep( 1500 );
+
+        renderReleased = new CountDownLatch( 1 );
+        renderStarted = new CountDownLatch( 1 );
+        Future<HTTP.Response> refreshing = executor.submit( () -> HTTP.GET( holon.httpUrl() + "/expiring" ) );
+        assertThat( renderStarted.await( 10, TimeUnit.SECONDS ), equalTo( true ) );
+
+        // When
+        HTTP.Response duringRefresh = HTTP.GET( holon.httpUrl() + "/expiring" );
+        renderReleased.countDown();
+        HTTP.Response refreshed = refreshing.get( 10, TimeUnit.SECONDS );
+        HTTP.Response afterRefresh = HTTP.GET( holon.httpUrl() + "/expiring" );
+
+        // Then
+        assertThat( duringRefresh.contentAsString(), equalTo( "stale" ) );
+        assertThat( refreshed.contentAsString(), equalTo( "fresh" ) );
+        assertThat( afterRefresh.contentAsString(), equalTo( "fresh" ) );
+        assertThat( endpointCalled.get(), equalTo( 2 ) );
+    }
+
+    private static Path newCacheDir()
+    {
+        try
+        {
+            return Files.createTempDirectory( "holon-cache" );
+        }
+        catch ( IOException e )
+        {
+            throw new RuntimeException( e );
+        }
+    }
+
+    private static HttpCache newCache( Path cacheDir )
+    {
+        try
+        {
+            return new HttpCache( cacheDir, new PrintStreamLogging( System.out ) );
+        }
+        catch ( IOException e )
+        {
+            throw new RuntimeException( e );
+        }
+    }
+}
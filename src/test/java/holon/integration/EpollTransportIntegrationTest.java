@@ -0,0 +1,79 @@
+package holon.integration;
+
+import holon.api.http.GET;
+import holon.api.http.Request;
+import holon.api.http.Status;
+import holon.contrib.http.StringContent;
+import holon.internal.http.netty.NettyEngine;
+import holon.util.HTTP;
+import holon.util.HolonRule;
+import holon.util.io.FileTools;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.Charset;
+
+import static holon.Holon.Configuration.http_acceptors;
+import static holon.Holon.Configuration.http_transport;
+import static holon.internal.config.MapConfig.config;
+import static holon.util.collection.Maps.map;
+import static io.netty.handler.codec.http.HttpHeaders.Names.ACCEPT_ENCODING;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Runs with the native transport, and is skipped where netty can't use it, since the server would fall back to nio.
+ */
+public class EpollTransportIntegrationTest
+{
+    @Rule
+    public HolonRule holon = new HolonRule( new Class[]{Endpoint.class}, new Object[]{},
+            config( map( http_transport, "epoll", http_acceptors, "4" ) ) );
+
+    @BeforeClass
+    public static void requireEpoll()
+    {
+        assumeTrue( "Native epoll transport is not usable here", NettyEngine.epollUsable() );
+    }
+
+    public static class Endpoint
+    {
+        @GET("/hello")
+        public void hello( Request req )
+        {
+            req.respond( Status.Code.OK, new StringContent( "hello" ) );
+        }
+    }
+
+    @Test
+    public void shouldServeRequestsOnManyConnections() throws Exception
+    {
+        for ( int i = 0; i < 16; i++ )
+        {
+            // When
+            HTTP.Response response = HTTP.GET( holon.httpUrl() + "/hello" );
+
+            // Then
+            assertThat( response.status(), equalTo( 200 ) );
+            assertThat( response.contentAsString(), equalTo( "hello" ) );
+        }
+    }
+
+    @Test
+    public void shouldSendStaticFiles() throws Exception
+    {
+        // Given
+        String content = "Sent with sendfile where the transport supports it.";
+        FileTools.write( new File( holon.publicDir(), "file.txt" ), content, Charset.forName( "UTF-8" ) );
+
+        // When
+        HTTP.Response response = HTTP.withHeaders( ACCEPT_ENCODING, "identity" ).GET( holon.httpUrl() + "/file.txt" );
+
+        // Then
+        assertThat( response.status(), equalTo( 200 ) );
+        assertThat( response.contentAsString(), equalTo( content ) );
+    }
+}
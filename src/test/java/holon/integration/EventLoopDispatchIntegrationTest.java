@@ -0,0 +1,101 @@
+package holon.integration;
+
+import holon.api.http.GET;
+import holon.api.http.NonBlocking;
+import holon.api.http.Request;
+import holon.api.http.Status;
+import holon.contrib.http.StringContent;
+import holon.util.HTTP;
+import holon.util.HolonRule;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static holon.Holon.Configuration.http_dispatch;
+import static holon.Holon.Configuration.workers;
+import static holon.internal.config.MapConfig.config;
+import static holon.util.collection.Maps.map;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.startsWith;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class EventLoopDispatchIntegrationTest
+{
+    @Rule
+    public HolonRule holon = new HolonRule( new Class[]{Endpoint.class}, new Object[]{},
+            config( map( http_dispatch, "event_loop", workers, "1" ) ) );
+
+    public static class Endpoint
+    {
+        @GET("/nonblocking")
+        @NonBlocking
+        public void nonBlocking( Request req )
+        {
+            req.respond( Status.Code.OK, new StringContent( Thread.currentThread().getName() ) );
+        }
+
+        @GET("/blocking")
+        public void blocking( Request req )
+        {
+            req.respond( Status.Code.OK, new StringContent( Thread.currentThread().getName() ) );
+        }
+
+        @GET("/blocking/{name}")
+        public void blockingWithParam( Request req )
+        {
+            req.respond( Status.Code.OK, new StringContent( Thread.currentThread().getName() ) );
+        }
+    }
+
+    @Test
+    public void shouldCallNonBlockingRoutesOnEventLoop() throws Exception
+    {
+        // When
+        HTTP.Response response = HTTP.GET( holon.httpUrl() + "/nonblocking" );
+
+        // Then
+        assertThat( response.status(), equalTo( 200 ) );
+        assertThat( response.contentAsString(), startsWith( "nioEventLoopGroup" ) );
+    }
+
+    @Test
+    public void shouldHandBlockingRoutesOffToWorkers() throws Exception
+    {
+        // When
+        HTTP.Response response = HTTP.GET( holon.httpUrl() + "/blocking" );
+        HTTP.Response withParam = HTTP.GET( holon.httpUrl() + "/blocking/bob" );
+
+        // Then
+        assertThat( response.status(), equalTo( 200 ) );
+        assertThat( response.contentAsString(), not( startsWith( "nioEventLoopGroup" ) ) );
+        assertThat( withParam.status(), equalTo( 200 ) );
+        assertThat( withParam.contentAsString(), not( startsWith( "nioEventLoopGroup" ) ) );
+    }
+
+    @Test
+    public void shouldRunNoMoreWorkersThanConfigured() throws Exception
+    {
+        // When requests come in over enough connections to reach every event loop
+        Set<String> workerThreads = new HashSet<>();
+        for ( int i = 0; i < 64; i++ )
+        {
+            workerThreads.add( HTTP.GET( holon.httpUrl() + "/blocking" ).contentAsString() );
+        }
+
+        // Then
+        assertThat( workerThreads.size(), equalTo( 1 ) );
+    }
+
+    @Test
+    public void shouldRespond404ForUnknownRoutes() throws Exception
+    {
+        // When
+        HTTP.Response response = HTTP.GET( holon.httpUrl() + "/nonexistent" );
+
+        // Then
+        assertThat( response.status(), equalTo( 404 ) );
+    }
+}
@@ -0,0 +1,128 @@
+package holon.integration;
+
+import holon.api.http.JsonBody;
+import holon.api.http.POST;
+import holon.api.http.Request;
+import holon.api.http.Status;
+import holon.contrib.http.StringContent;
+import holon.util.HTTP;
+import holon.util.HolonRule;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.List;
+
+import static holon.util.HTTP.json;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class JsonBodyIntegrationTest
+{
+    @Rule
+    public HolonRule holon = new HolonRule( Endpoint.class );
+
+    public static class Event
+    {
+        public String name;
+        public List<Integer> values;
+    }
+
+    public static class Endpoint
+    {
+        @POST("/events")
+        public void ingest( Request req, @JsonBody Event event )
+        {
+            int sum = 0;
+            for ( Integer value : event.values )
+            {
+                sum += value;
+            }
+            req.respond( Status.Code.OK, new StringContent( event.name + ":" + event.values.size() + ":" + sum ) );
+        }
+    }
+
+    @Test
+    public void shouldBindJsonBody() throws Exception
+    {
+        // When
+        HTTP.Response response = HTTP.POST( holon.httpUrl() + "/events",
+                json( "{\"name\":\"clicks\",\"values\":[1,2,3]}" ) );
+
+        // Then
+        assertThat( response.status(), equalTo( 200 ) );
+        assertThat( response.contentAsString(), equalTo( "clicks:3:6" ) );
+    }
+
+    @Test
+    public void shouldBindBodiesLargerThanOneChunk() throws Exception
+    {
+        // Given
+        StringBuilder body = new StringBuilder( "{\"name\":\"bulk\",\"values\":[" );
+        for ( int i = 0; i < 100_000; i++ )
+        {
+            body.append( i == 0 ? "" : "," ).append( 1 );
+        }
+        body.append( "]}" );
+
+        // When
+        HTTP.Response response = HTTP.POST( holon.httpUrl() + "/events", json( body.toString() ) );
+
+        // Then
+        assertThat( response.status(), equalTo( 200 ) );
+        assertThat( response.contentAsString(), equalTo( "bulk:100000:100000" ) );
+    }
+
+    @Test
+    public void shouldRespondBadRequestToMalformedJson() throws Exception
+    {
+        // When more malformed bodies are sent than there are workers to handle them
+        for ( int i = 0; i < 16; i++ )
+        {
+            HTTP.Response response = HTTP.POST( holon.httpUrl() + "/events",
+                    json( "{\"name\":\"clicks\",\"values\":[1," ) );
+
+            // Then
+            assertThat( response.status(), equalTo( 400 ) );
+        }
+
+        // And the server still handles well formed ones
+        HTTP.Response response = HTTP.POST( holon.httpUrl() + "/events",
+                json( "{\"name\":\"clicks\",\"values\":[1]}" ) );
+        assertThat( response.status(), equalTo( 200 ) );
+        assertThat( response.contentAsString(), equalTo( "clicks:1:1" ) );
+    }
+
+    @Test
+    public void shouldRespondRequestEntityTooLargeToOversizedBody() throws Exception
+    {
+        // Given
+        StringBuilder body = new StringBuilder( "{\"name\":\"bulk\",\"values\":[1" );
+        while ( body.length() < 9 * 1024 * 1024 )
+        {
+            body.append( ",1" );
+        }
+        body.append( "]}" );
+
+        // When
+        HTTP.Response response = HTTP.POST( holon.httpUrl() + "/events", json( body.toString() ) );
+
+        // Then
+        assertThat( response.status(), equalTo( 413 ) );
+
+        // And the server still handles bodies that fit
+        HTTP.Response next = HTTP.POST( holon.httpUrl() + "/events",
+                json( "{\"name\":\"clicks\",\"values\":[1]}" ) );
+        assertThat( next.status(), equalTo( 200 ) );
+        assertThat( next.contentAsString(), equalTo( "clicks:1:1" ) );
+    }
+
+    @Test
+    public void shouldRespondBadRequestToEmptyBody() throws Exception
+    {
+        // When
+        HTTP.Response response = HTTP.POST( holon.httpUrl() + "/events", json( "" ) );
+
+        // Then
+        assertThat( response.status(), equalTo( 400 ) );
+    }
+}
@@ -0,0 +1,120 @@
+package holon.integration;
+
+import holon.api.http.GET;
+import holon.api.http.Request;
+import holon.api.http.Status;
+import holon.contrib.http.StringContent;
+import holon.util.HolonRule;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import static holon.Holon.Configuration.workers;
+import static holon.internal.config.MapConfig.config;
+import static holon.util.collection.Maps.map;
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+
+public class PipeliningIntegrationTest
+{
+    @Rule
+    public HolonRule holon = new HolonRule( new Class[]{Endpoint.class}, new Object[]{},
+            config( map( workers, "4" ) ) );
+
+    public static class Endpoint
+    {
+        @GET("/slow")
+        public void slow( Request req ) throws InterruptedException
+        {
+            Thread.sleep( 200 );
+            req.respond( Status.Code.OK, new StringContent( "slow" ) );
+        }
+
+        @GET("/fast")
+        public void fast( Request req )
+        {
+            req.respond( Status.Code.OK, new StringContent( "fast" ) );
+        }
+    }
+
+    @Test
+    public void shouldRespondToPipelinedRequestsInOrder() throws Exception
+    {
+        // When
+        String responses = exchange(
+                "GET /slow HTTP/1.1\r\nHost: localhost\r\n\r\n" +
+                "GET /fast HTTP/1.1\r\nHost: localhost\r\n\r\n" +
+                "GET /slow HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n" );
+
+        // Then
+        assertThat( count( responses, "HTTP/1.1 200 OK" ), equalTo( 3 ) );
+        int firstSlow = responses.indexOf( "\r\n\r\nslow" );
+        int fast = responses.indexOf( "\r\n\r\nfast" );
+        int secondSlow = responses.lastIndexOf( "\r\n\r\nslow" );
+        assertThat( fast, greaterThan( firstSlow ) );
+        assertThat( secondSlow, greaterThan( fast ) );
+    }
+
+    @Test
+    public void shouldCloseConnectionsThatAreNotKeptAlive() throws Exception
+    {
+        // When
+        String responses = exchange( "GET /fast HTTP/1.0\r\n\r\n" );
+
+        // Then
+        assertThat( count( responses, "200 OK" ), equalTo( 1 ) );
+        assertThat( responses, containsString( "Connection: close" ) );
+    }
+
+    @Test
+    public void shouldKeepHttp10ConnectionsAliveWhenAsked() throws Exception
+    {
+        // When
+        String responses = exchange(
+                "GET /fast HTTP/1.0\r\nConnection: keep-alive\r\n\r\n" +
+                "GET /fast HTTP/1.0\r\n\r\n" );
+
+        // Then
+        assertThat( count( responses, "200 OK" ), equalTo( 2 ) );
+        assertThat( responses, containsString( "Connection: keep-alive" ) );
+    }
+
+    /** Send raw requests on a single connection, and read everything the server sends until it closes it. */
+    private String exchange( String requests ) throws Exception
+    {
+        URL url = new URL( holon.httpUrl() );
+        try(Socket socket = new Socket( url.getHost(), url.getPort() ))
+        {
+            socket.setSoTimeout( 10_000 );
+            socket.getOutputStream().write( requests.getBytes( StandardCharsets.US_ASCII ) );
+            socket.getOutputStream().flush();
+
+            ByteArrayOutputStream received = new ByteArrayOutputStream();
+            InputStream in = socket.getInputStream();
+            byte[] buffer = new byte[1024];
+            int read;
+            while((read = in.read( buffer )) != -1)
+            {
+                received.write( buffer, 0, read );
+            }
+            return received.toString( "UTF-8" );
+        }
+    }
+
+    private int count( String haystack, String needle )
+    {
+        int count = 0;
+        for ( int i = haystack.indexOf( needle ); i != -1; i = haystack.indexOf( needle, i + 1 ) )
+        {
+            count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,86 @@
+package holon.integration;
+
+import holon.api.http.GET;
+import holon.api.http.PathParam;
+import holon.api.http.Request;
+import holon.api.http.Status;
+import holon.contrib.http.JsonContent;
+import holon.util.HTTP;
+import holon.util.HolonRule;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.endsWith;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.startsWith;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class ResponseStreamingIntegrationTest
+{
+    @Rule
+    public HolonRule holon = new HolonRule( Endpoint.class );
+
+    public static class Endpoint
+    {
+        private final JsonContent json = new JsonContent();
+
+        @GET("/export/{rows}")
+        public void export( Request req, @PathParam("rows") String rowParam )
+        {
+            List<String> rows = new ArrayList<>();
+            int count = Integer.parseInt( rowParam );
+            for ( int i = 0; i < count; i++ )
+            {
+                rows.add( "row-" + i );
+            }
+            req.respond( Status.Code.OK, json, rows );
+        }
+    }
+
+    @Test
+    public void shouldStreamLargeBodiesInChunks() throws Exception
+    {
+        // When
+        HTTP.Response response = HTTP.withHeaders( "Accept-Encoding", "identity" )
+                .GET( holon.httpUrl() + "/export/200000" );
+
+        // Then
+        assertThat( response.status(), equalTo( 200 ) );
+        assertThat( response.header( "Transfer-Encoding" ), equalTo( "chunked" ) );
+        assertThat( response.header( "Content-Length" ), nullValue() );
+        assertThat( response.header( "Content-Type" ), equalTo( "application/json" ) );
+
+        String body = response.contentAsString();
+        assertThat( body, startsWith( "[\"row-0\",\"row-1\"," ) );
+        assertThat( body, endsWith( ",\"row-199999\"]" ) );
+    }
+
+    @Test
+    public void shouldSendSmallStreamedBodiesWhole() throws Exception
+    {
+        // When
+        HTTP.Response response = HTTP.withHeaders( "Accept-Encoding", "identity" )
+                .GET( holon.httpUrl() + "/export/2" );
+
+        // Then
+        assertThat( response.status(), equalTo( 200 ) );
+        assertThat( response.header( "Transfer-Encoding" ), nullValue() );
+        assertThat( response.header( "Content-Length" ), equalTo( "17" ) );
+        assertThat( response.contentAsString(), equalTo( "[\"row-0\",\"row-1\"]" ) );
+    }
+
+    @Test
+    public void shouldStreamCompressedBodies() throws Exception
+    {
+        // When
+        HTTP.Response response = HTTP.GET( holon.httpUrl() + "/export/200000" );
+
+        // Then
+        assertThat( response.status(), equalTo( 200 ) );
+        assertThat( response.contentAsString(), endsWith( ",\"row-199999\"]" ) );
+    }
+}
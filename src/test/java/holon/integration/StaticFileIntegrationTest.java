@@ -0,0 +1,202 @@
+package holon.integration;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import holon.util.HTTP;
+import holon.util.HolonRule;
+import holon.util.io.FileTools;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static io.netty.handler.codec.http.HttpHeaders.Names.ACCEPT_ENCODING;
+import static io.netty.handler.codec.http.HttpHeaders.Names.CONTENT_RANGE;
+import static io.netty.handler.codec.http.HttpHeaders.Names.IF_MODIFIED_SINCE;
+import static io.netty.handler.codec.http.HttpHeaders.Names.IF_RANGE;
+import static io.netty.handler.codec.http.HttpHeaders.Names.LAST_MODIFIED;
+import static io.netty.handler.codec.http.HttpHeaders.Names.RANGE;
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class StaticFileIntegrationTest
+{
+    @Rule
+    public HolonRule holon = new HolonRule(Endpoint.class);
+
+    private String largeFileContent;
+
+    public static class Endpoint
+    {
+    }
+
+    @Before
+    public void createFiles() throws Exception
+    {
+        StringBuilder sb = new StringBuilder();
+        for ( int i = 0; i < 1024 * 256; i++ )
+        {
+            sb.append( (char)('a' + i % 26) );
+        }
+        largeFileContent = sb.toString();
+
+        FileTools.write( new File( holon.publicDir(), "large.txt" ), largeFileContent, Charset.forName( "UTF-8" ) );
+        FileTools.write( new File( holon.publicDir(), "large.mp4" ), largeFileContent, Charset.forName( "UTF-8" ) );
+    }
+
+    @Test
+    public void shouldSendUncompressedFile() throws Exception
+    {
+        // When
+        HTTP.Response response = HTTP.withHeaders( ACCEPT_ENCODING, "identity" ).GET( holon.httpUrl() + "/large.txt" );
+
+        // Then
+        assertThat( response.status(), equalTo( 200 ) );
+        assertThat( response.header( "Content-Length" ), equalTo( "" + largeFileContent.length() ) );
+        assertThat( response.contentAsString(), equalTo( largeFileContent ) );
+    }
+
+    @Test
+    public void shouldSendCompressedFile() throws Exception
+    {
+        // When
+        HTTP.Response response = HTTP.withHeaders( ACCEPT_ENCODING, "gzip" ).GET( holon.httpUrl() + "/large.txt" );
+
+        // Then
+        assertThat( response.status(), equalTo( 200 ) );
+        assertThat( response.contentAsString(), equalTo( largeFileContent ) );
+    }
+
+    @Test
+    public void shouldSendSameFileRepeatedly() throws Exception
+    {
+        for ( int i = 0; i < 3; i++ )
+        {
+            // When
+            HTTP.Response response = HTTP.withHeaders( ACCEPT_ENCODING, "identity" ).GET( holon.httpUrl() + "/large.txt" );
+
+            // Then
+            assertThat( response.status(), equalTo( 200 ) );
+            assertThat( response.contentAsString(), equalTo( largeFileContent ) );
+        }
+    }
+
+    @Test
+    public void shouldSendSameFileThroughCompressorConcurrently() throws Exception
+    {
+        // Given
+        ExecutorService clients = Executors.newFixedThreadPool( 8 );
+        try
+        {
+            // When
+            List<Future<HTTP.Response>> responses = new ArrayList<>();
+            for ( int i = 0; i < 32; i++ )
+            {
+                responses.add( clients.submit(
+                        () -> HTTP.withHeaders( ACCEPT_ENCODING, "gzip" ).GET( holon.httpUrl() + "/large.mp4" ) ) );
+            }
+
+            // Then
+            for ( Future<HTTP.Response> response : responses )
+            {
+                // Bodies mixed up with each other come out short, and would leave us waiting for the rest
+                HTTP.Response sent = response.get( 30, TimeUnit.SECONDS );
+                assertThat( sent.status(), equalTo( 200 ) );
+                assertThat( sent.contentAsString(), equalTo( largeFileContent ) );
+            }
+        }
+        finally
+        {
+            clients.shutdownNow();
+        }
+    }
+
+    @Test
+    public void shouldSendRequestedRange() throws Exception
+    {
+        // When
+        HTTP.Response response = HTTP.withHeaders( ACCEPT_ENCODING, "identity", RANGE, "bytes=100-199" )
+                .GET( holon.httpUrl() + "/large.txt" );
+
+        // Then
+        assertThat( response.status(), equalTo( 206 ) );
+        assertThat( response.header( CONTENT_RANGE ), equalTo( "bytes 100-199/" + largeFileContent.length() ) );
+        assertThat( response.header( "Content-Length" ), equalTo( "100" ) );
+        assertThat( response.contentAsString(), equalTo( largeFileContent.substring( 100, 200 ) ) );
+    }
+
+    @Test
+    public void shouldNotCompressRanges() throws Exception
+    {
+        // When
+        HTTP.Response response = HTTP.withHeaders( ACCEPT_ENCODING, "gzip", RANGE, "bytes=-10" )
+                .GET( holon.httpUrl() + "/large.mp4" );
+
+        // Then
+        assertThat( response.status(), equalTo( 206 ) );
+        assertThat( response.header( "Content-Length" ), equalTo( "10" ) );
+        assertThat( response.contentAsString(), equalTo( largeFileContent.substring( largeFileContent.length() - 10 ) ) );
+    }
+
+    @Test
+    public void shouldSendSeveralRangesAsMultipart() throws Exception
+    {
+        // When
+        HTTP.Response response = HTTP.withHeaders( ACCEPT_ENCODING, "identity", RANGE, "bytes=0-9,1000-1009" )
+                .GET( holon.httpUrl() + "/large.txt" );
+
+        // Then
+        assertThat( response.status(), equalTo( 206 ) );
+        assertThat( response.header( "Content-Type" ), containsString( "multipart/byteranges; boundary=" ) );
+        String body = response.contentAsString();
+        assertThat( body, containsString( "Content-Range: bytes 0-9/" + largeFileContent.length() + "\r\n\r\n"
+                + largeFileContent.substring( 0, 10 ) ) );
+        assertThat( body, containsString( "Content-Range: bytes 1000-1009/" + largeFileContent.length() + "\r\n\r\n"
+                + largeFileContent.substring( 1000, 1010 ) ) );
+    }
+
+    @Test
+    public void shouldRejectRangesPastTheEndOfTheFile() throws Exception
+    {
+        // When
+        HTTP.Response response = HTTP.withHeaders( ACCEPT_ENCODING, "identity", RANGE, "bytes=999999999-" )
+                .GET( holon.httpUrl() + "/large.txt" );
+
+        // Then
+        assertThat( response.status(), equalTo( 416 ) );
+        assertThat( response.header( CONTENT_RANGE ), equalTo( "bytes */" + largeFileContent.length() ) );
+    }
+
+    @Test
+    public void shouldSendWholeFileIfRangeIsForAnotherVersion() throws Exception
+    {
+        // When
+        HTTP.Response response = HTTP.withHeaders( ACCEPT_ENCODING, "identity", RANGE, "bytes=0-9",
+                IF_RANGE, "\"some-other-version\"" ).GET( holon.httpUrl() + "/large.txt" );
+
+        // Then
+        assertThat( response.status(), equalTo( 200 ) );
+        assertThat( response.contentAsString(), equalTo( largeFileContent ) );
+    }
+
+    @Test
+    public void shouldRespondNotModifiedIfUnchangedSinceLastModified() throws Exception
+    {
+        // Given
+        HTTP.Response first = HTTP.withHeaders( ACCEPT_ENCODING, "identity" ).GET( holon.httpUrl() + "/large.txt" );
+
+        // When
+        HTTP.Response second = HTTP.withHeaders( ACCEPT_ENCODING, "identity",
+                IF_MODIFIED_SINCE, first.header( LAST_MODIFIED ) ).GET( holon.httpUrl() + "/large.txt" );
+
+        // Then
+        assertThat( second.status(), equalTo( 304 ) );
+    }
+}
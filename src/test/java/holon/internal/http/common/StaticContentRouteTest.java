@@ -19,9 +19,13 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.charset.Charset;
 import java.nio.file.Path;
+import java.util.HashMap;
 import java.util.Map;
 
 import static junit.framework.TestCase.assertFalse;
+import static holon.util.collection.Maps.map;
+import static io.netty.handler.codec.http.HttpHeaders.Names.ETAG;
+import static io.netty.handler.codec.http.HttpHeaders.Names.IF_NONE_MATCH;
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
@@ -108,16 +112,72 @@ public class StaticContentRouteTest
         assertThat( req.out.toByteArray(), equalTo( "Hello, world!".getBytes( "UTF-8" ) ) );
     }
 
+    @Test
+    public void shouldRespondNotModifiedToMatchingEtag() throws Exception
+    {
+        // Given
+        StaticContentRoute route = new StaticContentRoute(rootDir, new TestScheduler());
+        CollectingRequest first = new CollectingRequest("/test.txt");
+        route.call( first );
+
+        // When
+        CollectingRequest second = new CollectingRequest("/test.txt", map( IF_NONE_MATCH, first.headers.get( ETAG ) ));
+        route.call( second );
+
+        // Then
+        assertThat(second.status, equalTo(Status.Code.NOT_MODIFIED));
+    }
+
+    @Test
+    public void shouldGiveSameContentSameEtag() throws Exception
+    {
+        // Given
+        CollectingRequest first = new CollectingRequest("/test.txt");
+        CollectingRequest second = new CollectingRequest("/test.txt");
+
+        // When
+        new StaticContentRoute(rootDir, new TestScheduler()).call( first );
+        new StaticContentRoute(rootDir, new TestScheduler()).call( second );
+
+        // Then
+        assertThat(first.headers.get( ETAG ), equalTo( second.headers.get( ETAG ) ));
+        assertFalse( first.headers.get( ETAG ).startsWith( "W/" ) );
+    }
+
+    @Test
+    public void shouldUseWeakEtagsIfAsked() throws Exception
+    {
+        // Given
+        StaticContentRoute route = new StaticContentRoute(rootDir, new TestScheduler(), true);
+        CollectingRequest req = new CollectingRequest("/test.txt");
+
+        // When
+        route.call( req );
+
+        // Then
+        assertThat(req.status, equalTo(Status.Code.OK));
+        assertTrue( req.headers.get( ETAG ).startsWith( "W/\"" ) );
+        assertThat( req.out.toByteArray(), equalTo( "Hello, world!".getBytes( "UTF-8" ) ) );
+    }
+
     private static class CollectingRequest implements RequestContext
     {
         private final holon.internal.routing.path.Path path;
+        private final Map<String, String> requestHeaders;
         public Status status;
         public Content content;
+        public Map<String, String> headers = new HashMap<>();
         public ByteArrayOutput out = new ByteArrayOutput();
 
         public CollectingRequest(String path)
+        {
+            this( path, new HashMap<>() );
+        }
+
+        public CollectingRequest(String path, Map<String, String> requestHeaders)
         {
             this.path = new PatternSegment.ParamHandlingPath().initialize( path, null );
+            this.requestHeaders = requestHeaders;
         }
 
         @Override
@@ -137,6 +197,10 @@ public class StaticContentRouteTest
         {
             this.status = status;
             this.content = content;
+            if(content == null)
+            {
+                return;
+            }
             try
             {
                 content.render( out, context );
@@ -169,6 +233,7 @@ public class StaticContentRouteTest
         @Override
         public Request addHeader( String header, String value )
         {
+            headers.put( header, value );
             return null;
         }
 
@@ -193,7 +258,7 @@ public class StaticContentRouteTest
         @Override
         public RequestHeaders headers()
         {
-            return null;
+            return requestHeaders::get;
         }
 
         @Override
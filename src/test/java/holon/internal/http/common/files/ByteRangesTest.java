@@ -0,0 +1,54 @@
+package holon.internal.http.common.files;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class ByteRangesTest
+{
+    @Test
+    public void shouldParseClosedOpenAndSuffixRanges() throws Exception
+    {
+        assertThat( ByteRanges.parse( "bytes=0-99", 1000 ).contentRange( 0 ), equalTo( "bytes 0-99/1000" ) );
+        assertThat( ByteRanges.parse( "bytes=900-", 1000 ).contentRange( 0 ), equalTo( "bytes 900-999/1000" ) );
+        assertThat( ByteRanges.parse( "bytes=-100", 1000 ).contentRange( 0 ), equalTo( "bytes 900-999/1000" ) );
+        assertThat( ByteRanges.parse( "bytes=990-2000", 1000 ).contentRange( 0 ), equalTo( "bytes 990-999/1000" ) );
+    }
+
+    @Test
+    public void shouldMergeOverlappingRanges() throws Exception
+    {
+        // When
+        ByteRanges ranges = ByteRanges.parse( "bytes=500-599, 0-9, 5-19, 20-29", 1000 );
+
+        // Then
+        assertThat( ranges.count(), equalTo( 2 ) );
+        assertThat( ranges.contentRange( 0 ), equalTo( "bytes 0-29/1000" ) );
+        assertThat( ranges.contentRange( 1 ), equalTo( "bytes 500-599/1000" ) );
+        assertThat( ranges.totalCount(), equalTo( 130l ) );
+    }
+
+    @Test
+    public void shouldNotSatisfyRangesPastTheEnd() throws Exception
+    {
+        // When
+        ByteRanges ranges = ByteRanges.parse( "bytes=1000-", 1000 );
+
+        // Then
+        assertThat( ranges.isSatisfiable(), equalTo( false ) );
+        assertThat( ranges.unsatisfiedRange(), equalTo( "bytes */1000" ) );
+    }
+
+    @Test
+    public void shouldIgnoreMalformedHeaders() throws Exception
+    {
+        assertThat( ByteRanges.parse( null, 1000 ), nullValue() );
+        assertThat( ByteRanges.parse( "items=0-10", 1000 ), nullValue() );
+        assertThat( ByteRanges.parse( "bytes=10-5", 1000 ), nullValue() );
+        assertThat( ByteRanges.parse( "bytes=a-b", 1000 ), nullValue() );
+        assertThat( ByteRanges.parse( "bytes=0-1,2-3,4-5,6-7,8-9,10-11,12-13,14-15,16-17,18-19,20-21,22-23,24-25,"
+                                      + "26-27,28-29,30-31,32-33", 1000 ), nullValue() );
+    }
+}
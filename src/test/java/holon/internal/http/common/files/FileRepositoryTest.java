@@ -0,0 +1,156 @@
+package holon.internal.http.common.files;
+
+import holon.internal.io.ByteArrayOutput;
+import holon.util.scheduling.TestScheduler;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.channels.ClosedChannelException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+
+public class FileRepositoryTest
+{
+    @Rule public TemporaryFolder testDir = new TemporaryFolder();
+
+    @Test
+    public void shouldOnlyContainRegularFiles() throws Exception
+    {
+        // Given
+        Path base = testDir.getRoot().toPath();
+        Files.createDirectories( base.resolve( "css" ) );
+        Files.write( base.resolve( "css/site.css" ), "body{}".getBytes( "UTF-8" ) );
+
+        // When
+        FileRepository files = new FileRepository( base, base.getFileSystem(), new TestScheduler() );
+
+        // Then
+        assertThat( files.contains( "/css/site.css" ), equalTo( true ) );
+        assertThat( files.contains( "/css/../css/site.css" ), equalTo( true ) );
+        assertThat( files.contains( "/css" ), equalTo( false ) );
+        assertThat( files.contains( "/" ), equalTo( false ) );
+        assertThat( files.get( "/nosuch.css" ), nullValue() );
+    }
+
+    @Test
+    public void shouldFollowCreatedAndDeletedFiles() throws Exception
+    {
+        // Given
+        Path base = testDir.getRoot().toPath();
+        FileRepository files = new FileRepository( base, base.getFileSystem(), new TestScheduler() );
+        assertThat( files.contains( "/late/new.txt" ), equalTo( false ) );
+
+        // When
+        Files.createDirectories( base.resolve( "late" ) );
+        Files.write( base.resolve( "late/new.txt" ), "hi".getBytes( "UTF-8" ) );
+        files.onFileEvent( ENTRY_CREATE, Paths.get( "late" ) );
+
+        // Then
+        assertThat( files.contains( "/late/new.txt" ), equalTo( true ) );
+
+        // And when
+        Files.delete( base.resolve( "late/new.txt" ) );
+        Files.delete( base.resolve( "late" ) );
+        files.onFileEvent( ENTRY_DELETE, Paths.get( "late" ) );
+
+        // Then
+        assertThat( files.contains( "/late/new.txt" ), equalTo( false ) );
+    }
+
+    @Test
+    public void shouldOnlyReopenFilesThatChanged() throws Exception
+    {
+        // Given
+        Path base = testDir.getRoot().toPath();
+        Files.write( base.resolve( "a.txt" ), "a".getBytes( "UTF-8" ) );
+        Files.write( base.resolve( "b.txt" ), "b".getBytes( "UTF-8" ) );
+        FileRepository files = new FileRepository( base, base.getFileSystem(), new TestScheduler() );
+        FileContent a = files.get( "/a.txt" );
+        FileContent b = files.get( "/b.txt" );
+
+        // When
+        Files.write( base.resolve( "a.txt" ), "a, changed".getBytes( "UTF-8" ) );
+        files.onFileEvent( ENTRY_MODIFY, Paths.get( "a.txt" ) );
+
+        // Then
+        assertThat( files.get( "/b.txt" ), sameInstance( b ) );
+        assertThat( files.get( "/a.txt" ), not( sameInstance( a ) ) );
+        assertThat( files.get( "/a.txt" ).size(), equalTo( 10l ) );
+    }
+
+    @Test
+    public void shouldServeEachFileFromItsOwnHandle() throws Exception
+    {
+        // Given more files than there are handles
+        Path base = testDir.getRoot().toPath();
+        for ( int i = 0; i < 2000; i++ )
+        {
+            Files.write( base.resolve( "f" + i + ".txt" ), ("file " + i).getBytes( "UTF-8" ) );
+        }
+        FileRepository files = new FileRepository( base, base.getFileSystem(), new TestScheduler() );
+
+        for ( int round = 0; round < 2; round++ )
+        {
+            for ( int i = 0; i < 2000; i++ )
+            {
+                // When
+                FileContent file = files.get( "/f" + i + ".txt" );
+
+                // Then
+                assertThat( new String( render( file ), "UTF-8" ), equalTo( "file " + i ) );
+                file.release();
+            }
+        }
+    }
+
+    @Test
+    public void shouldKeepDroppedFilesOpenUntilReleased() throws Exception
+    {
+        // Given
+        Path base = testDir.getRoot().toPath();
+        Files.write( base.resolve( "a.txt" ), "a".getBytes( "UTF-8" ) );
+        FileRepository files = new FileRepository( base, base.getFileSystem(), new TestScheduler() );
+        FileContent a = files.get( "/a.txt" );
+
+        // When
+        Files.delete( base.resolve( "a.txt" ) );
+        files.onFileEvent( ENTRY_DELETE, Paths.get( "a.txt" ) );
+
+        // Then the response still using it can finish
+        assertThat( new String( render( a ), "UTF-8" ), equalTo( "a" ) );
+
+        // And when
+        a.release();
+
+        // Then
+        assertThat( a.retain(), equalTo( false ) );
+        try
+        {
+            a.size();
+            fail( "Expected the file to be closed." );
+        }
+        catch ( ClosedChannelException e )
+        {
+            // Closed along with the last reference
+        }
+    }
+
+    private byte[] render( FileContent file ) throws Exception
+    {
+        ByteArrayOutput out = new ByteArrayOutput();
+        file.render( out, null );
+        return out.toByteArray();
+    }
+}
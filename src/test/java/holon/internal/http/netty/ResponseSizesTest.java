@@ -0,0 +1,67 @@
+package holon.internal.http.netty;
+
+import holon.api.http.Content;
+import holon.contrib.http.StringContent;
+import holon.internal.io.ByteBufWriter;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class ResponseSizesTest
+{
+    @Test
+    public void shouldFollowLargerBodiesRightAwayAndSmallerOnesSlowly() throws Exception
+    {
+        // Given
+        ResponseSizes sizes = new ResponseSizes();
+        Content content = new StringContent( "page" );
+        assertThat( sizes.bufferSize( content ), equalTo( ResponseSizes.DEFAULT_SIZE ) );
+
+        // When
+        sizes.record( content, 10_000 );
+
+        // Then
+        assertThat( sizes.estimates().get( content.sizeKey() ), equalTo( 10_000 ) );
+        assertThat( sizes.bufferSize( content ), equalTo( 10_000 + ByteBufWriter.HEADROOM ) );
+
+        // And when
+        sizes.record( content, 20_000 );
+        sizes.record( content, 4_000 );
+
+        // Then
+        assertThat( sizes.estimates().get( content.sizeKey() ), equalTo( 19_000 ) );
+    }
+
+    @Test
+    public void shouldCapEstimates() throws Exception
+    {
+        // Given
+        ResponseSizes sizes = new ResponseSizes();
+        Content content = new StringContent( "page" );
+
+        // When
+        sizes.record( content, Integer.MAX_VALUE );
+
+        // Then
+        assertThat( sizes.estimates().get( content.sizeKey() ), equalTo( ResponseSizes.MAX_SIZE ) );
+    }
+
+    @Test
+    public void shouldShareEstimatesBetweenContentCreatedPerResponse() throws Exception
+    {
+        // Given
+        ResponseSizes sizes = new ResponseSizes();
+
+        // When
+        for ( int i = 0; i < 10_000; i++ )
+        {
+            sizes.record( new StringContent( "page " + i ), 10_000 );
+        }
+
+        // Then
+        assertThat( sizes.estimates().size(), equalTo( 1 ) );
+        assertThat( sizes.bufferSize( new StringContent( "another page" ) ),
+                equalTo( 10_000 + ByteBufWriter.HEADROOM ) );
+    }
+}
@@ -0,0 +1,117 @@
+package holon.internal.io;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class ByteBufWriterTest
+{
+    private static final String TEXT = "plain ascii, \u00e5\u00e4\u00f6, \u20acuro, \uD83D\uDE00 and some more ascii";
+
+    @Test
+    public void shouldEncodeLikeTheJdk() throws Exception
+    {
+        for ( ByteBuf target : new ByteBuf[]{ Unpooled.buffer(), Unpooled.directBuffer(),
+                PooledByteBufAllocator.DEFAULT.directBuffer(), PooledByteBufAllocator.DEFAULT.heapBuffer() } )
+        {
+            // Given
+            ByteBufWriter writer = new ByteBufWriter().initialize( target );
+
+            // When
+            writer.write( TEXT );
+            writer.write( TEXT.toCharArray() );
+            writer.write( '!' );
+            writer.append( new StringBuilder( TEXT ) );
+
+            // Then
+            assertThat( bytes( target ), equalTo( (TEXT + TEXT + "!" + TEXT).getBytes( StandardCharsets.UTF_8 ) ) );
+            target.release();
+        }
+    }
+
+    @Test
+    public void shouldEncodeTextLongerThanASlice() throws Exception
+    {
+        // Given
+        StringBuilder text = new StringBuilder();
+        while(text.length() < ByteBufWriter.SLICE * 5)
+        {
+            text.append( TEXT );
+        }
+        ByteBuf target = PooledByteBufAllocator.DEFAULT.directBuffer();
+        ByteBufWriter writer = new ByteBufWriter().initialize( target );
+
+        // When
+        writer.write( text.toString() );
+
+        // Then
+        assertThat( bytes( target ), equalTo( text.toString().getBytes( StandardCharsets.UTF_8 ) ) );
+        target.release();
+    }
+
+    @Test
+    public void shouldNotGrowBuffersWithHeadroomToSpare() throws Exception
+    {
+        // Given
+        StringBuilder text = new StringBuilder();
+        while(text.length() < ByteBufWriter.SLICE * 5)
+        {
+            text.append( TEXT );
+        }
+        byte[] expected = text.toString().getBytes( StandardCharsets.UTF_8 );
+        ByteBuf target = Unpooled.directBuffer( expected.length + ByteBufWriter.HEADROOM );
+        ByteBufWriter writer = new ByteBufWriter().initialize( target );
+
+        // When
+        writer.write( text.toString() );
+
+        // Then
+        assertThat( bytes( target ), equalTo( expected ) );
+        assertThat( target.capacity(), equalTo( expected.length + ByteBufWriter.HEADROOM ) );
+    }
+
+    @Test
+    public void shouldJoinSurrogatePairsSplitAcrossWrites() throws Exception
+    {
+        // Given
+        ByteBuf target = Unpooled.buffer();
+        ByteBufWriter writer = new ByteBufWriter().initialize( target );
+
+        // When
+        writer.write( "a\uD83D" );
+        writer.write( "\uDE00b" );
+        writer.write( "\uDE00\uD83Dc" );
+
+        // Then
+        assertThat( new String( bytes( target ), StandardCharsets.UTF_8 ), equalTo( "a\uD83D\uDE00b??c" ) );
+    }
+
+    @Test
+    public void shouldDropWritesWhenDetached() throws Exception
+    {
+        // Given
+        ByteBuf target = Unpooled.buffer();
+        ByteBufWriter writer = new ByteBufWriter().initialize( target );
+        writer.write( "kept" );
+
+        // When
+        writer.initialize( null );
+        writer.write( "dropped" );
+
+        // Then
+        assertThat( new String( bytes( target ), StandardCharsets.UTF_8 ), equalTo( "kept" ) );
+    }
+
+    private static byte[] bytes( ByteBuf buf )
+    {
+        byte[] bytes = new byte[buf.readableBytes()];
+        buf.getBytes( buf.readerIndex(), bytes );
+        return bytes;
+    }
+}
@@ -0,0 +1,48 @@
+package holon.internal.io;
+
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+import holon.util.ContentHash;
+import org.junit.Test;
+
+import static holon.util.io.FileTools.temporaryFile;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class FileOutputTest
+{
+    @Test
+    public void shouldWriteTextAndBytesInOrder() throws Exception
+    {
+        // Given text that fills up the buffer a few times over
+        StringBuilder text = new StringBuilder();
+        for ( int i = 0; i < 2000; i++ )
+        {
+            text.append( "line " ).append( i ).append( ", \u00e5\u00e4\u00f6 \u20ac\n" );
+        }
+        byte[] expected = (text + "bytes" + text).getBytes( StandardCharsets.UTF_8 );
+
+        try ( FileChannel file = temporaryFile() )
+        {
+            ContentHash hash = new ContentHash();
+            FileOutput out = new FileOutput( file, hash );
+
+            // When
+            Writer writer = out.asWriter();
+            writer.write( text.toString() );
+            out.write( ByteBuffer.wrap( "bytes".getBytes( StandardCharsets.UTF_8 ) ), () -> {} );
+            writer.write( text.toString() );
+            out.flush();
+
+            // Then
+            ByteBuffer written = ByteBuffer.allocate( (int) file.size() );
+            file.read( written, 0 );
+            assertThat( new String( written.array(), StandardCharsets.UTF_8 ),
+                    equalTo( new String( expected, StandardCharsets.UTF_8 ) ) );
+            assertThat( hash.etag(), equalTo( ContentHash.etag( expected ) ) );
+        }
+    }
+}
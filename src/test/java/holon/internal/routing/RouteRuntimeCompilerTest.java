@@ -5,15 +5,21 @@ import holon.api.http.GET;
 import holon.api.http.POST;
 import holon.api.http.PathParam;
 import holon.api.http.Request;
+import holon.api.middleware.MiddlewareAnnotation;
+import holon.api.middleware.MiddlewareHandler;
+import holon.api.middleware.Pipeline;
 import holon.internal.di.Components;
 import holon.internal.routing.annotated.RouteCompiler;
 import holon.spi.Route;
 import org.junit.Test;
 
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
 import java.lang.reflect.Method;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static org.hamcrest.CoreMatchers.equalTo;
@@ -36,8 +42,56 @@ public class RouteRuntimeCompilerTest
         {
             actualData.set( data );
         }
+
+        @POST("/pair")
+        public void postPair( @FormParam("a") String a, Request req, @FormParam("b") String b )
+        {
+            if(!a.equals( b ))
+            {
+                mismatches.incrementAndGet();
+            }
+        }
+
+        @POST("/echo")
+        @Echoed
+        public void postEcho( Echo echo, @FormParam("b") String b )
+        {
+            if(!echo.value.equals( b ))
+            {
+                mismatches.incrementAndGet();
+            }
+        }
     }
 
+    @Retention(RetentionPolicy.RUNTIME)
+    @MiddlewareAnnotation(EchoMiddleware.class)
+    public @interface Echoed
+    {
+    }
+
+    public static class Echo
+    {
+        private final String value;
+
+        Echo( String value )
+        {
+            this.value = value;
+        }
+    }
+
+    /** Provides a component made from the request, for the endpoint to check against the same request. */
+    public static class EchoMiddleware
+    {
+        @MiddlewareHandler
+        public void handle( Pipeline pipeline, @FormParam("a") String a )
+        {
+            pipeline.satisfyDependency( Echo.class, new Echo( a ) );
+            pipeline.call();
+        }
+    }
+
+    private static final AtomicInteger mismatches = new AtomicInteger();
+
     @Test
     public void shouldProvidePostData() throws Exception
     {
@@ -70,4 +124,58 @@ public class RouteRuntimeCompilerTest
         // Then
         assertThat( actualData.get(), equalTo( "success" ) );
     }
+
+    @Test
+    public void shouldKeepArgumentsOfConcurrentRequestsApart() throws Exception
+    {
+        // Given
+        Method method = Endpoint.class.getMethod( "postPair", String.class, Request.class, String.class );
+        Route route = new RouteCompiler( new Components(), Collections.emptyList() ).compile( "",
+                Endpoint.class, method, method.getAnnotation( POST.class ) );
+
+        // When
+        callConcurrently( route, "/pair" );
+
+        // Then
+        assertThat( mismatches.get(), equalTo( 0 ) );
+    }
+
+    @Test
+    public void shouldKeepMiddlewareComponentsOfConcurrentRequestsApart() throws Exception
+    {
+        // Given
+        Method method = Endpoint.class.getMethod( "postEcho", Echo.class, String.class );
+        Route route = new RouteCompiler( new Components(), Collections.emptyList() ).compile( "",
+                Endpoint.class, method, method.getAnnotation( POST.class ) );
+
+        // When
+        callConcurrently( route, "/echo" );
+
+        // Then
+        assertThat( mismatches.get(), equalTo( 0 ) );
+    }
+
+    private void callConcurrently( Route route, String path ) throws InterruptedException
+    {
+        mismatches.set( 0 );
+        Thread[] threads = new Thread[4];
+        for ( int t = 0; t < threads.length; t++ )
+        {
+            String value = "thread-" + t;
+            threads[t] = new Thread( () -> {
+                HashMap<String, Object> data = new HashMap<>();
+                data.put( "a", value );
+                data.put( "b", value );
+                for ( int i = 0; i < 20_000; i++ )
+                {
+                    route.call( new TestRequest( path, data ) );
+                }
+            } );
+            threads[t].start();
+        }
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+    }
 }
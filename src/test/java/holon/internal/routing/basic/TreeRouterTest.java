@@ -0,0 +1,336 @@
+package holon.internal.routing.basic;
+
+import holon.internal.routing.TestRequest;
+import holon.internal.routing.path.Path;
+import holon.spi.RequestContext;
+import holon.spi.Route;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import static holon.internal.routing.HttpMethod.Standard.GET;
+import static holon.internal.routing.HttpMethod.Standard.POST;
+import static java.util.Arrays.asList;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class TreeRouterTest
+{
+    @Test
+    public void shouldRouteAmongManyRoutes() throws Exception
+    {
+        // Given
+        List<Route> routes = new ArrayList<>();
+        for ( int i = 0; i < 1000; i++ )
+        {
+            routes.add( route( "/static/route" + i ) );
+            routes.add( route( "/users" + i + "/{user}/posts/{post}" ) );
+        }
+        TreeRouter router = new TreeRouter( routes, route( "404" ) );
+
+        // When
+        RoutedRequest req = new RoutedRequest();
+        router.invoke( GET, "/users537/jake/posts/1337", req );
+
+        // Then
+        assertThat( req.route, equalTo( "/users537/{user}/posts/{post}" ) );
+        assertThat( req.path.param( "user" ), equalTo( "jake" ) );
+        assertThat( req.path.param( "post" ), equalTo( "1337" ) );
+
+        // And when
+        router.invoke( GET, "/static/route999", req );
+
+        // Then
+        assertThat( req.route, equalTo( "/static/route999" ) );
+        assertThat( req.path.param( "user" ), nullValue() );
+    }
+
+    @Test
+    public void shouldFallBackToWildcardWhenStaticSegmentLeadsNowhere() throws Exception
+    {
+        // Given
+        TreeRouter router = new TreeRouter( asList(
+                route( "/same/specific/end" ),
+                route( "/same/{id}/other" ),
+                route( "/same/{id}" ) ), route( "404" ) );
+        RoutedRequest req = new RoutedRequest();
+
+        // When & then
+        router.invoke( GET, "/same/specific/end", req );
+        assertThat( req.route, equalTo( "/same/specific/end" ) );
+
+        router.invoke( GET, "/same/specific/other", req );
+        assertThat( req.route, equalTo( "/same/{id}/other" ) );
+        assertThat( req.path.param( "id" ), equalTo( "specific" ) );
+
+        router.invoke( GET, "/same/specific", req );
+        assertThat( req.route, equalTo( "/same/{id}" ) );
+    }
+
+    @Test
+    public void shouldSegmentPathsLikeSplit() throws Exception
+    {
+        // Given
+        TreeRouter router = new TreeRouter( asList(
+                route( "/" ),
+                route( "/users" ),
+                route( "/a/{empty}/b" ) ), route( "404" ) );
+        RoutedRequest req = new RoutedRequest();
+
+        // When & then
+        router.invoke( GET, "/", req );
+        assertThat( req.route, equalTo( "/" ) );
+
+        router.invoke( GET, "/users/", req );
+        assertThat( req.route, equalTo( "/users" ) );
+
+        router.invoke( GET, "/a//b", req );
+        assertThat( req.route, equalTo( "/a/{empty}/b" ) );
+        assertThat( req.path.param( "empty" ), equalTo( "" ) );
+
+        router.invoke( GET, "/users/nope", req );
+        assertThat( req.route, equalTo( "404" ) );
+
+        router.invoke( POST, "/users", req );
+        assertThat( req.route, equalTo( "404" ) );
+    }
+
+    @Test
+    public void shouldIgnoreQueryStrings() throws Exception
+    {
+        // Given
+        TreeRouter router = new TreeRouter( asList(
+                route( "/users/{user}" ),
+                route( "/" ) ), route( "404" ) );
+        RoutedRequest req = new RoutedRequest();
+
+        // When & then
+        router.invoke( GET, "/users/jake?tab=posts/recent", req );
+        assertThat( req.route, equalTo( "/users/{user}" ) );
+        assertThat( req.path.param( "user" ), equalTo( "jake" ) );
+        assertThat( req.path.fullPath(), equalTo( "/users/jake" ) );
+
+        router.invoke( GET, "/?q=1", req );
+        assertThat( req.route, equalTo( "/" ) );
+
+        router.invoke( null, "/users/jake", req );
+        assertThat( req.route, equalTo( "404" ) );
+    }
+
+    @Test
+    public void shouldFallBackToDynamicRoutes() throws Exception
+    {
+        // Given
+        Route dynamic = new Route()
+        {
+            @Override
+            public String method()
+            {
+                return POST.name();
+            }
+
+            @Override
+            public PathPattern pattern()
+            {
+                return new PathPattern()
+                {
+                    @Override
+                    public boolean isDynamic()
+                    {
+                        return true;
+                    }
+
+                    @Override
+                    public String pattern()
+                    {
+                        return "/*";
+                    }
+
+                    @Override
+                    public boolean matches( String path )
+                    {
+                        return path.endsWith( ".txt" );
+                    }
+                };
+            }
+
+            @Override
+            public void call( RequestContext req )
+            {
+                ((RoutedRequest) req).route = "dynamic";
+            }
+        };
+        TreeRouter router = new TreeRouter( asList( route( "/users" ), dynamic ), route( "404" ) );
+        RoutedRequest req = new RoutedRequest();
+
+        // When
+        router.invoke( POST, "/some/file.txt", req );
+
+        // Then
+        assertThat( req.route, equalTo( "dynamic" ) );
+        assertThat( req.path.fullPath(), equalTo( "/some/file.txt" ) );
+    }
+
+    @Test
+    public void shouldRememberDynamicMatchesUntilVersionChanges() throws Exception
+    {
+        // Given
+        CountingPattern pattern = new CountingPattern( 0 );
+        TreeRouter router = new TreeRouter( asList( dynamicRoute( pattern ) ), route( "404" ) );
+        RoutedRequest req = new RoutedRequest();
+
+        // When
+        router.invoke( GET, "/file.txt", req );
+        router.invoke( GET, "/file.txt", req );
+        router.invoke( GET, "/nosuch.png", req );
+        router.invoke( GET, "/nosuch.png", req );
+
+        // Then
+        assertThat( req.route, equalTo( "404" ) );
+        assertThat( pattern.calls, equalTo( 2 ) );
+
+        // And when
+        pattern.version++;
+        router.invoke( GET, "/file.txt", req );
+
+        // Then
+        assertThat( req.route, equalTo( "dynamic" ) );
+        assertThat( pattern.calls, equalTo( 3 ) );
+    }
+
+    @Test
+    public void shouldAlwaysAskUnversionedDynamicRoutes() throws Exception
+    {
+        // Given
+        CountingPattern pattern = new CountingPattern( Route.PathPattern.UNVERSIONED );
+        TreeRouter router = new TreeRouter( asList( dynamicRoute( pattern ) ), route( "404" ) );
+
+        // When
+        router.invoke( GET, "/nosuch.png", new RoutedRequest() );
+        router.invoke( GET, "/nosuch.png", new RoutedRequest() );
+
+        // Then
+        assertThat( pattern.calls, equalTo( 2 ) );
+    }
+
+    @Test
+    public void shouldNotMixUpRememberedDynamicMatchesThatShareABucket() throws Exception
+    {
+        // Given, more remembered paths than there are slots, so that many of them share a bucket
+        CountingPattern pattern = new CountingPattern( 0 );
+        TreeRouter router = new TreeRouter( asList( dynamicRoute( pattern ) ), route( "404" ) );
+        RoutedRequest req = new RoutedRequest();
+
+        for ( int round = 0; round < 2; round++ )
+        {
+            // When
+            for ( int i = 0; i < 2000; i++ )
+            {
+                router.invoke( GET, "/missing" + i + ".png", req );
+
+                // Then
+                assertThat( req.route, equalTo( "404" ) );
+            }
+            for ( int i = 0; i < 300; i++ )
+            {
+                router.invoke( GET, "/file" + i + ".txt", req );
+
+                // Then
+                assertThat( req.route, equalTo( "dynamic" ) );
+                assertThat( req.path.fullPath(), equalTo( "/file" + i + ".txt" ) );
+            }
+        }
+    }
+
+    private static Route dynamicRoute( Route.PathPattern pattern )
+    {
+        return new Route()
+        {
+            @Override
+            public String method()
+            {
+                return GET.name();
+            }
+
+            @Override
+            public PathPattern pattern()
+            {
+                return pattern;
+            }
+
+            @Override
+            public void call( RequestContext req )
+            {
+                ((RoutedRequest) req).route = "dynamic";
+            }
+        };
+    }
+
+    private static class CountingPattern implements Route.PathPattern
+    {
+        private long version;
+        private int calls;
+
+        CountingPattern( long version )
+        {
+            this.version = version;
+        }
+
+        @Override
+        public boolean isDynamic()
+        {
+            return true;
+        }
+
+        @Override
+        public String pattern()
+        {
+            return "/*.txt";
+        }
+
+        @Override
+        public boolean matches( String path )
+        {
+            calls++;
+            return path.endsWith( ".txt" );
+        }
+
+        @Override
+        public long version()
+        {
+            return version;
+        }
+    }
+
+    private static Route route( String pattern )
+    {
+        return new CallbackRoute( GET, pattern, ( req ) -> ((RoutedRequest) req).route = pattern );
+    }
+
+    private static class RoutedRequest extends TestRequest
+    {
+        private Path path;
+        private String route;
+
+        RoutedRequest()
+        {
+            super( "/", new HashMap<>() );
+        }
+
+        @Override
+        public RequestContext initialize( Path path )
+        {
+            this.path = path;
+            return this;
+        }
+
+        @Override
+        public Path path()
+        {
+            return path;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package holon.util;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static java.nio.file.StandardOpenOption.READ;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class ContentHashTest
+{
+    @Rule public TemporaryFolder testDir = new TemporaryFolder();
+
+    @Test
+    public void shouldGiveSameEtagWhenFedIncrementally() throws Exception
+    {
+        // Given
+        byte[] content = "Hello, world!".getBytes( "UTF-8" );
+
+        // When
+        String incremental = new ContentHash()
+                .update( content, 0, 5 )
+                .update( ByteBuffer.wrap( content, 5, content.length - 5 ) )
+                .etag();
+
+        // Then
+        assertThat( incremental, equalTo( ContentHash.etag( content ) ) );
+    }
+
+    @Test
+    public void shouldGiveSameEtagForFileAndItsBytes() throws Exception
+    {
+        // Given
+        byte[] content = new byte[100_000];
+        for ( int i = 0; i < content.length; i++ )
+        {
+            content[i] = (byte) i;
+        }
+        Path file = testDir.newFile().toPath();
+        Files.write( file, content );
+
+        // When
+        String etag;
+        try(FileChannel channel = FileChannel.open( file, READ ))
+        {
+            etag = new ContentHash().update( channel ).etag();
+            assertThat( channel.position(), equalTo( 0l ) );
+        }
+
+        // Then
+        assertThat( etag, equalTo( ContentHash.etag( content ) ) );
+    }
+
+    @Test
+    public void shouldTellVersionsApart() throws Exception
+    {
+        assertThat( ContentHash.etag( "version 1".getBytes( "UTF-8" ) ),
+                not( equalTo( ContentHash.etag( "version 2".getBytes( "UTF-8" ) ) ) ) );
+        assertThat( ContentHash.weakEtag( 10, 1000 ), not( equalTo( ContentHash.weakEtag( 10, 2000 ) ) ) );
+    }
+}
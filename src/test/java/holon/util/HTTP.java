@@ -34,6 +34,8 @@ import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
 import org.apache.http.entity.mime.MultipartEntity;
 import org.apache.http.entity.mime.content.FileBody;
 import org.apache.http.entity.mime.content.StringBody;
@@ -214,6 +216,11 @@ public class HTTP
         };
     }
 
+    public static Payload json( String body )
+    {
+        return () -> new StringEntity( body, ContentType.APPLICATION_JSON );
+    }
+
     public static HttpExchange exchange()
     {
         return new HttpExchange();
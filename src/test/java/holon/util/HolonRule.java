@@ -94,6 +94,12 @@ public class HolonRule extends ExternalResource
         return "http://localhost:" + config.get( http_port );
     }
 
+    /** The folder static files are served from. */
+    public File publicDir()
+    {
+        return new File( home, "public" );
+    }
+
     private void newHomeDir()
     {
         try
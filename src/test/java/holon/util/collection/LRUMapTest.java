@@ -71,4 +71,78 @@ public class LRUMapTest
         assertThat(map.size(), equalTo(8));
         assertThat(evicted.size(), equalTo(120));
     }
+
+    @Test
+    public void shouldTellApartKeysInTheSameBucket() throws Exception
+    {
+        // Given
+        Map<CollidingKey, String> map = new LRUMap<>( 16 );
+        map.put( new CollidingKey( "a" ), "a" );
+        map.put( new CollidingKey( "b" ), "b" );
+        map.put( new CollidingKey( "c" ), "c" );
+
+        // When
+        map.put( new CollidingKey( "c" ), "c, again" );
+
+        // Then
+        assertThat( map.size(), equalTo( 3 ) );
+        assertThat( map.get( new CollidingKey( "a" ) ), equalTo( "a" ) );
+        assertThat( map.get( new CollidingKey( "b" ) ), equalTo( "b" ) );
+        assertThat( map.get( new CollidingKey( "c" ) ), equalTo( "c, again" ) );
+        assertNull( map.get( new CollidingKey( "d" ) ) );
+        assertFalse( map.containsKey( new CollidingKey( "d" ) ) );
+    }
+
+    @Test
+    public void shouldKeepEntriesIntactThroughEvictionAndRemoval() throws Exception
+    {
+        // Given
+        Map<CollidingKey, Integer> map = new LRUMap<>( 8, 1.0f, ( k, v ) -> {} );
+
+        // When
+        for ( int i = 0; i < 256; i++ )
+        {
+            map.put( new CollidingKey( "key-" + i ), i );
+            if(i % 3 == 0)
+            {
+                map.remove( new CollidingKey( "key-" + (i - 1) ) );
+            }
+        }
+
+        // Then
+        int found = 0;
+        for ( int i = 0; i < 256; i++ )
+        {
+            Integer value = map.get( new CollidingKey( "key-" + i ) );
+            if(value != null)
+            {
+                assertThat( value, equalTo( i ) );
+                found++;
+            }
+        }
+        assertThat( found, equalTo( map.size() ) );
+    }
+
+    /** All instances hash to the same bucket. */
+    private static class CollidingKey
+    {
+        private final String name;
+
+        CollidingKey( String name )
+        {
+            this.name = name;
+        }
+
+        @Override
+        public boolean equals( Object o )
+        {
+            return o instanceof CollidingKey && ((CollidingKey) o).name.equals( name );
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return 0;
+        }
+    }
 }